@@ -1,69 +1,69 @@
-import javax.swing.*;// Import JOptionPane for dialog boxes and other Swing components
-
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CompletableFuture;
 
 /* 
  The main entry point for the Mystery Mansion adventure game.
  This class handles the initial set up, including displaying a welcome screen,
  prompting for user input (ex. name), and initializing the game manager.
  It demonstrates basic user interaction and program flow in Java.
+ Nothing slow stands between launch and the welcome dialog: the story is loaded and prewarmed and
+ the mansion image decoded in the background while the player reads the welcome text.
+ For kiosks that relaunch the game for every visitor, StartupBenchmark records an AppCDS archive
+ from a --train run; launching with -XX:SharedArchiveFile=mansion.jsa then maps the game and
+ Swing classes instead of loading them.
  */
 public class AdventureGame {
+   /** Milliseconds from process start to the first dialog we aim for; set with -Dmansion.firstDialogMillis.*/
+   public static final long FIRST_DIALOG_TARGET = Long.getLong("mansion.firstDialogMillis", 1000);
+   
+   //The text of the welcome screen
+   private static final String WELCOME =
+                 "Welcome to Mystery Mansion, where your adventure awaits!\n"
+               + "Get ready to unlock your potential as you solve puzzles, make choices, and uncover secrets.\n"
+               + "Will you have what it takes to escape the mansion successfully?\n"
+               + "Good luck, and enjoy your journey!";
+   
+   //Answers for the training run: Start and a name, a cancelled first choice and a replay,
+   //then a playthrough to the true ending, through a text and a choice puzzle
+   private static final String[] TRAINING_SCRIPT = {"yes", "Visitor", "-1", "yes", "0", "0", "1", "0", "HAUNTED", "1", "no"};
 
    /* The main method that starts the application.
-      It sets up the welcome dialog, handles user choices, and launches the game.*/
+      It sets up the welcome dialog, handles user choices, and launches the game.
+      Run with --console to play in a text terminal without loading Swing or AWT,
+      or with --train to run through a launch without a screen or player (see train()).*/
     public static void main(String[] args) {
-          //Load the mansion image for the welcome screen
-         ImageIcon mansionImage = new ImageIcon("mansion.png");
-           
-           //Create a panel to hold the image and message, arranged vertically
-            JPanel panel = new JPanel();
-            panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
-           
-           //Add the image label, centered horizontally
-            JLabel imageLabel = new JLabel(mansionImage);
-            imageLabel.setAlignmentX(JLabel.CENTER_ALIGNMENT);
-       
-            //Create and add the welcome message label, centered horizontally
-            // Uses HTML for formatting (ex. centering and line breaks)
-            JLabel messageLabel = new JLabel("<html><center>"
-               + "Welcome to Mystery Mansion, where your adventure awaits!<br>" 
-               + "Get ready to unlock your potential as you solve puzzles, make choices, and uncover secrets.<br>" 
-               + "Will you have what it takes to escape the mansion successfully?<br>" 
-               + "Good luck, and enjoy your journey!<br><br>"
-               + "Click Start to begin."
-               + "</center></html>");
-            messageLabel.setAlignmentX(JLabel.CENTER_ALIGNMENT);
-               
-               //Add the image and message to the panel
-               panel.add(imageLabel);
-               panel.add(messageLabel);
-            
-            //Define options for the dialog: Start or Exit
-            Object[] options = {"Start", "Exit"};
-            
-            //Display the welcome dialog with the panel, image, and message
-            //Returns the user's choice (YES_OPTION for start, NO_OPTION for exit)
-            int choice = JOptionPane.showOptionDialog(
-                     null, //Parent component (null for centered)
-                     panel, //Content to display
-                     "Mystery Mansion", //Dialog title
-                     JOptionPane.YES_NO_OPTION, // Option type (Yes/No buttons)
-                     JOptionPane.PLAIN_MESSAGE, // Message type (plain, no icon)
-                     null, //Icon? (none)
-                     options, //Button options
-                     options[0] //Default selection (Start)
-            );
+          if (args.length > 0 && args[0].equals("--train")){
+             train();
+             System.exit(0); //As a launch does; AWT would otherwise hold the JVM for its shutdown timeout
+          }
+          
+          //Load the story and fill its caches while the welcome screen is up
+          CompletableFuture.runAsync(() -> StoryPack.getDefault().prewarm());
+          
+          //Pick the front end: Swing dialogs by default, or a plain text console with --console
+          GameIO io;
+          if (args.length > 0 && args[0].equals("--console")){
+             ConsoleGameIO console = new ConsoleGameIO();
+             console.setWelcomeListener(AdventureGame::reportFirstDialog); //Once the welcome text is printed
+             io = console;
+          } else {
+             SwingGameIO swing = new SwingGameIO(); //Starts decoding the mansion image
+             swing.setWelcomeListener(AdventureGame::reportFirstDialog);
+             io = swing;
+          }
+          
+          //Display the welcome screen (with the mansion image in Swing)
+          //Returns true if the player chose Start
+          boolean start = io.showWelcome(WELCOME);
                //If the user chooses Exit (not YES_OPTION), end the program
-               if(choice != JOptionPane.YES_OPTION){
+               if(!start){
                   return; //Exit main method, terminating the program
                }
         
                //Prompt the user for their name using an input dialog
-               String playerName = JOptionPane.showInputDialog(
-                     null,   //Parent component
+               String playerName = io.askText(
                      "Before we begin, what is your name?", //Promot message
-                     "Mystery Mansion",  //dialog title
-                     JOptionPane.QUESTION_MESSAGE //Message type (question icon)
+                     "Mystery Mansion"  //dialog title
                );
          
                   // If no name is provided or it's empty, use a default name
@@ -71,18 +71,43 @@ public class AdventureGame {
                      playerName = "Player"; //Default fallback
                   }
                   //If the user confirmed Start, create the player and game manager, then start the game
-                  if (choice == JOptionPane.YES_OPTION){ 
+                  if (start){ 
                      
                      //Instantiate the Player with the provided or default name
                      Player player = new Player(playerName);
                      
                      //Create the AdventureManager to handle high-level game flow
-                     AdventureManager manager = new AdventureManager(player);
+                     AdventureManager manager = new AdventureManager(player, io);
                      
                      //Start the game through the manager
                      manager.startGame();
-                  
+                     
+                     //This launcher hosts a single player, so close Swing down with the session
+                     System.exit(0);
                   }
                   
     }
+    
+   /* Does what a launch does through the Swing front end, with nothing on screen and scripted
+      answers: decodes the image, builds every dialog without showing it, cancels a scene's choice
+      and plays the story to its true ending, so every class a real launch uses gets loaded.
+      Run under -XX:ArchiveClassesAtExit to record an AppCDS archive.*/
+    private static void train(){
+          CompletableFuture.runAsync(() -> StoryPack.getDefault().prewarm());
+          SwingGameIO io = SwingGameIO.training(TRAINING_SCRIPT);
+          if (io.showWelcome(WELCOME)){
+             String playerName = io.askText("Before we begin, what is your name?", "Mystery Mansion");
+             new AdventureManager(new Player(playerName), io).startGame();
+          }
+    }
+    
+   /* Measures the time from process start to the first dialog and warns if it is over the target.
+      Set the target to 0 to always print the time.*/
+    private static void reportFirstDialog(){
+          //Read once the dialog is up, so loading the management classes is not on the way to it
+          long millis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+          if (millis >= FIRST_DIALOG_TARGET){
+             System.err.println("First dialog after " + millis + " ms (target " + FIRST_DIALOG_TARGET + " ms)");
+          }
+    }
 }
\ No newline at end of file
@@ -1,4 +1,8 @@
-import javax.swing.JOptionPane;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
 
 /**
    Manages the overall flow and lifecycle of the Mystery Mansion adventure game.
@@ -9,58 +13,335 @@ import javax.swing.JOptionPane;
    */
 public class AdventureManager{
    private Player player; // Reference to the Player object, containing name, score, and collected items.
+   private long sessionId = ThreadLocalRandom.current().nextLong(); // Tells sessions apart where names repeat.
    private int attempts; // Counter for the number of game attempts (playthroughs) by the player.
+   private volatile GameIO io; // Front end used for every message and question in this session.
+   private StoryPack story; // The compiled story this session plays, shared with every other session.
+   private MysteryMansion mansion; // Plays the scenes and remembers where the player is.
+   private GameListener[] listeners = new GameListener[0]; // Observers of this session, replaced on change.
+   private Prompt pending; // What the player is being asked, or null before begin() and after the session ends.
+   private AttemptPolicy attemptPolicy = AttemptPolicy.DEFAULT; // Rules for every puzzle this session starts.
+   private DecisionJournal journal; // Where the player's answers are recorded, or null.
+   private long journalSession; // The session id the answers are recorded under.
+   private LongSupplier clock = System::nanoTime; // Read once per answer, in nanoseconds.
+   private long answeredAt; // The clock when the answer being handled arrived.
+   
+   /** The replay question used by endings that don't define their own.*/
+   public static final String DEFAULT_REPLAY_PROMPT = "Would you like to play again?";
    
       /**
        Constructor to initialize the AdventureManager with a Player instance.
-       Sets the initial attempt count to zero, preparing for the first game start.
+       Uses Swing dialogs as the front end.
      
        @param player The Player object to manage throughout the game.
        */
       public AdventureManager(Player player){
+         this(player, new SwingGameIO());
+      }
+      
+      /**
+       Constructor to initialize the AdventureManager with a Player and a front end.
+       Sets the initial attempt count to zero, preparing for the first game start.
+     
+       @param player The Player object to manage throughout the game.
+       @param io The front end (Swing, console or scripted) the game talks through.
+       */
+      public AdventureManager(Player player, GameIO io){
+         this(player, io, StoryPack.getDefault());
+      }
+      
+      /**
+       Constructor to initialize the AdventureManager with a Player, a front end and a story.
+       Sets the initial attempt count to zero, preparing for the first game start.
+     
+       @param player The Player object to manage throughout the game.
+       @param io The front end (Swing, console or scripted) the game talks through.
+       @param story The compiled story to play.
+       */
+      public AdventureManager(Player player, GameIO io, StoryPack story){
          this.player = player;
+         this.io = io;
+         this.story = story;
          this.attempts = 0;
+         this.mansion = new MysteryMansion(this); //Pass manager for flow control
+      }
+      
+      /**
+       Rebuilds a session from a snapshot taken by snapshot(), with the same player, score,
+       inventory and playthrough count. startGame() then continues where the player left off,
+       ex. at the same choice, mid-puzzle with the same attempts and hints used and the rest of
+       the cooldown to wait, or at the replay question.
+     
+       @param snapshot The saved session.
+       @param io The front end the restored session talks through.
+       @param story The story the session was playing.
+       @return A manager ready to continue the session.
+       @throws IllegalArgumentException if the snapshot's scene is not in the story.
+       */
+      public static AdventureManager restore(SessionSnapshot snapshot, GameIO io, StoryPack story){
+         Player player = new Player(snapshot.getPlayerName());
+         player.increaseScore(snapshot.getScore());
+         for (String item : snapshot.getCollectedObjects()){
+            player.collectObject(item);
+         }
+         AdventureManager manager = new AdventureManager(player, io, story);
+         manager.attempts = snapshot.getAttempts();
+         manager.attemptPolicy = snapshot.getPolicy();
+         if (snapshot.getScene() != null){
+            int scene = story.findScene(snapshot.getScene());
+            if (scene < 0){
+               throw new IllegalArgumentException("The story has no scene " + snapshot.getScene());
+            }
+            manager.mansion.resumeAt(scene, snapshot.getSceneOp(), snapshot);
+         }
+         return manager;
+      }
+      
+      /**
+       Captures the session's state: player, score, inventory, playthrough count, attempt policy,
+       position in the story and, mid-puzzle, the attempt so far with what is left of its cooldown.
+       Take it from the session's own thread or while the session is waiting for the player.
+     
+       @return A snapshot that restore() can continue from.
+       */
+      public SessionSnapshot snapshot(){
+         int scene = mansion.getCurrentScene();
+         PlayerState state = player.getState(); //Score and inventory from the same moment
+         String sceneName = scene < 0 ? null : story.getSceneName(scene);
+         SessionSnapshot saved = mansion.getResumeState();
+         if (saved != null){
+            //Restored but not continued yet: the puzzle is still only in the snapshot
+            return new SessionSnapshot(state.getName(), state.getScore(), state.getCollectedObjects(), attempts, sceneName,
+                  mansion.getCurrentOp(), saved.getPuzzleAttempts(), saved.getPuzzleHints(), saved.getPuzzleCancellations(),
+                  saved.getCooldownLeft(), attemptPolicy);
+         }
+         Puzzle puzzle = mansion.getCurrentPuzzle();
+         if (puzzle == null){
+            return new SessionSnapshot(state.getName(), state.getScore(), state.getCollectedObjects(), attempts, sceneName,
+                  mansion.getCurrentOp(), 0, 0, 0, 0, attemptPolicy);
+         }
+         return new SessionSnapshot(state.getName(), state.getScore(), state.getCollectedObjects(), attempts, sceneName,
+               mansion.getCurrentOp(), puzzle.getAttemptsUsed(), puzzle.getHintsShown(), puzzle.getCancellations(),
+               puzzle.getAttempt().cooldownLeft(clock.getAsLong()), attemptPolicy);
       }
         /*
-         Starts a new game session by incrementing the attempt count and launching the first scene.
-         Creates a MysteryMansion instance to handle scene progression and user interactions.
+         Starts the game and keeps replaying it for as long as the player wants, asking every
+         question through the front end and waiting for the answer.
+         This is the stepped session below driven by a blocking loop: one MysteryMansion instance
+         is reused for every playthrough, and each replay is another turn of the loop instead of
+         a nested call, so replays never grow the stack.
+         A restored session first finishes the playthrough it was saved in.
          */
       public void startGame(){
-         incrementAttempts(); //Track this as a new playthrough
-         MysteryMansion mansion = new MysteryMansion(this); //Pass manager for flow control
-         mansion.showGardenIntro(); // Launch the initial garden scene
+         Prompt prompt = begin();
+         while (prompt != null){
+            prompt = ask(prompt);
+         }
       }
       
+      //==================STEPPED SESSION=====================
+      
       /**
-        Handles game restart after a failure or completion.
-        Resets the player's inventory, prompts for replay confirmation,
-        and either restarts the game or displays final stats and exits.
+       Starts the game without waiting on the player: the story runs until the player has to
+       answer, and the question is returned instead of shown. Pass the answer to answer() when
+       it arrives, from any thread, as long as only one thread steps the session at a time.
+       Messages still go to the front end as they happen, so it should not block on them.
+       A restored session first finishes the playthrough it was saved in.
+     
+       @return What the player is asked first.
        */
-      public void restartGame() {
-         player.clearCollectedObjects(); //Clear all collected items for a fresh start
-         //Prompt user for replay decision
-         int choice = JOptionPane.showConfirmDialog(
-             null,
-             "Would you like to play again?",
-             "Mystery Mansion",
-             JOptionPane.YES_NO_OPTION
-         );
-          
-          
-         if (choice == JOptionPane.YES_OPTION){
-            startGame(); //Begin a new game session
+      public Prompt begin(){
+         return pending = startPlaythrough();
+      }
+      
+      /**
+       Answers a CHOICE prompt.
+       @param choice The index of the selected option, or -1 if the player cancelled.
+       @return The next prompt, or null once the session is over.
+       @throws IllegalStateException if the session is not waiting for a choice.
+       @throws IllegalArgumentException if there is no such option.
+       */
+      public Prompt answer(int choice){
+         expect(Prompt.CHOICE);
+         if (choice < -1 || choice >= pending.getOptionCount()){
+            throw new IllegalArgumentException("No option " + choice + " to choose");
+         }
+         answeredAt = clock.getAsLong();
+         record(DecisionJournal.CHOICE, choice, null);
+         return pending = afterScenes(mansion.answer(choice));
+      }
+      
+      /**
+       Answers a TEXT prompt.
+       @param text The text the player entered, or null if the player cancelled.
+       @return The next prompt, or null once the session is over.
+       @throws IllegalStateException if the session is not waiting for text.
+       */
+      public Prompt answer(String text){
+         expect(Prompt.TEXT);
+         answeredAt = clock.getAsLong();
+         record(DecisionJournal.TEXT, -1, text);
+         return pending = afterScenes(mansion.answer(text));
+      }
+      
+      /**
+       Answers a CONFIRM prompt, which is the replay question after an ending.
+       @param yes true to play again.
+       @return The next prompt, or null once the session is over.
+       @throws IllegalStateException if the session is not waiting for a yes or no.
+       */
+      public Prompt answer(boolean yes){
+         expect(Prompt.CONFIRM);
+         answeredAt = clock.getAsLong();
+         record(DecisionJournal.CONFIRM, yes ? 1 : 0, null);
+         if (yes){
+            return pending = startPlaythrough(); //A new playthrough
+         }
+         farewell();
+         pending = null;
+         for (GameListener listener : listeners){
+            listener.sessionEnded(this);
+         }
+         return null;
+      }
+      
+      /**
+       Retrieves what the player is being asked.
+       @return The prompt waiting for an answer, or null before begin() and once the session is over.
+       */
+      public Prompt getPrompt(){
+         return pending;
+      }
+      
+      /* Starts the next playthrough, or continues a restored one, up to the first question.*/
+      private Prompt startPlaythrough(){
+         Prompt prompt;
+         if (mansion.isResuming()){
+            answeredAt = clock.getAsLong(); //A saved cooldown runs on from now
+            prompt = mansion.resume(); // Already counted when the session was saved
          } else {
-            //Display farewell message with player stats and exit
-            JOptionPane.showMessageDialog(
-                  null,
-                  "Thank you for playing Mystery Mansion, " + player.toString()
-                  + "\nYou played the game: " + attempts + " time(s).",
-                  "Game Over",
-                  JOptionPane.INFORMATION_MESSAGE
-            );
-            System.exit(0);//Terminate the program gracefully
+            incrementAttempts(); //Track this as a new playthrough
+            prompt = mansion.begin(); // Run scenes from the first scene until an ending
          }
+         return afterScenes(prompt);
+      }
       
+      /* Passes on the scenes' next question, or asks the replay question once an ending was shown.*/
+      private Prompt afterScenes(Prompt prompt){
+         if (prompt != null){
+            return prompt;
+         }
+         int ending = mansion.getCurrentScene();
+         for (GameListener listener : listeners){
+            listener.playthroughEnded(this, ending);
+         }
+         player.clearCollectedObjects(); //Clear all collected items for a fresh start
+         String replay = mansion.getReplayPrompt(ending);
+         return new Prompt(Prompt.CONFIRM, replay != null ? replay : DEFAULT_REPLAY_PROMPT, "Mystery Mansion", null);
+      }
+      
+      /**
+       Records every answer from now on, whichever host or front end steps the session; the blocking
+       startGame() loop answers through the same methods, so it is recorded too. A new session's
+       trace starts with DecisionJournal.start(), which calls this.
+       @param journal The journal to append to, or null to stop recording.
+       @param session The session id to record the answers under.
+       */
+      public void setJournal(DecisionJournal journal, long session){
+         this.journal = journal;
+         this.journalSession = session;
+      }
+      
+      /**
+       Sets the clock the session reads once for every answer, to time puzzle cooldowns; the answer
+       is recorded with that reading, so a replay can give it back (see DecisionJournal.replay()).
+       @param clock Gives the current time in nanoseconds; System.nanoTime() unless changed.
+       */
+      public void setClock(LongSupplier clock){
+         this.clock = clock;
+      }
+      
+      /**
+       Retrieves the clock reading taken when the answer being handled arrived, or when a restored
+       session resumed.
+       @return The time in nanoseconds, or 0 before either.
+       */
+      long getAnswerTime(){
+         return answeredAt;
+      }
+      
+      /* Appends an answer to the journal, if there is one, before the session acts on it.*/
+      private void record(int kind, int option, String text){
+         if (journal != null){
+            journal.append(journalSession, kind, mansion.getCurrentScene(), option, text, answeredAt);
+         }
+      }
+      
+      /* Checks that the session is waiting for this kind of answer.*/
+      private void expect(int kind){
+         if (pending == null || pending.getKind() != kind){
+            throw new IllegalStateException("The session is not waiting for this kind of answer");
+         }
+      }
+      
+      /* Asks a prompt through the front end, waits for the answer and steps the session with it.*/
+      private Prompt ask(Prompt prompt){
+         switch (prompt.getKind()){
+            case Prompt.CHOICE: return answer(io.showOptions(prompt.getMessage(), prompt.getTitle(), prompt.options()));
+            case Prompt.TEXT: return answer(io.askText(prompt.getMessage(), prompt.getTitle()));
+            default: return answer(io.confirm(prompt.getMessage(), prompt.getTitle()));
+         }
+      }
+      
+      /**
+       Registers an observer of this session's scenes, endings and end.
+       @param listener The listener to add.
+       */
+      public void addListener(GameListener listener){
+         GameListener[] grown = Arrays.copyOf(listeners, listeners.length + 1);
+         grown[listeners.length] = listener;
+         listeners = grown;
+      }
+      
+      /**
+       Removes an observer added with addListener().
+       @param listener The listener to remove.
+       */
+      public void removeListener(GameListener listener){
+         List<GameListener> remaining = new ArrayList<>(Arrays.asList(listeners));
+         remaining.remove(listener);
+         listeners = remaining.toArray(new GameListener[0]);
+      }
+      
+      /* Tells every listener about a choice. Called by MysteryMansion.*/
+      void fireChoiceMade(int scene, int option, long nanos){
+         for (GameListener listener : listeners){
+            listener.choiceMade(this, scene, option, nanos);
+         }
+      }
+      
+      /* Tells every listener that a puzzle is over. Called by MysteryMansion.*/
+      void firePuzzleFinished(int puzzle, Puzzle outcome, boolean solved, long nanos){
+         for (GameListener listener : listeners){
+            listener.puzzleFinished(this, puzzle, outcome, solved, nanos);
+         }
+      }
+      
+      /* Tells every listener that the player entered a scene. Called by MysteryMansion.*/
+      void fireSceneEntered(int scene){
+         for (GameListener listener : listeners){
+            listener.sceneEntered(this, scene);
+         }
+      }
+      
+      /* Displays the farewell message with the player's stats.*/
+      private void farewell(){
+         io.showMessage(
+               "Thank you for playing Mystery Mansion, " + player.toString()
+               + "\nYou played the game: " + attempts + " time(s).",
+               "Game Over",
+               MessageType.INFORMATION
+         );
       }
       /*
         Increments the attempt counter by one.
@@ -77,6 +358,23 @@ public class AdventureManager{
       public int getAttempts(){
          return attempts;
       }
+      /**
+       Retrieves the id that tells this session apart from every other, ex. to count distinct
+       players when several share a name. Random, so ids from different processes or replays
+       do not collide.
+       @return The session id.
+      */
+      public long getSessionId(){
+         return sessionId;
+      }
+      /**
+       Gives a rebuilt session the id of the session it continues, ex. when SessionManager
+       pages one back in.
+       @param sessionId The id from the earlier getSessionId().
+      */
+      void setSessionId(long sessionId){
+         this.sessionId = sessionId;
+      }
       /**
        Retrieves the managed Player object.
        @return The Player instance associated with this manager.
@@ -84,4 +382,49 @@ public class AdventureManager{
       public Player getPlayer(){
          return player;
       }
+      /**
+       Retrieves the front end this session talks through.
+       @return The GameIO used for all messages and questions.
+      */
+      public GameIO getIO(){
+         return io;
+      }
+      /**
+       Replaces the front end this session talks through, ex. to record the player's
+       decisions or when a player reconnects. Takes effect from the next message or question.
+       @param io The new front end.
+      */
+      public void setIO(GameIO io){
+         this.io = io;
+      }
+      /**
+       Retrieves the scene the player is in.
+       @return The scene index in the story, or -1 before the first playthrough.
+      */
+      public int getCurrentScene(){
+         return mansion.getCurrentScene();
+      }
+      /**
+       Retrieves the story this session plays.
+       @return The compiled StoryPack.
+      */
+      public StoryPack getStory(){
+         return story;
+      }
+      /**
+       Retrieves the rules puzzles are attempted under in this session.
+       @return The AttemptPolicy, AttemptPolicy.DEFAULT unless changed.
+      */
+      public AttemptPolicy getAttemptPolicy(){
+         return attemptPolicy;
+      }
+      /**
+       Changes the rules puzzles are attempted under, ex. fewer attempts or a cooldown for a
+       harder mode. Takes effect from the next puzzle started. Snapshots keep it, and a journaled
+       session's trace records it at its start, so set it before DecisionJournal.start().
+       @param attemptPolicy The new rules.
+      */
+      public void setAttemptPolicy(AttemptPolicy attemptPolicy){
+         this.attemptPolicy = attemptPolicy;
+      }
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+import java.util.Arrays;
+
+/**
+  Many submitted answers packed for grading in one pass (see PuzzleRegistry.grade()).
+  The answers are not kept as Strings: their characters are copied, already trimmed, into one
+  shared char array, and each answer is a puzzle index and a start and end in it, held in plain
+  int arrays. Grading walks these arrays in order and hands the ranges straight to the puzzles'
+  AnswerMatchers, so it allocates nothing per answer. A batch can be cleared and filled again.
+  */
+public final class AnswerBatch {
+   private char[] chars; // Every answer's characters, one after the other.
+   private int length; // Characters used in chars.
+   private int[] puzzles; // The puzzle each answer is for.
+   private int[] starts; // Where each answer starts in chars.
+   private int[] ends; // Where each answer ends in chars.
+   private int size;
+
+   /** Creates an empty batch.*/
+   public AnswerBatch(){
+      this(1024);
+   }
+
+   /** Creates an empty batch with room for some answers before it has to grow.
+       @param expectedAnswers The number of answers expected.*/
+   public AnswerBatch(int expectedAnswers){
+      int capacity = Math.max(16, expectedAnswers);
+      chars = new char[capacity * 8];
+      puzzles = new int[capacity];
+      starts = new int[capacity];
+      ends = new int[capacity];
+   }
+
+   /** Adds an answer. Surrounding whitespace is dropped, as the puzzles ignore it anyway.
+       @param puzzle The index of the puzzle the answer was submitted to.
+       @param answer The answer as typed; null counts as an empty answer.
+       @return This batch, for chaining.*/
+   public AnswerBatch add(int puzzle, CharSequence answer){
+      if (size == puzzles.length){
+         int capacity = size * 2;
+         puzzles = Arrays.copyOf(puzzles, capacity);
+         starts = Arrays.copyOf(starts, capacity);
+         ends = Arrays.copyOf(ends, capacity);
+      }
+      int from = 0;
+      int to = answer == null ? 0 : answer.length();
+      while (from < to && Character.isWhitespace(answer.charAt(from))){
+         from++;
+      }
+      while (to > from && Character.isWhitespace(answer.charAt(to - 1))){
+         to--;
+      }
+      if (length + (to - from) > chars.length){
+         chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + (to - from)));
+      }
+      puzzles[size] = puzzle;
+      starts[size] = length;
+      for (int i = from; i < to; i++){
+         chars[length++] = answer.charAt(i);
+      }
+      ends[size] = length;
+      size++;
+      return this;
+   }
+
+   /** Empties the batch, keeping its arrays for the next answers.*/
+   public void clear(){
+      size = 0;
+      length = 0;
+   }
+
+   /** @return The number of answers in the batch.*/
+   public int size(){
+      return size;
+   }
+
+   /** @param index The answer's position in the batch.
+       @return The puzzle the answer is for.*/
+   public int getPuzzle(int index){
+      return puzzles[index];
+   }
+
+   /** Copies an answer out, ex. to report it. Grading does not need this.
+       @param index The answer's position in the batch.
+       @return The trimmed answer.*/
+   public String getAnswer(int index){
+      return new String(chars, starts[index], ends[index] - starts[index]);
+   }
+
+   /* The packed characters, read in place by the grader.*/
+   char[] chars(){
+      return chars;
+   }
+
+   /* Where an answer starts in chars().*/
+   int start(int index){
+      return starts[index];
+   }
+
+   /* Where an answer ends in chars().*/
+   int end(int index){
+      return ends[index];
+   }
+}
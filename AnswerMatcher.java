@@ -0,0 +1,245 @@
+/**
+  Decides whether a submitted answer counts as correct for a puzzle.
+  Every matcher prepares a canonical, case-folded copy of its accepted answers once, when it is
+  created, and then compares answers in place by index range, so checking an answer allocates nothing.
+  Matchers can be combined, ex. an exact answer plus a few accepted synonyms.
+  */
+public interface AnswerMatcher {
+   
+   /** Checks the characters answer[start, end) against this matcher.
+       Case is ignored; the caller has already trimmed surrounding whitespace.
+       @param answer The submitted text.
+       @param start The index of the first character to check.
+       @param end The index after the last character to check.
+       @return true if the answer is accepted.*/
+   boolean matches(CharSequence answer, int start, int end);
+   
+   /** Checks a whole answer, ignoring case and surrounding whitespace.
+       @param answer The submitted text, may be null.
+       @return true if the answer is accepted.*/
+   default boolean matches(CharSequence answer){
+      if (answer == null){
+         return false;
+      }
+      int start = 0;
+      int end = answer.length();
+      while (start < end && Character.isWhitespace(answer.charAt(start))){
+         start++;
+      }
+      while (end > start && Character.isWhitespace(answer.charAt(end - 1))){
+         end--;
+      }
+      return matches(answer, start, end);
+   }
+   
+   /** @return A matcher accepting exactly this answer (ignoring case and surrounding whitespace).*/
+   static AnswerMatcher exact(String correct){
+      return new Exact(correct);
+   }
+   
+   /** @return A matcher accepting any of the given answers.*/
+   static AnswerMatcher synonyms(String... accepted){
+      AnswerMatcher[] matchers = new AnswerMatcher[accepted.length];
+      for (int i = 0; i < accepted.length; i++){
+         matchers[i] = new Exact(accepted[i]);
+      }
+      return anyOf(matchers);
+   }
+   
+   /** @return A matcher accepting an answer if any of the given matchers does.*/
+   static AnswerMatcher anyOf(AnswerMatcher... matchers){
+      AnswerMatcher[] copy = matchers.clone();
+      return (answer, start, end) -> {
+         for (AnswerMatcher matcher : copy){
+            if (matcher.matches(answer, start, end)){
+               return true;
+            }
+         }
+         return false;
+      };
+   }
+   
+   /** @return A matcher accepting any rearrangement of exactly these letters (ex. UNAHTED for HAUNTED).*/
+   static AnswerMatcher anagram(String letters){
+      return new Anagram(letters);
+   }
+   
+   /** @return A matcher accepting answers at most maxEdits insertions, deletions or substitutions away.*/
+   static AnswerMatcher withinEdits(String correct, int maxEdits){
+      return new EditDistance(correct, maxEdits);
+   }
+   
+   /** Folds a character to the form used for case-insensitive comparison.
+       @param c The character.
+       @return Its canonical (upper case) form.*/
+   static char fold(char c){
+      return Character.toUpperCase(Character.toLowerCase(c));
+   }
+   
+   /* Trims and case-folds an accepted answer into its canonical characters.*/
+   private static char[] canonical(String text){
+      String trimmed = text.trim();
+      char[] chars = new char[trimmed.length()];
+      for (int i = 0; i < chars.length; i++){
+         chars[i] = fold(trimmed.charAt(i));
+      }
+      return chars;
+   }
+   
+   /*
+     Accepts one answer, compared character by character against its canonical form.
+     */
+   final class Exact implements AnswerMatcher {
+      private final char[] expected;
+      
+      Exact(String correct){
+         expected = canonical(correct);
+      }
+      
+      @Override
+      public boolean matches(CharSequence answer, int start, int end){
+         if (end - start != expected.length){
+            return false;
+         }
+         for (int i = 0; i < expected.length; i++){
+            if (fold(answer.charAt(start + i)) != expected[i]){
+               return false;
+            }
+         }
+         return true;
+      }
+   }
+   
+   /*
+     Accepts any answer that uses exactly the same letters, the same number of times.
+     The distinct letters and their counts are worked out once; an answer is checked by counting
+     each of those letters in it, which needs no scratch arrays.
+     */
+   final class Anagram implements AnswerMatcher {
+      private final int length;
+      private final char[] letters; // Distinct canonical letters.
+      private final int[] counts; // How often each letter appears.
+      
+      Anagram(String text){
+         char[] chars = canonical(text);
+         length = chars.length;
+         char[] distinct = new char[chars.length];
+         int[] tally = new int[chars.length];
+         int size = 0;
+         for (char c : chars){
+            int i = 0;
+            while (i < size && distinct[i] != c){
+               i++;
+            }
+            if (i == size){
+               distinct[size++] = c;
+            }
+            tally[i]++;
+         }
+         letters = java.util.Arrays.copyOf(distinct, size);
+         counts = java.util.Arrays.copyOf(tally, size);
+      }
+      
+      @Override
+      public boolean matches(CharSequence answer, int start, int end){
+         if (end - start != length){
+            return false;
+         }
+         //Same length, so matching counts for every expected letter leaves no room for other letters
+         for (int i = 0; i < letters.length; i++){
+            int found = 0;
+            for (int j = start; j < end; j++){
+               if (fold(answer.charAt(j)) == letters[i]){
+                  found++;
+               }
+            }
+            if (found != counts[i]){
+               return false;
+            }
+         }
+         return true;
+      }
+   }
+   
+   /*
+     Accepts answers within a number of single-character edits (Levenshtein distance).
+     Uses the bit-parallel algorithm of Myers (global distance form by Hyyrö): each column of the
+     distance table is kept as bit masks in two longs, so answers up to 64 characters are checked
+     without allocating, in one pass over the answer.
+     */
+   final class EditDistance implements AnswerMatcher {
+      private final int length;
+      private final int maxEdits;
+      private final char[] letters; // Distinct canonical letters of the correct answer.
+      private final long[] positions; // Bit i set when letters[k] appears at index i of the answer.
+      
+      EditDistance(String correct, int maxEdits){
+         char[] chars = canonical(correct);
+         if (chars.length == 0 || chars.length > 64){
+            throw new IllegalArgumentException("Edit tolerance needs an answer of 1 to 64 characters: " + correct);
+         }
+         if (maxEdits < 0){
+            throw new IllegalArgumentException("maxEdits must not be negative");
+         }
+         this.length = chars.length;
+         this.maxEdits = maxEdits;
+         char[] distinct = new char[chars.length];
+         long[] masks = new long[chars.length];
+         int size = 0;
+         for (int i = 0; i < chars.length; i++){
+            int k = 0;
+            while (k < size && distinct[k] != chars[i]){
+               k++;
+            }
+            if (k == size){
+               distinct[size++] = chars[i];
+            }
+            masks[k] |= 1L << i;
+         }
+         letters = java.util.Arrays.copyOf(distinct, size);
+         positions = java.util.Arrays.copyOf(masks, size);
+      }
+      
+      @Override
+      public boolean matches(CharSequence answer, int start, int end){
+         if (Math.abs((end - start) - length) > maxEdits){
+            return false; //Too long or too short to ever be close enough
+         }
+         return distance(answer, start, end) <= maxEdits;
+      }
+      
+      /* Computes the edit distance between the correct answer and answer[start, end).*/
+      int distance(CharSequence answer, int start, int end){
+         long top = 1L << (length - 1);
+         long pv = length == 64 ? -1L : (1L << length) - 1;
+         long mv = 0;
+         int score = length;
+         for (int j = start; j < end; j++){
+            long eq = positionsOf(fold(answer.charAt(j)));
+            long xv = eq | mv;
+            long xh = (((eq & pv) + pv) ^ pv) | eq;
+            long ph = mv | ~(xh | pv);
+            long mh = pv & xh;
+            if ((ph & top) != 0){
+               score++;
+            } else if ((mh & top) != 0){
+               score--;
+            }
+            ph = (ph << 1) | 1; //Row 0 of the table grows by one per answer character
+            mh = mh << 1;
+            pv = mh | ~(xv | ph);
+            mv = ph & xv;
+         }
+         return score;
+      }
+      
+      private long positionsOf(char c){
+         for (int k = 0; k < letters.length; k++){
+            if (letters[k] == c){
+               return positions[k];
+            }
+         }
+         return 0;
+      }
+   }
+}
@@ -0,0 +1,257 @@
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+  Hosts many game sessions on a small, fixed pool of threads, with no thread waiting on a player.
+  Each session is a stepped AdventureManager: it runs until the player has to answer and hands
+  back a Prompt, and the answer, whenever it arrives, is a step that completes with the next Prompt.
+  Steps of one session run in order, steps of different sessions in parallel, so a few threads
+  serve any number of players who are thinking. Compare SessionHost, which parks one (virtual)
+  thread per waiting player and works with any blocking GameIO.
+  Messages are written to each session's GameIO as they happen, so it must not block; its input
+  methods are never called, so an OutputGameIO fits.
+  */
+public class AsyncSessionHost implements AutoCloseable {
+   private final ExecutorService pool; // Runs every step of every session.
+   private final Map<Long, Session> sessions = new ConcurrentHashMap<>(); // Running sessions by id.
+   private final AtomicLong nextId = new AtomicLong(); // Source of session ids.
+   private final StoryRepository stories; // Gives each new session the current story; it keeps that version.
+   private final List<GameListener> listeners = new CopyOnWriteArrayList<>(); // Added to every new session.
+   private volatile DecisionJournal journal; // Records every new session's decisions, or null.
+
+   /** Creates a host for the default story with one thread per processor,
+       picking up new versions of the story as they are published.*/
+   public AsyncSessionHost(){
+      this(StoryRepository.getDefault(), Runtime.getRuntime().availableProcessors());
+   }
+
+   /** Creates a host for the given story.
+       @param story The compiled story every session plays.
+       @param threads The number of threads stepping sessions.*/
+   public AsyncSessionHost(StoryPack story, int threads){
+      this(StoryRepository.of(story), threads);
+   }
+
+   /** Creates a host whose new sessions play the current version of a story.
+       @param stories Where the story is published; running sessions keep the version they started on.
+       @param threads The number of threads stepping sessions.*/
+   public AsyncSessionHost(StoryRepository stories, int threads){
+      this.stories = stories;
+      AtomicInteger count = new AtomicInteger();
+      this.pool = Executors.newFixedThreadPool(threads, task -> {
+         Thread thread = new Thread(task, "session-step-" + count.incrementAndGet());
+         thread.setDaemon(true);
+         return thread;
+      });
+   }
+
+   /** Observes every session opened from now on, ex. with GameMetrics or a Leaderboard.
+       @param listener The listener to add to each new session.*/
+   public void addListener(GameListener listener){
+      listeners.add(listener);
+   }
+
+   /** Records the decisions of every new session opened from now on. With FsyncPolicy.DATA or
+       FULL each step waits for the disk, which holds a pool thread; NONE does not.
+       @param journal The journal to append to, or null to stop recording.*/
+   public void setJournal(DecisionJournal journal){
+      this.journal = journal;
+   }
+
+   /** Opens a new session. Nothing runs until its start() is called.
+       @param playerName The name of the player.
+       @param output Where the session's messages go; must not block.
+       @return The session.*/
+   public Session open(String playerName, GameIO output){
+      return open(new AdventureManager(new Player(playerName), output, stories.getStory()));
+   }
+
+   /** Hosts an existing session, ex. one restored from a SessionSnapshot.
+       Nothing runs until its start() is called. Only a session that has not played yet is journaled.
+       @param manager The session, not started yet.
+       @return The hosted session.*/
+   public Session open(AdventureManager manager){
+      for (GameListener listener : listeners){
+         manager.addListener(listener);
+      }
+      Session session = new Session(nextId.incrementAndGet(), manager);
+      DecisionJournal recorder = journal;
+      if (recorder != null && manager.getCurrentScene() < 0){
+         recorder.start(session.id, manager);
+      }
+      sessions.put(session.id, session);
+      return session;
+   }
+
+   /** Retrieves a running session.
+       @param id The session id.
+       @return The session, or null if it has ended or was closed.*/
+   public Session get(long id){
+      return sessions.get(id);
+   }
+
+   /** @return The number of sessions still running.*/
+   public int getActiveSessions(){
+      return sessions.size();
+   }
+
+   /** Stops the pool after the steps already queued; sessions are dropped where they are.*/
+   @Override
+   public void close(){
+      sessions.clear();
+      pool.shutdown();
+      try {
+         pool.awaitTermination(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+     One hosted session. Every method returns at once; the step runs on the host's pool and the
+     returned future completes with the prompt the player is asked next, or null once the
+     session is over. Steps queue behind each other, so answers are applied in the order given.
+     */
+   public final class Session {
+      private final long id;
+      private final AdventureManager manager;
+      private CompletableFuture<Prompt> last = CompletableFuture.completedFuture(null); // The newest step; guarded by this.
+
+      private Session(long id, AdventureManager manager){
+         this.id = id;
+         this.manager = manager;
+      }
+
+      /** @return The session id.*/
+      public long getId(){
+         return id;
+      }
+
+      /** @return The session's manager, ex. to read the player or take a snapshot between steps.*/
+      public AdventureManager getManager(){
+         return manager;
+      }
+
+      /** Starts the game, or continues a restored one.
+          @return The first prompt.*/
+      public CompletableFuture<Prompt> start(){
+         return step(AdventureManager::begin);
+      }
+
+      /** Answers the waiting prompt with a line the player typed, read the way ConsoleGameIO
+          reads it: an option number from 1 for choices, the text itself for text prompts, and
+          "y..." for yes. A line that is not a valid option leaves the prompt waiting.
+          @param line The line, or null to cancel the prompt.
+          @return The next prompt; the same one again if the line was not a valid option.*/
+      public CompletableFuture<Prompt> answer(String line){
+         return step(session -> apply(session, line));
+      }
+
+      /** Picks an option of the waiting CHOICE prompt.
+          @param option The option index from 0, or -1 to cancel.
+          @return The next prompt.*/
+      public CompletableFuture<Prompt> choose(int option){
+         return step(session -> session.answer(option));
+      }
+
+      /** Ends the session where it is, without running anything more.*/
+      public void close(){
+         sessions.remove(id);
+      }
+
+      /* Queues a step behind the previous one, whether or not that one failed.*/
+      private synchronized CompletableFuture<Prompt> step(Function<AdventureManager, Prompt> action){
+         CompletableFuture<Prompt> next = last.handle((prompt, error) -> manager).thenApplyAsync(session -> {
+            Prompt prompt = action.apply(session);
+            if (prompt == null){
+               sessions.remove(id); //Over; nothing holds on to it any more
+            }
+            return prompt;
+         }, pool);
+         last = next;
+         return next;
+      }
+   }
+
+   /* Turns a typed line into the answer the waiting prompt expects.*/
+   private static Prompt apply(AdventureManager session, String line){
+      Prompt prompt = session.getPrompt();
+      if (prompt == null){
+         throw new IllegalStateException("The session is not waiting for an answer");
+      }
+      switch (prompt.getKind()){
+         case Prompt.CHOICE:
+            if (line == null){
+               return session.answer(-1);
+            }
+            try {
+               int choice = Integer.parseInt(line.trim());
+               if (choice >= 1 && choice <= prompt.getOptionCount()){
+                  return session.answer(choice - 1);
+               }
+            } catch (NumberFormatException e){
+               //Not a number: ask again
+            }
+            return prompt;
+         case Prompt.TEXT:
+            return session.answer(line);
+         default:
+            return session.answer(line != null && line.trim().toLowerCase().startsWith("y"));
+      }
+   }
+
+   /** Plays many sessions at once on a few threads, each answering at random as soon as it is asked,
+       and reports how many finished per second and how many threads the JVM used.
+       @param args Optional number of sessions (default 10000) and threads (default: processors).*/
+   public static void main(String[] args) throws InterruptedException {
+      int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+      int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+      StoryPack story = StoryPack.getDefault();
+      GameIO silent = OutputGameIO.SILENT;
+      CountDownLatch finished = new CountDownLatch(count);
+      AtomicLong steps = new AtomicLong();
+      try (AsyncSessionHost host = new AsyncSessionHost(story, threads)){
+         long start = System.nanoTime();
+         for (int i = 0; i < count; i++){
+            Session session = host.open("Player" + i, silent);
+            SplittableRandom random = new SplittableRandom(i);
+            session.start().whenComplete((prompt, error) -> play(session, prompt, error, random, steps, finished));
+         }
+         finished.await();
+         double seconds = (System.nanoTime() - start) / 1e9;
+         System.out.printf("%d sessions on %d threads: %.1f s, %.0f sessions/s, %.0f answers/s, %d live JVM threads%n",
+               count, threads, seconds, count / seconds, steps.get() / seconds, Thread.activeCount());
+      }
+   }
+
+   /* One random answer to the prompt, then the same again for the next one, until the session ends.*/
+   private static void play(Session session, Prompt prompt, Throwable error, SplittableRandom random,
+         AtomicLong steps, CountDownLatch finished){
+      if (error != null || prompt == null){
+         if (error != null){
+            error.printStackTrace();
+         }
+         finished.countDown();
+         return;
+      }
+      steps.incrementAndGet();
+      String line;
+      switch (prompt.getKind()){
+         case Prompt.CHOICE: line = String.valueOf(1 + random.nextInt(prompt.getOptionCount())); break;
+         case Prompt.TEXT: line = random.nextBoolean() ? "HAUNTED" : "WRONG"; break;
+         default: line = session.getManager().getAttempts() < 3 ? "yes" : "no"; break;
+      }
+      session.answer(line).whenComplete((next, failure) -> play(session, next, failure, random, steps, finished));
+   }
+}
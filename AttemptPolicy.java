@@ -0,0 +1,136 @@
+import java.nio.ByteBuffer;
+
+/**
+  The rules a puzzle is attempted under: how many wrong answers fail it, how many hints may be
+  asked for, how long the player must wait after a wrong answer, and whether each hint gives
+  away more than the last. Puzzles follow DEFAULT unless the session sets another one
+  (see AdventureManager.setAttemptPolicy()). Immutable; the with...() methods return changed copies.
+  Decision journals and session snapshots store it with write() and read(), so a replayed or
+  restored session follows the same rules.
+  */
+public final class AttemptPolicy {
+   /** Three wrong answers fail the puzzle, hints are free and unlimited, no waiting: the classic rules.*/
+   public static final AttemptPolicy DEFAULT = new AttemptPolicy(3, Integer.MAX_VALUE, 0, false);
+   /** Size of the binary form written by write().*/
+   static final int BYTES = 17;
+
+   private final int maxAttempts;
+   private final int hintBudget;
+   private final long cooldownNanos;
+   private final boolean escalatingHints;
+
+   private AttemptPolicy(int maxAttempts, int hintBudget, long cooldownNanos, boolean escalatingHints){
+      if (maxAttempts < 1){
+         throw new IllegalArgumentException("A puzzle needs at least one attempt: " + maxAttempts);
+      }
+      if (hintBudget < 0 || cooldownNanos < 0){
+         throw new IllegalArgumentException("Hint budget and cooldown must not be negative");
+      }
+      this.maxAttempts = maxAttempts;
+      this.hintBudget = hintBudget;
+      this.cooldownNanos = cooldownNanos;
+      this.escalatingHints = escalatingHints;
+   }
+
+   /** @param maxAttempts Wrong answers that fail the puzzle, at least 1.
+       @return A copy with that many attempts.*/
+   public AttemptPolicy withMaxAttempts(int maxAttempts){
+      return new AttemptPolicy(maxAttempts, hintBudget, cooldownNanos, escalatingHints);
+   }
+
+   /** @param hintBudget Hints the player may ask for on one puzzle; 0 for none.
+       @return A copy with that hint budget.*/
+   public AttemptPolicy withHintBudget(int hintBudget){
+      return new AttemptPolicy(maxAttempts, hintBudget, cooldownNanos, escalatingHints);
+   }
+
+   /** @param millis How long answers are refused after a wrong one; 0 for no wait.
+       @return A copy with that cooldown.*/
+   public AttemptPolicy withCooldownMillis(long millis){
+      return new AttemptPolicy(maxAttempts, hintBudget, millis * 1_000_000L, escalatingHints);
+   }
+
+   /** @param escalating true to reveal more of the answer with every hint after the first.
+       @return A copy with hints escalating or not.*/
+   public AttemptPolicy withEscalatingHints(boolean escalating){
+      return new AttemptPolicy(maxAttempts, hintBudget, cooldownNanos, escalating);
+   }
+
+   /** @return Wrong answers that fail the puzzle.*/
+   public int getMaxAttempts(){
+      return maxAttempts;
+   }
+
+   /** @return Hints the player may ask for on one puzzle.*/
+   public int getHintBudget(){
+      return hintBudget;
+   }
+
+   /** @return How long answers are refused after a wrong one, in nanoseconds.*/
+   public long getCooldownNanos(){
+      return cooldownNanos;
+   }
+
+   /** @return true if hints after the first reveal more of the answer.*/
+   public boolean isEscalatingHints(){
+      return escalatingHints;
+   }
+
+   /** Words the hint shown for the given request.
+       Without escalation every hint is the story's clue. With it, the first is the clue and each
+       later one also reveals one more letter of the answer, never the whole answer.
+       @param level Which hint this is on the puzzle, from 1.
+       @param clue The puzzle's clue from the story, may be null.
+       @param answer The correct answer.
+       @return The hint text, without the "Hint: " label.*/
+   public String hintText(int level, String clue, String answer){
+      if (!escalatingHints || level <= 1 || answer.length() < 2){
+         return clue;
+      }
+      int shown = Math.min(level - 1, answer.length() - 1);
+      StringBuilder text = new StringBuilder(2 * answer.length() + 64);
+      if (clue != null){
+         text.append(clue).append(' ');
+      }
+      text.append("The answer is ");
+      for (int i = 0; i < answer.length(); i++){
+         text.append(i < shown ? answer.charAt(i) : '_');
+      }
+      return text.append('.').toString();
+   }
+
+   /** Writes the binary form: attempts, hint budget, cooldown in nanoseconds and escalation.
+       @param out The buffer to write to, with BYTES remaining.*/
+   void write(ByteBuffer out){
+      out.putInt(maxAttempts).putInt(hintBudget).putLong(cooldownNanos).put((byte) (escalatingHints ? 1 : 0));
+   }
+
+   /** Reads a policy written by write().
+       @param in The buffer to read from.
+       @return The policy.
+       @throws IllegalArgumentException if the values are not a valid policy.*/
+   static AttemptPolicy read(ByteBuffer in){
+      return new AttemptPolicy(in.getInt(), in.getInt(), in.getLong(), in.get() != 0);
+   }
+
+   @Override
+   public boolean equals(Object other){
+      if (!(other instanceof AttemptPolicy)){
+         return false;
+      }
+      AttemptPolicy policy = (AttemptPolicy) other;
+      return maxAttempts == policy.maxAttempts && hintBudget == policy.hintBudget
+            && cooldownNanos == policy.cooldownNanos && escalatingHints == policy.escalatingHints;
+   }
+
+   @Override
+   public int hashCode(){
+      return ((maxAttempts * 31 + hintBudget) * 31 + Long.hashCode(cooldownNanos)) * 2 + (escalatingHints ? 1 : 0);
+   }
+
+   @Override
+   public String toString(){
+      return maxAttempts + " attempts, " + (hintBudget == Integer.MAX_VALUE ? "unlimited" : String.valueOf(hintBudget))
+            + " hints, " + cooldownNanos / 1_000_000L + " ms cooldown" + (escalatingHints ? ", escalating hints" : "");
+   }
+}
@@ -0,0 +1,94 @@
+import java.util.SplittableRandom;
+
+/**
+  A GameIO that plays by itself on a randomized policy, for load and soak tests.
+  Scene choices are picked at random. Puzzles are answered correctly with a given probability,
+  otherwise wrongly, and text puzzles ask for a "HINT" now and then; the bot reads the correct
+  answer from the story, so how often puzzles are solved is under the test's control.
+  After a set number of playthroughs it declines to play again and the session ends.
+  Attach it to the session it plays with attach() before starting the game.
+  */
+public class BotGameIO implements GameIO {
+   private final SplittableRandom random; // Each bot has its own generator, so bots never contend.
+   private final double correctRate; // Chance of answering a puzzle correctly.
+   private final double hintRate; // Chance of asking for a hint instead of answering a text puzzle.
+   private final int playthroughs; // Playthroughs to play before declining to replay.
+   private AdventureManager session; // The session being played, for reading the puzzle answers.
+   private int played;
+
+   /** Creates a bot.
+       @param seed The random seed, so a run can be repeated.
+       @param correctRate Chance (0-1) of answering a puzzle correctly.
+       @param hintRate Chance (0-1) of asking a text puzzle for a hint.
+       @param playthroughs Playthroughs to play before the session ends.*/
+   public BotGameIO(long seed, double correctRate, double hintRate, int playthroughs){
+      this.random = new SplittableRandom(seed);
+      this.correctRate = correctRate;
+      this.hintRate = hintRate;
+      this.playthroughs = playthroughs;
+   }
+
+   /** Connects the bot to the session it plays.
+       @param session The session's manager.*/
+   public void attach(AdventureManager session){
+      this.session = session;
+   }
+
+   @Override
+   public void showMessage(String message, String title, MessageType type){
+      //Bots don't read
+   }
+
+   @Override
+   public void showText(CharSequence message){
+      //Bots don't read, so the buffer is never turned into a String
+   }
+
+   @Override
+   public int showOptions(String message, String title, String[] options){
+      int puzzle = currentPuzzle();
+      if (puzzle >= 0){
+         String answer = session.getStory().getPuzzleAnswer(puzzle);
+         int correct = -1;
+         for (int i = 0; i < options.length; i++){
+            if (options[i].equals(answer)){
+               correct = i;
+            }
+         }
+         if (correct >= 0 && options.length > 1 && random.nextDouble() >= correctRate){
+            int wrong = random.nextInt(options.length - 1);
+            return wrong < correct ? wrong : wrong + 1; //Any option but the correct one
+         }
+         if (correct >= 0){
+            return correct;
+         }
+      }
+      return random.nextInt(options.length);
+   }
+
+   @Override
+   public String askText(String message, String title){
+      int puzzle = currentPuzzle();
+      if (puzzle < 0){
+         return "Bot";
+      }
+      if (random.nextDouble() < hintRate){
+         return "HINT";
+      }
+      return random.nextDouble() < correctRate ? session.getStory().getPuzzleAnswer(puzzle) : "WRONG";
+   }
+
+   @Override
+   public boolean confirm(String message, String title){
+      return ++played < playthroughs;
+   }
+
+   /* The puzzle of the scene the player is in, or -1 if it is not a puzzle scene.*/
+   private int currentPuzzle(){
+      if (session == null){
+         return -1;
+      }
+      int scene = session.getCurrentScene();
+      return scene < 0 ? -1 : session.getStory().getScenePuzzle(scene);
+   }
+}
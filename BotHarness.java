@@ -0,0 +1,210 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+  Load and soak test: runs many bots playing complete sessions through AdventureManager at once
+  for a fixed time, then reports sessions per second, latency percentiles for leaving each scene,
+  heap growth and GC pauses. Heap that keeps growing from run to run points at sessions being
+  retained after they end; scene latencies that grow with session length point at recursion.
+  Bots play a randomized policy (BotGameIO) or the scripted route to a random ending.
+  Run it with: java BotHarness [bots] [seconds] [random|scripted]
+  */
+public class BotHarness {
+   private final StoryPack story;
+   private final int bots;
+   private final long durationNanos;
+   private final boolean scripted;
+   private final LatencyHistogram[] sceneLatency; // Time from entering each scene to leaving it.
+   private final LatencyHistogram gcPauses = new LatencyHistogram();
+   private final LongAdder sessions = new LongAdder();
+   private final LongAdder playthroughs = new LongAdder();
+   private final GameMetrics metrics; // Outcomes of every bot session.
+
+   /** Creates a harness.
+       @param story The story the bots play.
+       @param bots The number of bots playing at once.
+       @param seconds How long to play.
+       @param scripted true to follow the scripted routes, false for the randomized policy.*/
+   public BotHarness(StoryPack story, int bots, double seconds, boolean scripted){
+      this.story = story;
+      this.bots = bots;
+      this.durationNanos = (long) (seconds * 1e9);
+      this.scripted = scripted;
+      this.metrics = new GameMetrics(story);
+      this.sceneLatency = new LatencyHistogram[story.getSceneCount()];
+      for (int i = 0; i < sceneLatency.length; i++){
+         sceneLatency[i] = new LatencyHistogram();
+      }
+   }
+
+   /** Runs the bots and prints the report.
+       @throws Exception if a bot fails.*/
+   public void run() throws Exception {
+      MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+      List<NotificationEmitter> emitters = watchGcPauses();
+      long[] gcBefore = gcTotals();
+      System.gc();
+      long heapBefore = memory.getHeapMemoryUsage().getUsed();
+      long start = System.nanoTime();
+      long deadline = start + durationNanos;
+      ExecutorService pool = Executors.newFixedThreadPool(bots);
+      try {
+         List<Future<?>> running = new ArrayList<>();
+         for (int i = 0; i < bots; i++){
+            long seed = i;
+            running.add(pool.submit(() -> {
+               playUntil(deadline, seed);
+               return null;
+            }));
+         }
+         for (Future<?> bot : running){
+            bot.get(); //Rethrows anything a bot hit
+         }
+      } finally {
+         pool.shutdown();
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.gc();
+      long heapAfter = memory.getHeapMemoryUsage().getUsed();
+      long[] gcAfter = gcTotals();
+      for (NotificationEmitter emitter : emitters){
+         try {
+            emitter.removeNotificationListener(gcListener);
+         } catch (ListenerNotFoundException e){
+            //Already gone
+         }
+      }
+      report(seconds, heapBefore, heapAfter, gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]);
+   }
+
+   /* One bot: plays session after session until the deadline.*/
+   private void playUntil(long deadline, long seed){
+      SceneTimer timer = new SceneTimer();
+      List<String[]> routes = new ArrayList<>(GameBenchmark.ENDING_SCRIPTS.values());
+      long session = seed;
+      while (System.nanoTime() < deadline){
+         GameIO io;
+         BotGameIO bot = null;
+         if (scripted){
+            io = new GameBenchmark.CyclingGameIO(routes.get((int) (session % routes.size())));
+         } else {
+            bot = new BotGameIO(session, 0.7, 0.1, 3);
+            io = bot;
+         }
+         AdventureManager manager = new AdventureManager(new Player("Bot" + seed), io, story);
+         if (bot != null){
+            bot.attach(manager);
+         }
+         manager.addListener(timer);
+         manager.addListener(metrics);
+         manager.startGame();
+         sessions.increment();
+         playthroughs.add(manager.getAttempts());
+         session += bots;
+      }
+   }
+
+   /* Times each scene from entering it to entering the next one (or reaching the replay question).*/
+   private class SceneTimer implements GameListener {
+      private int scene = -1;
+      private long entered;
+
+      @Override
+      public void sceneEntered(AdventureManager session, int next){
+         long now = System.nanoTime();
+         if (scene >= 0){
+            sceneLatency[scene].record(now - entered);
+         }
+         scene = next;
+         entered = now;
+      }
+
+      @Override
+      public void playthroughEnded(AdventureManager session, int ending){
+         sceneLatency[ending].record(System.nanoTime() - entered);
+         scene = -1;
+      }
+   }
+
+   //==================GC=====================
+
+   private final NotificationListener gcListener = (Notification notification, Object handback) -> {
+      if (!"com.sun.management.gc.notification".equals(notification.getType())){
+         return;
+      }
+      com.sun.management.GarbageCollectionNotificationInfo info =
+            com.sun.management.GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+      if (!info.getGcName().contains("Concurrent")){ //Concurrent cycles run beside the game, they are not pauses
+         gcPauses.record(info.getGcInfo().getDuration() * 1_000_000L);
+      }
+   };
+
+   /* Subscribes to every collector's GC notifications, where the JVM offers them.*/
+   private List<NotificationEmitter> watchGcPauses(){
+      List<NotificationEmitter> emitters = new ArrayList<>();
+      for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()){
+         if (collector instanceof NotificationEmitter){
+            ((NotificationEmitter) collector).addNotificationListener(gcListener, null, null);
+            emitters.add((NotificationEmitter) collector);
+         }
+      }
+      return emitters;
+   }
+
+   /* Total {collections, milliseconds} over every collector.*/
+   private static long[] gcTotals(){
+      long[] totals = new long[2];
+      for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()){
+         totals[0] += Math.max(0, collector.getCollectionCount());
+         totals[1] += Math.max(0, collector.getCollectionTime());
+      }
+      return totals;
+   }
+
+   //==================REPORT=====================
+
+   private void report(double seconds, long heapBefore, long heapAfter, long collections, long gcMillis){
+      long played = sessions.sum();
+      System.out.printf("%d bots, %s policy, %.1f s%n", bots, scripted ? "scripted" : "random", seconds);
+      System.out.printf("Sessions: %d (%.1f/s), playthroughs: %d%n", played, played / seconds, playthroughs.sum());
+      System.out.printf("Puzzles: %d answers, %d solved, %d failed, %d hints; %d cancellations%n",
+            metrics.getPuzzleAttempts(), metrics.getPuzzlesSolved(), metrics.getPuzzlesFailed(),
+            metrics.getHintRequests(), metrics.getCancellations());
+      System.out.printf("Heap after GC: %.1f MB before, %.1f MB after (%+d KB)%n",
+            heapBefore / 1048576.0, heapAfter / 1048576.0, (heapAfter - heapBefore) / 1024);
+      System.out.printf("GC: %d collections, %d ms; pauses p50 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+            collections, gcMillis, gcPauses.getPercentile(50) / 1e6, gcPauses.getPercentile(99) / 1e6,
+            gcPauses.getMax() / 1e6);
+      System.out.println();
+      System.out.printf("%-22s %10s %10s %10s %10s %10s%n", "Scene (us)", "count", "p50", "p90", "p99", "max");
+      for (int scene = 0; scene < sceneLatency.length; scene++){
+         LatencyHistogram latency = sceneLatency[scene];
+         if (latency.getCount() > 0){
+            System.out.printf("%-22s %10d %10.1f %10.1f %10.1f %10.1f%n", story.getSceneName(scene), latency.getCount(),
+                  latency.getPercentile(50) / 1e3, latency.getPercentile(90) / 1e3,
+                  latency.getPercentile(99) / 1e3, latency.getMax() / 1e3);
+         }
+      }
+   }
+
+   /** Command line entry point.
+       @param args Optional number of bots (default 8), seconds (default 10) and "random" or "scripted".*/
+   public static void main(String[] args) throws Exception {
+      int bots = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+      double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 10;
+      boolean scripted = args.length > 2 && args[2].equals("scripted");
+      new BotHarness(StoryPack.getDefault(), bots, seconds, scripted).run();
+   }
+}
@@ -0,0 +1,249 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+  Follows where players go through a story: how often each option of each choice is picked, how
+  each puzzle turns out, how many players reach each scene and where they stop, and which endings
+  they reach. Register one instance as a GameListener on every session (ex. with
+  AsyncSessionHost.addListener()) to watch live play, or feed it recorded sessions with main().
+  Memory is fixed by the size of the story, not by the number of players or events: counts are
+  LongAdders per scene, option and puzzle, and distinct players are estimated with a HyperLogLog
+  sketch per scene instead of keeping a set of them. A player is a session (see
+  AdventureManager.getSessionId()), not a name: names repeat, ex. TextServer calls every player
+  who gives none "Player". Recording never blocks a session and every
+  figure can be read at any time while games go on.
+  Like GameMetrics, per-scene figures belong to the story version the analytics were made for.
+  */
+public class BranchAnalytics implements GameListener {
+   private static final int SCENE_PRECISION = 10; // 1024 registers (4 KB) a scene, about 3% off.
+   private static final int TOTAL_PRECISION = 14; // 16384 registers (64 KB), about 1% off.
+
+   private final StoryPack story;
+   private final int[] choiceOps; // By scene: the scene's CHOICE operation, or -1.
+   private final int[] puzzles; // By scene: the puzzle the scene asks, or -1.
+   private final LongAdder[] entries; // By scene.
+   private final HyperLogLog[] players; // By scene: distinct sessions that entered it.
+   private final LongAdder[][] picks; // By scene, then option.
+   private final LongAdder[] cancels; // By scene: choices cancelled.
+   private final LongAdder[] solved; // By puzzle.
+   private final LongAdder[] failed; // By puzzle.
+   private final LongAdder[] endings; // By scene; only endings count.
+   private final LongAdder playthroughs = new LongAdder();
+   private final HyperLogLog allPlayers = new HyperLogLog(TOTAL_PRECISION);
+
+   /** Creates empty analytics for a story.
+       @param story The story the followed sessions play.*/
+   public BranchAnalytics(StoryPack story){
+      this.story = story;
+      int scenes = story.getSceneCount();
+      choiceOps = new int[scenes];
+      puzzles = new int[scenes];
+      entries = GameMetrics.adders(scenes);
+      players = new HyperLogLog[scenes];
+      picks = new LongAdder[scenes][];
+      cancels = GameMetrics.adders(scenes);
+      endings = GameMetrics.adders(scenes);
+      for (int scene = 0; scene < scenes; scene++){
+         players[scene] = new HyperLogLog(SCENE_PRECISION);
+         int last = story.getLastOp(scene);
+         choiceOps[scene] = story.getOpCode(last) == StoryPack.CHOICE ? last : -1;
+         puzzles[scene] = story.getScenePuzzle(scene);
+         picks[scene] = GameMetrics.adders(choiceOps[scene] < 0 ? 0 : story.getOpArg(last, 2));
+      }
+      solved = GameMetrics.adders(story.getPuzzleCount());
+      failed = GameMetrics.adders(story.getPuzzleCount());
+   }
+
+   //==================RECORDING=====================
+
+   @Override
+   public void sceneEntered(AdventureManager session, int scene){
+      long player = session.getSessionId();
+      allPlayers.add(player);
+      if (session.getStory() == story){
+         entries[scene].increment();
+         players[scene].add(player);
+      }
+   }
+
+   @Override
+   public void choiceMade(AdventureManager session, int scene, int option, long nanos){
+      if (session.getStory() == story){
+         (option == -1 ? cancels[scene] : picks[scene][option]).increment();
+      }
+   }
+
+   @Override
+   public void puzzleFinished(AdventureManager session, int puzzle, Puzzle outcome, boolean solved, long nanos){
+      if (session.getStory() == story){
+         (solved ? this.solved : failed)[puzzle].increment();
+      }
+   }
+
+   @Override
+   public void playthroughEnded(AdventureManager session, int ending){
+      playthroughs.increment();
+      if (session.getStory() == story){
+         endings[ending].increment();
+      }
+   }
+
+   //==================READING=====================
+
+   /** @return The story the analytics follow.*/
+   public StoryPack getStory(){
+      return story;
+   }
+
+   /** @param scene The scene index.
+       @return Times the scene was entered.*/
+   public long getEntries(int scene){
+      return entries[scene].sum();
+   }
+
+   /** @param scene The scene index.
+       @return Estimated number of distinct players who entered the scene.*/
+   public long getPlayers(int scene){
+      return players[scene].estimate();
+   }
+
+   /** @return Estimated number of distinct players seen in any scene, on any story version.*/
+   public long getDistinctPlayers(){
+      return allPlayers.estimate();
+   }
+
+   /** @param scene The scene index.
+       @param option The option of the scene's choice.
+       @return Times the option was picked.*/
+   public long getPicks(int scene, int option){
+      return picks[scene][option].sum();
+   }
+
+   /** @param scene The scene index.
+       @return Times the scene's choice was cancelled.*/
+   public long getCancels(int scene){
+      return cancels[scene].sum();
+   }
+
+   /** @param puzzle The puzzle index.
+       @return Times the puzzle was solved.*/
+   public long getSolved(int puzzle){
+      return solved[puzzle].sum();
+   }
+
+   /** @param puzzle The puzzle index.
+       @return Times the puzzle was failed.*/
+   public long getFailed(int puzzle){
+      return failed[puzzle].sum();
+   }
+
+   /** Counts the players who entered a scene and never answered its choice or puzzle: those who
+       left the game there, plus those still looking at the question right now.
+       Scenes that lead on by themselves, and endings, lose nobody.
+       @param scene The scene index.
+       @return Entries that did not lead on.*/
+   public long getDropped(int scene){
+      long answered;
+      if (choiceOps[scene] >= 0){
+         answered = getCancels(scene);
+         for (LongAdder pick : picks[scene]){
+            answered += pick.sum();
+         }
+      } else if (puzzles[scene] >= 0){
+         answered = getSolved(puzzles[scene]) + getFailed(puzzles[scene]);
+      } else {
+         return 0;
+      }
+      return Math.max(0, getEntries(scene) - answered); //Restored sessions can answer without entering
+   }
+
+   /** @return Playthroughs that reached an ending, on any story version.*/
+   public long getPlaythroughs(){
+      return playthroughs.sum();
+   }
+
+   /** @return Times each ending was reached, by scene name, in story order.*/
+   public Map<String, Long> getEndingCounts(){
+      Map<String, Long> counts = new LinkedHashMap<>();
+      for (int scene = 0; scene < endings.length; scene++){
+         if (story.isEnding(scene)){
+            counts.put(story.getSceneName(scene), endings[scene].sum());
+         }
+      }
+      return counts;
+   }
+
+   /** Writes the funnel, every branch taken and the ending distribution as a text report.
+       Branch shares are of the answers given to that scene's question.
+       @return The report.*/
+   public String report(){
+      StringBuilder out = new StringBuilder(8192);
+      out.append(String.format("Players: ~%d distinct, %d playthroughs%n%n", getDistinctPlayers(), getPlaythroughs()));
+      out.append(String.format("%-24s %9s %9s %9s%n", "Scene", "entered", "players", "dropped"));
+      for (int scene = 0; scene < entries.length; scene++){
+         out.append(String.format("%-24s %9d %9d %9d%n", story.getSceneName(scene), getEntries(scene), getPlayers(scene), getDropped(scene)));
+      }
+      out.append(String.format("%nBranches%n"));
+      for (int scene = 0; scene < entries.length; scene++){
+         if (choiceOps[scene] >= 0){
+            int first = story.getOpArg(choiceOps[scene], 1);
+            long total = getCancels(scene);
+            for (LongAdder pick : picks[scene]){
+               total += pick.sum();
+            }
+            for (int option = 0; option < picks[scene].length; option++){
+               branch(out, scene, "\"" + story.getOptionText(first + option) + "\"", story.getOptionTarget(first + option),
+                     getPicks(scene, option), total);
+            }
+            branch(out, scene, "(cancelled)", story.getCancelledScene(), getCancels(scene), total);
+         } else if (puzzles[scene] >= 0){
+            int puzzle = puzzles[scene];
+            long total = getSolved(puzzle) + getFailed(puzzle);
+            branch(out, scene, "(solved)", story.getPuzzleSuccess(puzzle), getSolved(puzzle), total);
+            branch(out, scene, "(failed)", story.getPuzzleFailure(puzzle), getFailed(puzzle), total);
+         }
+      }
+      out.append(String.format("%nEndings%n"));
+      long reached = 0;
+      for (long count : getEndingCounts().values()){
+         reached += count;
+      }
+      for (Map.Entry<String, Long> ending : getEndingCounts().entrySet()){
+         out.append(String.format("%-24s %9d %6.1f%%%n", ending.getKey(), ending.getValue(), percent(ending.getValue(), reached)));
+      }
+      return out.toString();
+   }
+
+   /** Replays every session recorded in a decision journal and prints where its players went.
+       @param args The journal directory.*/
+   public static void main(String[] args) throws IOException {
+      if (args.length < 1){
+         System.err.println("Usage: java BranchAnalytics <journal directory>");
+         return;
+      }
+      StoryPack story = StoryPack.getDefault();
+      BranchAnalytics analytics = new BranchAnalytics(story);
+      List<List<DecisionJournal.Decision>> traces = DecisionJournal.sessions(DecisionJournal.read(Paths.get(args[0])));
+      GameIO silent = OutputGameIO.SILENT;
+      for (List<DecisionJournal.Decision> trace : traces){
+         DecisionJournal.replay(trace, story, silent, analytics);
+      }
+      System.out.println(traces.size() + " sessions replayed");
+      System.out.print(analytics.report());
+   }
+
+   //==================HELPER METHODS=====================
+
+   private void branch(StringBuilder out, int scene, String label, int target, long count, long total){
+      out.append(String.format("%-24s %-48s -> %-22s %9d %6.1f%%%n", story.getSceneName(scene), label,
+            story.getSceneName(target), count, percent(count, total)));
+   }
+
+   private static double percent(long count, long total){
+      return total == 0 ? 0 : 100.0 * count / total;
+   }
+}
@@ -0,0 +1,139 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+  GameIO implementation for a plain text terminal.
+  Messages are printed as blocks, options as numbered lines, and answers are read line by line.
+  End of input counts as cancelling the current dialog. Never touches Swing or AWT.
+  */
+public class ConsoleGameIO implements GameIO {
+   private final BufferedReader in; // Where the player's answers are read from.
+   private final PrintWriter out; // Where messages and prompts are written.
+   private Runnable welcomeShown; // Run once the welcome text is printed, or null.
+   
+   /** Creates a console front end on System.in and System.out.*/
+   public ConsoleGameIO(){
+      this(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)), System.out);
+   }
+   
+   /** Creates a console front end on the given streams.
+       @param in The reader the player's answers come from.
+       @param out The stream messages are printed to.*/
+   public ConsoleGameIO(BufferedReader in, PrintStream out){
+      this(in, new PrintWriter(out, true));
+   }
+   
+   /** Creates a console front end on the given reader and writer.
+       @param in The reader the player's answers come from (unused if readLine is overridden).
+       @param out The writer messages are printed to.*/
+   protected ConsoleGameIO(BufferedReader in, PrintWriter out){
+      this.in = in;
+      this.out = out;
+   }
+   
+   /** Sets what to run once the welcome text is printed, ex. to time startup.
+       @param listener Run before asking to start, or null for nothing.*/
+   public void setWelcomeListener(Runnable listener){
+      welcomeShown = listener;
+   }
+   
+   /** Prints the welcome text, then asks whether to start.
+       @param message The welcome text.
+       @return true if the player answered yes.*/
+   @Override
+   public boolean showWelcome(String message){
+      showMessage(message, "Mystery Mansion", MessageType.PLAIN);
+      out.flush();
+      Runnable listener = welcomeShown;
+      if (listener != null){
+         listener.run();
+      }
+      return confirm("Start the game?", "Mystery Mansion");
+   }
+   
+   @Override
+   public void showMessage(String message, String title, MessageType type){
+      printHeader(title, type);
+      out.println(message);
+      out.println();
+   }
+   
+   @Override
+   public void showText(CharSequence message){
+      printHeader("Message", MessageType.INFORMATION);
+      out.append(message).println(); //Copies the characters, no String needed
+      out.println();
+   }
+   
+   @Override
+   public int showOptions(String message, String title, String[] options){
+      printHeader(title, MessageType.QUESTION);
+      out.println(message);
+      for (int i = 0; i < options.length; i++){
+         out.println("  " + (i + 1) + ") " + options[i]);
+      }
+      //Keep asking until a valid number is entered or the input ends
+      while (true){
+         String line = prompt("Choose 1-" + options.length + ": ");
+         if (line == null){
+            return -1;
+         }
+         try {
+            int choice = Integer.parseInt(line.trim());
+            if (choice >= 1 && choice <= options.length){
+               return choice - 1;
+            }
+         } catch (NumberFormatException e){
+            //Fall through to the retry message
+         }
+         out.println("Please enter a number between 1 and " + options.length + ".");
+      }
+   }
+   
+   @Override
+   public String askText(String message, String title){
+      printHeader(title, MessageType.QUESTION);
+      out.println(message);
+      return prompt("> ");
+   }
+   
+   @Override
+   public boolean confirm(String message, String title){
+      printHeader(title, MessageType.QUESTION);
+      String line = prompt(message + " (y/n): ");
+      return line != null && line.trim().toLowerCase().startsWith("y");
+   }
+   
+   /* Prints the title line of a block, marking warnings and errors.*/
+   private void printHeader(String title, MessageType type){
+      if (type == MessageType.WARNING || type == MessageType.ERROR){
+         out.println("=== " + title + " (" + type.name().toLowerCase() + ") ===");
+      } else {
+         out.println("=== " + title + " ===");
+      }
+   }
+   
+   /* Prints a prompt and reads one line, returning null at end of input.*/
+   private String prompt(String text){
+      out.print(text);
+      out.flush();
+      try {
+         return readLine();
+      } catch (IOException e){
+         throw new UncheckedIOException(e);
+      }
+   }
+   
+   /** Reads the player's next line of input.
+       Subclasses can override this to take input from somewhere other than a reader.
+       @return The line, or null if there is no more input.
+       @throws IOException if reading fails.*/
+   protected String readLine() throws IOException {
+      return in.readLine();
+   }
+}
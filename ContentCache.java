@@ -0,0 +1,108 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+  The parts of a story's scenes that are the same for every player and every visit: the option
+  arrays of each scene's choice, the choice prompt itself when its text has no placeholders, the
+  "You chose: ..." line for each option and the picks of each choice puzzle.
+  Built once per StoryPack (see StoryPack.getContent()) and shared by every session, so moving
+  from scene to scene reuses these objects instead of building new arrays and strings each time.
+  Equal arrays and lines are stored once, whichever scenes use them. Immutable: nothing handed
+  out may be modified.
+  */
+public final class ContentCache {
+   private static final String CHOICE_TITLE = "Mystery Mansion";
+
+   private final Prompt[] choicePrompts; // Each scene's choice prompt, or null if its text is rendered per player.
+   private final String[][] choiceOptions; // Each scene's choice options, or null if it has no choice.
+   private final String[][] chosenMessages; // "You chose: ..." for each option of each scene's choice.
+   private final String[][] puzzlePicks; // The picks of each choice puzzle, or null for text puzzles.
+
+   /** Builds the cache for a story.
+       @param story The story to read the scenes and puzzles from.*/
+   ContentCache(StoryPack story){
+      Map<List<String>, String[]> arrays = new HashMap<>(); // Equal arrays, stored once.
+      Map<String, String> lines = new HashMap<>(); // Equal "You chose" lines, stored once.
+      int scenes = story.getSceneCount();
+      choicePrompts = new Prompt[scenes];
+      choiceOptions = new String[scenes][];
+      chosenMessages = new String[scenes][];
+      for (int scene = 0; scene < scenes; scene++){
+         int op = story.getLastOp(scene);
+         if (story.getOpCode(op) != StoryPack.CHOICE){
+            continue;
+         }
+         String[] options = share(arrays, story, story.getOpArg(op, 1), story.getOpArg(op, 2));
+         String[] chosen = new String[options.length];
+         for (int i = 0; i < options.length; i++){
+            chosen[i] = lines.computeIfAbsent("You chose: " + options[i], line -> line);
+         }
+         TextTemplate text = story.getTemplate(story.getOpArg(op, 0));
+         if (text.isConstant()){
+            choicePrompts[scene] = new Prompt(Prompt.CHOICE, text.getText(), CHOICE_TITLE, options);
+         }
+         choiceOptions[scene] = options;
+         chosenMessages[scene] = share(arrays, chosen);
+      }
+      puzzlePicks = new String[story.getPuzzleCount()][];
+      for (int puzzle = 0; puzzle < puzzlePicks.length; puzzle++){
+         if (story.getPuzzleKind(puzzle) == StoryPack.CHOICE_PUZZLE){
+            puzzlePicks[puzzle] = share(arrays, story, story.getPuzzleFirstPick(puzzle), story.getPuzzlePickCount(puzzle));
+         }
+      }
+   }
+
+   /** Retrieves the prompt for a scene's choice when it is the same for every player.
+       @param scene The scene index.
+       @return The shared prompt, or null if the scene has no choice or its text has placeholders.*/
+   public Prompt getChoicePrompt(int scene){
+      return choicePrompts[scene];
+   }
+
+   /** Makes the prompt for a scene's choice with text already rendered for a player.
+       @param scene The scene index.
+       @param text The rendered choice text.
+       @return A new prompt sharing the scene's options.*/
+   public Prompt newChoicePrompt(int scene, String text){
+      return new Prompt(Prompt.CHOICE, text, CHOICE_TITLE, choiceOptions[scene]);
+   }
+
+   /** Retrieves the options of a scene's choice. Must not be modified.
+       @param scene The scene index.
+       @return The options, or null if the scene has no choice.*/
+   public String[] getOptions(int scene){
+      return choiceOptions[scene];
+   }
+
+   /** Retrieves the line confirming the player's pick.
+       @param scene The scene index.
+       @param option The picked option index.
+       @return "You chose: " and the option's text, or "You chose: Invalid choice" if there is no such option.*/
+   public String getChosenMessage(int scene, int option){
+      String[] chosen = chosenMessages[scene];
+      return option >= 0 && option < chosen.length ? chosen[option] : "You chose: Invalid choice";
+   }
+
+   /** Retrieves the picks of a choice puzzle. Must not be modified.
+       @param puzzle The puzzle index.
+       @return The picks, or null for a text puzzle.*/
+   public String[] getPicks(int puzzle){
+      return puzzlePicks[puzzle];
+   }
+
+   /* Reads count option texts from first on and returns the stored array equal to them.*/
+   private static String[] share(Map<List<String>, String[]> arrays, StoryPack story, int first, int count){
+      String[] texts = new String[count];
+      for (int i = 0; i < count; i++){
+         texts[i] = story.getOptionText(first + i);
+      }
+      return share(arrays, texts);
+   }
+
+   /* Returns the stored array equal to texts, storing texts if there is none yet.*/
+   private static String[] share(Map<List<String>, String[]> arrays, String[] texts){
+      return arrays.computeIfAbsent(Arrays.asList(texts), key -> texts);
+   }
+}
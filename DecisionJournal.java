@@ -0,0 +1,571 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+  Append-only journal of the decisions players make: every choice picked, line typed and
+  yes/no answered, with the session id, scene and time, and the session's clock reading that
+  puzzle cooldowns were timed by. A session's START decision also keeps its AttemptPolicy.
+  AdventureManager records into it from
+  its answer() methods (see start()), so every host's sessions are journaled the same way.
+  Records go into memory-mapped segment files (decisions-000001.seg, ...) in one directory.
+  Appending only copies the record into the mapping; with FsyncPolicy.DATA or FULL a committer
+  thread then forces everything appended so far in one go and wakes every player waiting on it,
+  so many sessions share each disk flush (group commit). With FsyncPolicy.NONE nothing waits and
+  the OS writes the pages back on its own, which still survives the game process crashing.
+  Each record carries a CRC32, so a record torn by a crash ends the journal instead of corrupting it.
+  A session's decisions can be replayed to rebuild its Player and AdventureManager exactly,
+  for crash recovery or to play real traces back as a load test: java DecisionJournal <directory>
+  Only one process should write to a journal directory at a time.
+  */
+public class DecisionJournal implements AutoCloseable {
+   static final int MAGIC = 0x4D4D444A; // "MMDJ"
+   static final int VERSION = 2;
+   private static final int SEGMENT_HEADER = 8; // Magic and version.
+   private static final int RECORD_HEADER = 8; // Payload length and CRC32.
+   private static final int PAYLOAD_FIXED = 35; // time, clock, session, scene, kind, option, answer length.
+   /** Size of a segment file unless another is given.*/
+   public static final int DEFAULT_SEGMENT_SIZE = 4 << 20;
+
+   //Decision kinds
+   public static final int START = 0; // A session began; answer = player name, followed by the attempt policy
+   public static final int CHOICE = 1; // option = index picked, or -1 if the dialog was cancelled
+   public static final int TEXT = 2; // answer = the line typed, or null if cancelled
+   public static final int CONFIRM = 3; // option = 1 for yes, 0 for no
+
+   private final Path directory;
+   private final int segmentSize;
+   private final FsyncPolicy policy;
+   private final Object lock = new Object(); // Guards everything below.
+   private FileChannel channel; // The segment being appended to.
+   private MappedByteBuffer segment;
+   private int segmentNumber;
+   private long appended; // Records appended so far.
+   private long committed; // Records known to be on disk.
+   private boolean closed;
+   private final Thread committer; // Forces appended records to disk; null with FsyncPolicy.NONE.
+
+   /** Opens a journal in the given directory with the default segment size.
+       @param directory Where segment files are kept; created if missing.
+       @param policy How far each decision is forced to disk before append() returns.
+       @throws IOException if the first segment cannot be created.*/
+   public DecisionJournal(Path directory, FsyncPolicy policy) throws IOException {
+      this(directory, DEFAULT_SEGMENT_SIZE, policy);
+   }
+
+   /** Opens a journal in the given directory. Records are appended to a new segment
+       after any segments already there, so earlier runs are kept.
+       @param directory Where segment files are kept; created if missing.
+       @param segmentSize The size of each segment file in bytes.
+       @param policy How far each decision is forced to disk before append() returns.
+       @throws IOException if the first segment cannot be created.*/
+   public DecisionJournal(Path directory, int segmentSize, FsyncPolicy policy) throws IOException {
+      if (segmentSize < SEGMENT_HEADER + RECORD_HEADER + PAYLOAD_FIXED){
+         throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+      }
+      this.directory = directory;
+      this.segmentSize = segmentSize;
+      this.policy = policy;
+      Files.createDirectories(directory);
+      List<Path> existing = segments(directory);
+      segmentNumber = existing.isEmpty() ? 0 : number(existing.get(existing.size() - 1));
+      synchronized (lock){
+         openSegment();
+      }
+      if (policy == FsyncPolicy.NONE){
+         committer = null;
+      } else {
+         committer = new Thread(this::commitLoop, "decision-journal-commit");
+         committer.setDaemon(true);
+         committer.start();
+      }
+   }
+
+   /** Starts the trace of a new session: appends its START decision with the player's name and
+       the session's attempt policy, and has the session record every answer from now on. With FsyncPolicy.DATA or FULL each answer then waits for the disk.
+       @param session The session id to record under.
+       @param manager The session, not played yet.
+       @throws IllegalArgumentException if the session has already played, since its trace could
+               not be replayed from the start.*/
+   public void start(long session, AdventureManager manager){
+      if (manager.getCurrentScene() >= 0){
+         throw new IllegalArgumentException("Only a new session can be journaled from its start");
+      }
+      append(session, START, -1, -1, manager.getPlayer().getName(), 0, manager.getAttemptPolicy());
+      manager.setJournal(this, session);
+   }
+
+   /** Appends one decision. With FsyncPolicy.DATA or FULL this waits until the decision
+       (and every other one appended meanwhile) is forced to disk.
+       @param session The session id.
+       @param kind START, CHOICE, TEXT or CONFIRM.
+       @param scene The scene the player was in, or -1.
+       @param option The option picked, yes (1) / no (0), or -1.
+       @param answer The text typed or the player name, or null.
+       @param clock The session's clock when the answer arrived, in nanoseconds (see AdventureManager.setClock()).
+       @throws IllegalStateException if the journal is closed.
+       @throws UncheckedIOException if a new segment cannot be created.*/
+   public void append(long session, int kind, int scene, int option, String answer, long clock){
+      append(session, kind, scene, option, answer, clock, null);
+   }
+
+   /* Appends one decision, with the session's attempt policy if it is a START.*/
+   private void append(long session, int kind, int scene, int option, String answer, long clock, AttemptPolicy attemptPolicy){
+      byte[] text = answer == null ? null : answer.getBytes(StandardCharsets.UTF_8);
+      int length = PAYLOAD_FIXED + (text == null ? 0 : text.length) + (attemptPolicy == null ? 0 : AttemptPolicy.BYTES);
+      if (text != null && text.length >= 0xFFFF || SEGMENT_HEADER + RECORD_HEADER + length > segmentSize){
+         throw new IllegalArgumentException("Decision too large for the journal: " + length + " bytes");
+      }
+      //Build and checksum the record before taking the lock, so appends only contend on the copy
+      ByteBuffer payload = ByteBuffer.allocate(length);
+      payload.putLong(System.currentTimeMillis()).putLong(clock).putLong(session).putInt(scene).put((byte) kind).putInt(option);
+      if (text == null){
+         payload.putShort((short) -1);
+      } else {
+         payload.putShort((short) text.length).put(text);
+      }
+      if (attemptPolicy != null){
+         attemptPolicy.write(payload);
+      }
+      CRC32 crc = new CRC32();
+      crc.update(payload.array(), 0, length);
+      long sequence;
+      synchronized (lock){
+         if (closed){
+            throw new IllegalStateException("The decision journal is closed");
+         }
+         if (segment.remaining() < RECORD_HEADER + length){
+            try {
+               closeSegment(); //Forces the full segment, so its records count as committed
+               openSegment();
+            } catch (IOException e){
+               throw new UncheckedIOException("Could not start a new journal segment", e);
+            }
+         }
+         segment.putInt(length).putInt((int) crc.getValue()).put(payload.array());
+         sequence = ++appended;
+         if (committer == null){
+            return;
+         }
+         lock.notifyAll(); //Wake the committer
+         boolean interrupted = false;
+         while (committed < sequence){ //The committer drains every record before it stops
+            try {
+               lock.wait();
+            } catch (InterruptedException e){
+               interrupted = true; //Finish waiting so the caller's decision is durable
+            }
+         }
+         if (interrupted){
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+
+   /** @return The number of decisions appended since the journal was opened.*/
+   public long getAppended(){
+      synchronized (lock){
+         return appended;
+      }
+   }
+
+   /** Forces everything appended to disk and closes the journal.*/
+   @Override
+   public void close(){
+      synchronized (lock){
+         if (closed){
+            return;
+         }
+         closed = true;
+         lock.notifyAll();
+      }
+      if (committer != null){
+         try {
+            committer.join();
+         } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+         }
+      }
+      synchronized (lock){
+         try {
+            closeSegment();
+         } catch (IOException e){
+            throw new UncheckedIOException("Could not close the decision journal", e);
+         }
+      }
+   }
+
+   //==================GROUP COMMIT=====================
+
+   /* Runs on the committer thread: each pass forces every record appended since the last one.*/
+   private void commitLoop(){
+      while (true){
+         long target;
+         MappedByteBuffer buffer;
+         FileChannel file;
+         synchronized (lock){
+            while (committed == appended && !closed){
+               try {
+                  lock.wait();
+               } catch (InterruptedException e){
+                  return;
+               }
+            }
+            if (committed == appended){
+               return; //Closed and nothing left to force
+            }
+            target = appended;
+            buffer = segment;
+            file = channel;
+         }
+         try {
+            buffer.force(); //Players keep appending meanwhile; their records go in the next pass
+            if (policy == FsyncPolicy.FULL){
+               file.force(true);
+            }
+         } catch (IOException | UncheckedIOException e){
+            //The segment was closed and forced while rolling over; nothing is lost
+         }
+         synchronized (lock){
+            committed = Math.max(committed, target);
+            lock.notifyAll();
+         }
+      }
+   }
+
+   /* Creates and maps the next segment file. Called with the lock held.*/
+   private void openSegment() throws IOException {
+      segmentNumber++;
+      Path file = directory.resolve(String.format("decisions-%06d.seg", segmentNumber));
+      channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize); //Grows the file, zero-filled
+      segment.putInt(MAGIC).putInt(VERSION);
+      if (policy == FsyncPolicy.FULL){
+         segment.force();
+         channel.force(true);
+         try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)){
+            dir.force(true); //Make the new file's directory entry durable where the platform allows
+         } catch (IOException e){
+            //Not supported on every platform (ex. Windows)
+         }
+      }
+   }
+
+   /* Forces and closes the current segment, counting its records as committed. Called with the lock held.*/
+   private void closeSegment() throws IOException {
+      if (policy != FsyncPolicy.NONE){
+         segment.force();
+      }
+      channel.close();
+      committed = appended;
+      lock.notifyAll();
+   }
+
+   //==================READING AND REPLAY=====================
+
+   /** Reads every decision in a journal directory, oldest first.
+       Reading a segment stops at its first empty or damaged record.
+       @param directory The journal directory.
+       @return The decisions.
+       @throws IOException if a segment cannot be read.*/
+   public static List<Decision> read(Path directory) throws IOException {
+      List<Decision> decisions = new ArrayList<>();
+      for (Path file : segments(directory)){
+         try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (data.remaining() < SEGMENT_HEADER || data.getInt() != MAGIC || data.getInt() != VERSION){
+               throw new IllegalArgumentException("Not a version " + VERSION + " journal segment: " + file);
+            }
+            readSegment(data, decisions);
+         }
+      }
+      return decisions;
+   }
+
+   /** Splits a journal into one trace per session: its START decision and everything after it.
+       @param decisions Decisions as returned by read().
+       @return The session traces, in the order the sessions started.*/
+   public static List<List<Decision>> sessions(List<Decision> decisions){
+      List<List<Decision>> traces = new ArrayList<>();
+      Map<Long, List<Decision>> open = new HashMap<>();
+      for (Decision decision : decisions){
+         List<Decision> trace = open.get(decision.session);
+         if (decision.kind == START){
+            trace = new ArrayList<>(); //A new session, even if an earlier run used the same id
+            traces.add(trace);
+            open.put(decision.session, trace);
+         }
+         if (trace != null){
+            trace.add(decision);
+         }
+      }
+      return traces;
+   }
+
+   /** Rebuilds a session by replaying its decisions against the story.
+       Every recorded answer is given again in order, under the recorded attempt policy and at
+       the recorded clock readings, so puzzles refuse and accept the same answers, and the player
+       ends with the same score, inventory and playthrough count, left at the question they had
+       not answered yet.
+       @param trace One session's decisions, starting with its START decision.
+       @param story The story the session played.
+       @param io The front end the rebuilt session continues with.
+       @param listeners Observers of the replayed decisions, ex. BranchAnalytics over recorded sessions.
+       @return A manager whose startGame() continues the session. If the trace ends with the
+               player declining to play again, the manager is returned as the session ended.
+       @throws IllegalArgumentException if the trace does not start with START.
+       @throws IllegalStateException if the decisions do not fit the story's questions.*/
+   public static AdventureManager replay(List<Decision> trace, StoryPack story, GameIO io, GameListener... listeners){
+      if (trace.isEmpty() || trace.get(0).kind != START){
+         throw new IllegalArgumentException("A session trace starts with its START decision");
+      }
+      ReplayGameIO replay = new ReplayGameIO(trace);
+      AdventureManager manager = new AdventureManager(new Player(trace.get(0).answer), replay, story);
+      manager.setAttemptPolicy(trace.get(0).policy);
+      manager.setClock(replay::now);
+      for (GameListener listener : listeners){
+         manager.addListener(listener);
+      }
+      try {
+         manager.startGame();
+      } catch (EndOfTrace e){
+         //The player was waiting on this question; continue from here
+         return AdventureManager.restore(manager.snapshot(), io, story);
+      }
+      manager.setIO(io);
+      return manager;
+   }
+
+   private static void readSegment(ByteBuffer data, List<Decision> decisions){
+      CRC32 crc = new CRC32();
+      while (data.remaining() >= RECORD_HEADER){
+         int length = data.getInt();
+         int checksum = data.getInt();
+         if (length < PAYLOAD_FIXED || length > data.remaining()){
+            return; //End of the written part, or a torn record
+         }
+         ByteBuffer payload = data.slice();
+         payload.limit(length);
+         crc.reset();
+         crc.update(payload.duplicate());
+         if ((int) crc.getValue() != checksum){
+            return;
+         }
+         data.position(data.position() + length);
+         long time = payload.getLong();
+         long clock = payload.getLong();
+         long session = payload.getLong();
+         int scene = payload.getInt();
+         int kind = payload.get();
+         int option = payload.getInt();
+         int textLength = payload.getShort();
+         String answer = null;
+         if (textLength != -1){
+            byte[] text = new byte[Short.toUnsignedInt((short) textLength)];
+            payload.get(text);
+            answer = new String(text, StandardCharsets.UTF_8);
+         }
+         AttemptPolicy policy = null;
+         if (kind == START){
+            if (payload.remaining() < AttemptPolicy.BYTES){
+               return;
+            }
+            policy = AttemptPolicy.read(payload);
+         }
+         decisions.add(new Decision(time, clock, session, scene, kind, option, answer, policy));
+      }
+   }
+
+   /* The segment files of a journal directory in the order they were written.*/
+   private static List<Path> segments(Path directory) throws IOException {
+      List<Path> files = new ArrayList<>();
+      if (!Files.isDirectory(directory)){
+         return files;
+      }
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "decisions-*.seg")){
+         for (Path file : stream){
+            files.add(file);
+         }
+      }
+      Collections.sort(files); //Numbers are zero-padded, so names sort in writing order
+      return files;
+   }
+
+   private static int number(Path segment){
+      String name = segment.getFileName().toString();
+      return Integer.parseInt(name.substring("decisions-".length(), name.length() - ".seg".length()));
+   }
+
+   /**
+     One recorded decision.
+     */
+   public static final class Decision {
+      private final long time;
+      private final long clock;
+      private final long session;
+      private final int scene;
+      private final int kind;
+      private final int option;
+      private final String answer;
+      private final AttemptPolicy policy; // Only on START.
+
+      Decision(long time, long clock, long session, int scene, int kind, int option, String answer, AttemptPolicy policy){
+         this.time = time;
+         this.clock = clock;
+         this.session = session;
+         this.scene = scene;
+         this.kind = kind;
+         this.option = option;
+         this.answer = answer;
+         this.policy = policy;
+      }
+
+      /** @return When the decision was made, in milliseconds since the epoch.*/
+      public long getTime(){
+         return time;
+      }
+
+      /** @return The session's clock when the answer arrived, in nanoseconds; only differences mean anything.*/
+      public long getClock(){
+         return clock;
+      }
+
+      /** @return The session id.*/
+      public long getSession(){
+         return session;
+      }
+
+      /** @return The scene the player was in, or -1.*/
+      public int getScene(){
+         return scene;
+      }
+
+      /** @return START, CHOICE, TEXT or CONFIRM.*/
+      public int getKind(){
+         return kind;
+      }
+
+      /** @return The option picked, 1/0 for yes/no, or -1.*/
+      public int getOption(){
+         return option;
+      }
+
+      /** @return The text typed or the player name, or null.*/
+      public String getAnswer(){
+         return answer;
+      }
+
+      /** @return The attempt policy the session started with, or null if this is not a START decision.*/
+      public AttemptPolicy getPolicy(){
+         return policy;
+      }
+
+      @Override
+      public String toString(){
+         String[] kinds = {"START", "CHOICE", "TEXT", "CONFIRM"};
+         return time + " session " + session + " scene " + scene + " " + kinds[kind]
+               + (kind == CHOICE || kind == CONFIRM ? " " + option : "") + (answer != null ? " " + answer : "")
+               + (policy != null ? " (" + policy + ")" : "");
+      }
+   }
+
+   /* Thrown by ReplayGameIO at the first question the trace has no answer for.*/
+   private static final class EndOfTrace extends RuntimeException {
+      private static final long serialVersionUID = 1L;
+
+      EndOfTrace(){
+         super(null, null, false, false); //No stack trace, it is only a signal
+      }
+   }
+
+   /* Answers every question from a recorded trace and stops at its end.
+      Also serves as the session's clock, reading the time of the answer last given.*/
+   private static final class ReplayGameIO implements GameIO {
+      private final List<Decision> trace;
+      private int next = 1; // Skips the START decision.
+      private long now; // The recorded clock of the answer last given.
+
+      ReplayGameIO(List<Decision> trace){
+         this.trace = trace;
+      }
+
+      @Override
+      public void showMessage(String message, String title, MessageType type){
+         //Messages were already seen when the decisions were made
+      }
+
+      @Override
+      public int showOptions(String message, String title, String[] options){
+         int choice = take(CHOICE).option;
+         if (choice >= options.length){
+            throw new IllegalStateException("Recorded choice " + choice + " is out of range for: " + message);
+         }
+         return choice;
+      }
+
+      @Override
+      public String askText(String message, String title){
+         return take(TEXT).answer;
+      }
+
+      @Override
+      public boolean confirm(String message, String title){
+         return take(CONFIRM).option == 1;
+      }
+
+      private Decision take(int kind){
+         if (next == trace.size()){
+            throw new EndOfTrace();
+         }
+         Decision decision = trace.get(next++);
+         if (decision.kind != kind){
+            throw new IllegalStateException("Recorded decision does not fit the story: " + decision);
+         }
+         now = decision.clock;
+         return decision;
+      }
+
+      long now(){
+         return now;
+      }
+   }
+
+   /** Replays every session recorded in a journal directory as a load test and reports the rate.
+       @param args The journal directory and optionally how many rounds to replay (default 1).*/
+   public static void main(String[] args) throws IOException {
+      if (args.length < 1){
+         System.err.println("Usage: java DecisionJournal <journal directory> [rounds]");
+         System.exit(2);
+      }
+      int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+      List<Decision> decisions = read(Paths.get(args[0]));
+      List<List<Decision>> traces = sessions(decisions);
+      System.out.println(decisions.size() + " decisions in " + traces.size() + " sessions");
+      StoryPack story = StoryPack.getDefault();
+      GameIO silent = OutputGameIO.SILENT;
+      long score = 0;
+      long start = System.nanoTime();
+      for (int round = 0; round < rounds; round++){
+         for (List<Decision> trace : traces){
+            score += replay(trace, story, silent).getPlayer().getScore();
+         }
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.printf("Replayed %d sessions in %.3f s (%.0f sessions/s, total score %d)%n",
+            (long) rounds * traces.size(), seconds, rounds * traces.size() / seconds, score);
+   }
+}
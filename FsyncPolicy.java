@@ -0,0 +1,12 @@
+/**
+  How hard a file write is pushed to the disk before it counts as saved.
+  Stronger policies survive a power cut or an OS crash, at the cost of waiting for the device.
+  */
+public enum FsyncPolicy {
+   /** Leave the data to the OS; it survives the game crashing but not the machine going down.*/
+   NONE,
+   /** Force the file contents to the device before returning.*/
+   DATA,
+   /** Force the contents and file metadata, and the directory entry of a newly placed file.*/
+   FULL
+}
@@ -0,0 +1,421 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+  Self-contained micro-benchmarks for the game's hot paths: scene dispatch over a full playthrough,
+  Puzzle.isCorrect, the Player inventory, rendering each scene's text, session snapshots,
+  and complete scripted playthroughs of every ending.
+  Each benchmark is warmed up, then timed over several iterations; throughput and bytes allocated
+  per operation are written as JSON in the same layout JMH uses (benchmark, mode, primaryMetric,
+  secondaryMetrics), so results can be compared from one release to the next.
+  The tree has no build file, so this runs with plain javac/java and no extra libraries:
+  java GameBenchmark [results.json] [benchmark name filter]
+  */
+public class GameBenchmark {
+   private static final int WARMUP_ITERATIONS = 3;
+   private static final int MEASURED_ITERATIONS = 5;
+   private static final long ITERATION_NANOS = 500_000_000L; // Half a second per iteration.
+   
+   //Answers for each ending: scene choices (from 0), puzzle answers, then "no" to the replay question.
+   static final Map<String, String[]> ENDING_SCRIPTS = new LinkedHashMap<>();
+   static {
+      ENDING_SCRIPTS.put("RIDDLE_ESCAPE", new String[]{"1", "0", "0", "no"});
+      ENDING_SCRIPTS.put("RIDDLE_TRAP", new String[]{"1", "0", "1", "1", "1", "no"});
+      ENDING_SCRIPTS.put("LEFT_PATH", new String[]{"1", "1", "no"});
+      ENDING_SCRIPTS.put("STAND_BY_DOOR", new String[]{"0", "1", "no"});
+      ENDING_SCRIPTS.put("FRONT_DOOR", new String[]{"0", "0", "0", "0", "no"});
+      ENDING_SCRIPTS.put("GROUND_FLOOR_TRAP", new String[]{"0", "0", "0", "1", "0", "no"});
+      ENDING_SCRIPTS.put("UPSTAIRS_TRAP", new String[]{"0", "0", "0", "1", "1", "no"});
+      ENDING_SCRIPTS.put("PIANO_TRAP", new String[]{"0", "0", "1", "0", "PIANO", "HINT", "ORGAN", "HARP", "no"});
+      ENDING_SCRIPTS.put("PIANO_KEYS_TRAP", new String[]{"0", "0", "1", "0", "HAUNTED", "0", "0", "2", "no"});
+      ENDING_SCRIPTS.put("TRUE_ENDING", new String[]{"0", "0", "1", "0", "HAUNTED", "1", "no"});
+      ENDING_SCRIPTS.put("TRAP_ROOM", new String[]{"0", "0", "1", "1", "0", "no"});
+      ENDING_SCRIPTS.put("LEFT_DOOR_TRAP", new String[]{"0", "0", "1", "2", "no"});
+      ENDING_SCRIPTS.put("QUICK_ESCAPE", new String[]{"0", "0", "1", "1", "1", "0", "no"});
+      ENDING_SCRIPTS.put("LIBRARY_TRAP", new String[]{"0", "0", "1", "1", "1", "1", "BOOK", "DOOR", "LOCK", "no"});
+      ENDING_SCRIPTS.put("LIBRARY_ENDING", new String[]{"0", "0", "1", "1", "1", "1", "KEY", "no"});
+   }
+   
+   private static volatile long sink; // Consumes benchmark results so the JIT can't drop the work.
+   
+   private final Map<String, LongSupplier> benchmarks = new LinkedHashMap<>();
+   
+   /** Registers every benchmark against the given story.
+       @param story The compiled story to play.*/
+   public GameBenchmark(StoryPack story){
+      //Scene dispatch: one MysteryMansion.play() along the true ending, without the replay question
+      AdventureManager dispatchManager = new AdventureManager(new Player("Bench"),
+            new CyclingGameIO("0", "0", "1", "0", "HAUNTED", "1"), story);
+      MysteryMansion mansion = new MysteryMansion(dispatchManager);
+      benchmarks.put("sceneDispatch.trueEnding", () -> {
+         dispatchManager.getPlayer().clearCollectedObjects();
+         return mansion.play();
+      });
+      
+      //Puzzle answer checks with correct, wrong, padded and lower case answers
+      Puzzle puzzle = new TextPuzzle("Question", "HAUNTED", "Wrong", "Fail", "Hint");
+      String[] answers = {"HAUNTED", "haunted", "  Haunted  ", "UNAHTED", "HAUNTE", "PIANO", "", "HAUNTEDX"};
+      benchmarks.put("puzzle.isCorrect", () -> {
+         long correct = 0;
+         for (String answer : answers){
+            if (puzzle.isCorrect(answer)){
+               correct++;
+            }
+         }
+         return correct;
+      });
+      
+      //Batch grading: 65536 recorded answers over every puzzle of the story, graded in one call
+      PuzzleRegistry registry = story.getPuzzles();
+      AnswerBatch batch = new AnswerBatch(65536);
+      for (int i = 0; i < 65536; i++){
+         int graded = i % registry.size();
+         batch.add(graded, i % 3 == 0 ? story.getPuzzleAnswer(graded) : answers[i % answers.length]);
+      }
+      boolean[] graded = new boolean[batch.size()];
+      benchmarks.put("puzzle.gradeBatch65536", () -> registry.grade(batch, graded));
+      
+      //Player inventory: collect the keys, render the player, then clear for the next playthrough
+      Player player = new Player("Bench");
+      GameIO silent = new CyclingGameIO();
+      benchmarks.put("player.addObjects", () -> {
+         player.addObjects("Red Key", silent);
+         player.addObjects("Blue Key", silent);
+         player.addObjects("Silver Key", silent);
+         player.addObjects("Red Key", silent); //already collected
+         player.clearCollectedObjects();
+         return 4;
+      });
+      player.addObjects("Red Key", silent);
+      player.addObjects("Silver Key", silent);
+      Player shownPlayer = player;
+      benchmarks.put("player.toString", () -> shownPlayer.toString().length());
+      benchmarks.put("player.clearCollectedObjects", () -> {
+         shownPlayer.clearCollectedObjects();
+         return 0;
+      });
+      
+      //Scene text: render every text a scene shows into one reused buffer, as MysteryMansion does
+      Player reader = new Player("Bench");
+      reader.collectObject("Red Key");
+      StringBuilder buffer = new StringBuilder(512);
+      for (int scene = 0; scene < story.getSceneCount(); scene++){
+         TextTemplate[] texts = sceneTexts(story, scene);
+         if (texts.length == 0){
+            continue;
+         }
+         benchmarks.put("render." + story.getSceneName(scene), () -> {
+            long length = 0;
+            for (TextTemplate text : texts){
+               buffer.setLength(0);
+               length += text.render(reader, buffer).length();
+            }
+            return length;
+         });
+      }
+      
+      //Session snapshots: encode a session holding a key and some points, then decode it and rebuild the session
+      AdventureManager saved = new AdventureManager(new Player("Bench"), new CyclingGameIO(), story);
+      saved.getPlayer().collectObject("Red Key");
+      saved.getPlayer().increaseScore(95);
+      SessionSnapshot snapshot = saved.snapshot();
+      byte[] snapshotBytes = snapshot.toBytes();
+      benchmarks.put("snapshot.capture", () -> saved.snapshot().toBytes().length);
+      benchmarks.put("snapshot.restore", () ->
+            AdventureManager.restore(SessionSnapshot.fromBytes(snapshotBytes), silent, story).getPlayer().getScore());
+      
+      //Complete sessions through AdventureManager, one per ending
+      for (Map.Entry<String, String[]> ending : ENDING_SCRIPTS.entrySet()){
+         String[] script = ending.getValue();
+         benchmarks.put("playthrough." + ending.getKey(), () -> {
+            AdventureManager manager = new AdventureManager(new Player("Bench"), new CyclingGameIO(script), story);
+            manager.startGame();
+            return manager.getPlayer().getScore();
+         });
+      }
+   }
+   
+   /* The templates a scene renders: its narrative, choice text and puzzle texts.*/
+   private static TextTemplate[] sceneTexts(StoryPack story, int scene){
+      List<TextTemplate> texts = new ArrayList<>();
+      int first = story.getFirstOp(scene);
+      for (int op = first; op < first + story.getOpCount(scene); op++){
+         int arg = story.getOpArg(op, 0);
+         switch (story.getOpCode(op)){
+            case StoryPack.SAY:
+            case StoryPack.CHOICE:
+               texts.add(story.getTemplate(arg));
+               break;
+            case StoryPack.PUZZLE:
+               texts.add(story.getTemplate(story.puzzleField(arg, StoryPack.P_QUESTION)));
+               texts.add(story.getTemplate(story.puzzleField(arg, StoryPack.P_WRONG)));
+               texts.add(story.getTemplate(story.puzzleField(arg, StoryPack.P_FAIL)));
+               break;
+            default:
+               break;
+         }
+      }
+      return texts.toArray(new TextTemplate[0]);
+   }
+   
+   /** Runs every benchmark whose name contains the filter and returns the results.
+       @param filter Part of the benchmark name, or "" for all.
+       @return One result per benchmark run.*/
+   public List<Result> run(String filter){
+      List<Result> results = new ArrayList<>();
+      for (Map.Entry<String, LongSupplier> benchmark : benchmarks.entrySet()){
+         if (benchmark.getKey().contains(filter)){
+            results.add(measure(benchmark.getKey(), benchmark.getValue()));
+         }
+      }
+      return results;
+   }
+   
+   /* Warms a benchmark up, then times it over the measured iterations.*/
+   private static Result measure(String name, LongSupplier body){
+      for (int i = 0; i < WARMUP_ITERATIONS; i++){
+         iteration(body);
+      }
+      double[] opsPerSecond = new double[MEASURED_ITERATIONS];
+      double bytesPerOp = 0;
+      for (int i = 0; i < MEASURED_ITERATIONS; i++){
+         long bytesBefore = allocatedBytes();
+         long[] timing = iteration(body);
+         long bytes = allocatedBytes() - bytesBefore;
+         opsPerSecond[i] = timing[0] * 1e9 / timing[1];
+         bytesPerOp += (double) bytes / timing[0] / MEASURED_ITERATIONS;
+      }
+      Result result = new Result(name, opsPerSecond, bytesPerOp);
+      System.out.println(result);
+      return result;
+   }
+   
+   /* Runs the body repeatedly for one iteration and returns {operations, elapsed nanos}.*/
+   private static long[] iteration(LongSupplier body){
+      long ops = 0;
+      long sum = 0;
+      long start = System.nanoTime();
+      long elapsed;
+      do {
+         for (int i = 0; i < 64; i++){
+            sum += body.getAsLong();
+         }
+         ops += 64;
+         elapsed = System.nanoTime() - start;
+      } while (elapsed < ITERATION_NANOS);
+      sink += sum;
+      return new long[]{ops, elapsed};
+   }
+   
+   /* Writes a number for the JSON file; JMH writes NaN as a string since JSON has no NaN.*/
+   private static String json(double value){
+      return Double.isNaN(value) ? "\"NaN\"" : String.valueOf(value);
+   }
+   
+   /* The two-sided Student's t quantile for a confidence level (ex. 0.999) and degrees of freedom,
+      by Hill's approximation (CACM algorithm 396), good to about 4 digits.*/
+   static double studentT(double confidence, int df){
+      double p = 1 - confidence; //Both tails together
+      if (df == 1){
+         return 1 / Math.tan(p * Math.PI / 2);
+      }
+      if (df == 2){
+         return Math.sqrt(2 / (p * (2 - p)) - 2);
+      }
+      double a = 1 / (df - 0.5);
+      double b = 48 / (a * a);
+      double c = ((20700 * a / b - 98) * a - 16) * a + 96.36;
+      double d = ((94.5 / (b + c) - 3) / b + 1) * Math.sqrt(a * Math.PI / 2) * df;
+      double x = d * p;
+      double y = Math.pow(x, 2.0 / df);
+      if (y > 0.05 + a){
+         //Far tail: correct the normal quantile
+         x = normalQuantile(1 - p / 2);
+         y = x * x;
+         if (df < 5){
+            c += 0.3 * (df - 4.5) * (x + 0.6);
+         }
+         c = (((0.05 * d * x - 5) * x - 7) * x - 2) * x + b + c;
+         y = (((((0.4 * y + 6.3) * y + 36) * y + 94.5) / c - y - 3) / b + 1) * x;
+         y = a * y * y;
+         y = y > 0.002 ? Math.exp(y) - 1 : 0.5 * y * y + y;
+      } else {
+         y = ((1 / (((df + 6) / (df * y) - 0.089 * d - 0.822) * (df + 2) * 3) + 0.5 / (df + 4)) * y - 1)
+               * (df + 1) / (df + 2) + 1 / y;
+      }
+      return Math.sqrt(df * y);
+   }
+   
+   /* The standard normal quantile, by Acklam's rational approximation (relative error below 1.2e-9).*/
+   private static double normalQuantile(double p){
+      if (p > 0.02425 && p < 0.97575){
+         double q = p - 0.5;
+         double r = q * q;
+         return (((((-3.969683028665376e+01 * r + 2.209460984245205e+02) * r - 2.759285104469687e+02) * r
+               + 1.383577518672690e+02) * r - 3.066479806614716e+01) * r + 2.506628277459239e+00) * q
+               / (((((-5.447609879822406e+01 * r + 1.615858368580409e+02) * r - 1.556989798598866e+02) * r
+               + 6.680131188771972e+01) * r - 1.328068155288572e+01) * r + 1);
+      }
+      double r = Math.sqrt(-2 * Math.log(Math.min(p, 1 - p)));
+      double x = (((((-7.784894002430293e-03 * r - 3.223964580411365e-01) * r - 2.400758277161838e+00) * r
+            - 2.549732539343734e+00) * r + 4.374664141464968e+00) * r + 2.938163982698783e+00)
+            / ((((7.784695709041462e-03 * r + 3.224671290700398e-01) * r + 2.445134137142996e+00) * r
+            + 3.754408661907416e+00) * r + 1);
+      return p < 0.5 ? x : -x;
+   }
+   
+   /* Bytes allocated so far by this thread, or 0 if the JVM can't tell.*/
+   private static long allocatedBytes(){
+      java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      if (threads instanceof com.sun.management.ThreadMXBean){
+         return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+      return 0;
+   }
+   
+   /** Writes results as a JMH-style JSON array.
+       @param results The benchmark results.
+       @param file The JSON file to write.
+       @throws IOException if the file can't be written.*/
+   public static void writeJson(List<Result> results, Path file) throws IOException {
+      try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)){
+         out.write("[\n");
+         for (int i = 0; i < results.size(); i++){
+            Result result = results.get(i);
+            out.write("  {\n");
+            out.write("    \"benchmark\": \"GameBenchmark." + result.name + "\",\n");
+            out.write("    \"mode\": \"thrpt\",\n");
+            out.write("    \"warmupIterations\": " + WARMUP_ITERATIONS + ",\n");
+            out.write("    \"measurementIterations\": " + MEASURED_ITERATIONS + ",\n");
+            out.write("    \"primaryMetric\": {\n");
+            out.write("      \"score\": " + result.getMeanOpsPerSecond() + ",\n");
+            out.write("      \"scoreError\": " + json(result.getScoreError()) + ",\n");
+            out.write("      \"scoreConfidence\": [" + json(result.getMeanOpsPerSecond() - result.getScoreError()) + ", "
+                  + json(result.getMeanOpsPerSecond() + result.getScoreError()) + "],\n");
+            out.write("      \"scoreUnit\": \"ops/s\",\n");
+            out.write("      \"rawData\": [[");
+            for (int j = 0; j < result.opsPerSecond.length; j++){
+               out.write((j > 0 ? ", " : "") + result.opsPerSecond[j]);
+            }
+            out.write("]]\n");
+            out.write("    },\n");
+            out.write("    \"secondaryMetrics\": {\n");
+            out.write("      \"gc.alloc.rate.norm\": {\"score\": " + result.bytesPerOp + ", \"scoreUnit\": \"B/op\"},\n");
+            out.write("      \"gc.alloc.rate\": {\"score\": "
+                  + result.bytesPerOp * result.getMeanOpsPerSecond() / 1048576.0 + ", \"scoreUnit\": \"MB/sec\"}\n");
+            out.write("    }\n");
+            out.write(i < results.size() - 1 ? "  },\n" : "  }\n");
+         }
+         out.write("]\n");
+      }
+   }
+   
+   /**
+     Throughput and allocation of one benchmark.
+     */
+   public static class Result {
+      final String name;
+      final double[] opsPerSecond; // One value per measured iteration.
+      final double bytesPerOp; // Mean bytes allocated per operation.
+      
+      Result(String name, double[] opsPerSecond, double bytesPerOp){
+         this.name = name;
+         this.opsPerSecond = opsPerSecond;
+         this.bytesPerOp = bytesPerOp;
+      }
+      
+      /** @return The mean operations per second over the measured iterations.*/
+      public double getMeanOpsPerSecond(){
+         double total = 0;
+         for (double value : opsPerSecond){
+            total += value;
+         }
+         return total / opsPerSecond.length;
+      }
+      
+      /** @return The sample standard deviation of operations per second between iterations,
+                  or NaN with a single iteration.*/
+      public double getStandardDeviation(){
+         double mean = getMeanOpsPerSecond();
+         double squares = 0;
+         for (double value : opsPerSecond){
+            squares += (value - mean) * (value - mean);
+         }
+         return Math.sqrt(squares / (opsPerSecond.length - 1));
+      }
+      
+      /** Computes the half-width of the 99.9% confidence interval of the mean, as JMH reports
+          it in "scoreError": t * sd / sqrt(n), with Student's t for n - 1 degrees of freedom.
+          @return The error, or NaN with a single iteration.*/
+      public double getScoreError(){
+         int n = opsPerSecond.length;
+         if (n < 2){
+            return Double.NaN;
+         }
+         return studentT(0.999, n - 1) * getStandardDeviation() / Math.sqrt(n);
+      }
+      
+      @Override
+      public String toString(){
+         return String.format("%-32s %14.1f ops/s  %10.1f B/op", name, getMeanOpsPerSecond(), bytesPerOp);
+      }
+   }
+   
+   /*
+     Silent GameIO that answers from a fixed list over and over and records nothing,
+     so a benchmark measures the game rather than the front end.
+     */
+   static class CyclingGameIO implements GameIO {
+      private final String[] answers;
+      private int next;
+      
+      CyclingGameIO(String... answers){
+         this.answers = answers;
+      }
+      
+      private String nextAnswer(){
+         String answer = answers[next];
+         next = (next + 1) % answers.length;
+         return answer;
+      }
+      
+      @Override
+      public void showMessage(String message, String title, MessageType type){
+      }
+      
+      @Override
+      public int showOptions(String message, String title, String[] options){
+         return Integer.parseInt(nextAnswer());
+      }
+      
+      @Override
+      public String askText(String message, String title){
+         return nextAnswer();
+      }
+      
+      @Override
+      public boolean confirm(String message, String title){
+         return nextAnswer().equals("yes");
+      }
+   }
+   
+   /** Runs the benchmarks and writes the JSON results.
+       @param args Optional results file (default bench-results.json) and benchmark name filter.*/
+   public static void main(String[] args) throws IOException {
+      Path output = Paths.get(args.length > 0 ? args[0] : "bench-results.json");
+      String filter = args.length > 1 ? args[1] : "";
+      List<Result> results = new GameBenchmark(StoryPack.getDefault()).run(filter);
+      writeJson(results, output);
+      System.out.println("Results written to " + output);
+   }
+}
@@ -0,0 +1,56 @@
+/**
+  The presentation port of the Mystery Mansion game.
+  Every message, choice and answer in the game goes through this interface instead of calling
+  JOptionPane directly, so the same story logic can run in a Swing window, on a console,
+  or headless from a script (see SwingGameIO, ConsoleGameIO and ScriptedGameIO).
+  Demonstrates abstraction: the game only depends on what a front end can do, not how it does it.
+  */
+public interface GameIO {
+   
+   /** Shows the welcome screen and asks whether to start the game.
+       @param message The welcome text.
+       @return true if the player wants to start.*/
+   default boolean showWelcome(String message){
+      showMessage(message, "Mystery Mansion", MessageType.PLAIN);
+      return confirm("Start the game?", "Mystery Mansion");
+   }
+   
+   /** Shows a narrative message with the default title.
+       @param message The text to show.*/
+   default void showMessage(String message){
+      showMessage(message, "Message", MessageType.INFORMATION);
+   }
+   
+   /** Shows a narrative message with the default title, straight from a text buffer.
+       Front ends that write text out (ex. the console) can copy the characters without building
+       a String first; the caller may reuse the buffer once this returns.
+       @param message The text to show.*/
+   default void showText(CharSequence message){
+      showMessage(message.toString());
+   }
+   
+   /** Shows a message and waits until the player has seen it.
+       @param message The text to show.
+       @param title The title of the message window or block.
+       @param type The kind of message (information, warning, error...).*/
+   void showMessage(String message, String title, MessageType type);
+   
+   /** Presents a list of options and returns the one the player picked.
+       @param message The question or scene text shown above the options.
+       @param title The title of the dialog or block.
+       @param options The options the player can choose from.
+       @return The index of the selected option, or -1 if the player cancelled.*/
+   int showOptions(String message, String title, String[] options);
+   
+   /** Asks the player to type an answer.
+       @param message The prompt to show.
+       @param title The title of the dialog or block.
+       @return The text the player entered, or null if the player cancelled.*/
+   String askText(String message, String title);
+   
+   /** Asks the player a yes/no question.
+       @param message The question to show.
+       @param title The title of the dialog or block.
+       @return true if the player answered yes, false for no or cancel.*/
+   boolean confirm(String message, String title);
+}
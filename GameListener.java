@@ -0,0 +1,42 @@
+/**
+  Observes what happens in a game session without taking part in it, ex. for metrics,
+  analytics, leaderboards or the bot harness. Register one with AdventureManager.addListener().
+  Every method has an empty default, so a listener only overrides what it needs.
+  Listeners are called on the session's own thread and should return quickly.
+  */
+public interface GameListener {
+
+   /** Called when the player enters a scene, before any of its text is shown.
+       @param session The session.
+       @param scene The scene index in the session's story.*/
+   default void sceneEntered(AdventureManager session, int scene){
+   }
+
+   /** Called when the player has picked an option of a scene's choice, or cancelled it.
+       @param session The session.
+       @param scene The scene the choice belongs to.
+       @param option The option picked, or -1 if the dialog was cancelled.
+       @param nanos How long the choice was on screen.*/
+   default void choiceMade(AdventureManager session, int scene, int option, long nanos){
+   }
+
+   /** Called when the player is done with a puzzle, solved or not.
+       @param session The session.
+       @param puzzle The puzzle index in the session's story.
+       @param outcome The puzzle, to read its attempts, hints and cancellations.
+       @param solved true if the puzzle was solved.
+       @param nanos How long the player spent on it.*/
+   default void puzzleFinished(AdventureManager session, int puzzle, Puzzle outcome, boolean solved, long nanos){
+   }
+
+   /** Called when a playthrough reaches an ending and its text has been shown.
+       @param session The session.
+       @param ending The ending scene.*/
+   default void playthroughEnded(AdventureManager session, int ending){
+   }
+
+   /** Called when the player declines to play again and the session is over.
+       @param session The session.*/
+   default void sessionEnded(AdventureManager session){
+   }
+}
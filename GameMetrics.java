@@ -0,0 +1,287 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+  Counts and times what players do across every session of a story: scenes entered, how long
+  each choice and puzzle took, answers submitted, hints, cancellations and endings reached.
+  Register one instance as a GameListener on every session (ex. with SessionHost.addListener()).
+  Counters are LongAdders, which spread concurrent increments over separate cells instead of
+  one contended value, and timings go into lock-free LatencyHistograms, so recording never
+  blocks a session. Read the metrics with snapshot() as text, or over JMX after register().
+  Per-scene and per-puzzle figures belong to the story version the metrics were made for; sessions
+  on another version (see StoryRepository) still count in the totals.
+  */
+public class GameMetrics implements GameListener, GameMetricsMXBean {
+   private final StoryPack story;
+   private final String[] puzzleScenes; // Name of the scene each puzzle belongs to, used as its label.
+
+   private final LongAdder sessionsEnded = new LongAdder();
+   private final LongAdder playthroughs = new LongAdder();
+   private final LongAdder choices = new LongAdder();
+   private final LongAdder cancellations = new LongAdder();
+   private final LongAdder puzzleAttempts = new LongAdder();
+   private final LongAdder puzzlesSolved = new LongAdder();
+   private final LongAdder puzzlesFailed = new LongAdder();
+   private final LongAdder hintRequests = new LongAdder();
+   private final LongAdder[] sceneVisits; // By scene.
+   private final LongAdder[] endings; // By scene; only endings count.
+   private final LatencyHistogram[] choiceTimes; // By scene.
+   private final LatencyHistogram[] puzzleTimes; // By puzzle.
+
+   /** Creates empty metrics for a story.
+       @param story The story the measured sessions play.*/
+   public GameMetrics(StoryPack story){
+      this.story = story;
+      int scenes = story.getSceneCount();
+      sceneVisits = adders(scenes);
+      endings = adders(scenes);
+      choiceTimes = new LatencyHistogram[scenes];
+      for (int i = 0; i < scenes; i++){
+         choiceTimes[i] = new LatencyHistogram();
+      }
+      int puzzles = story.getPuzzleCount();
+      puzzleScenes = new String[puzzles];
+      puzzleTimes = new LatencyHistogram[puzzles];
+      for (int scene = 0; scene < scenes; scene++){
+         int puzzle = story.getScenePuzzle(scene);
+         if (puzzle >= 0){
+            puzzleScenes[puzzle] = story.getSceneName(scene);
+         }
+      }
+      for (int i = 0; i < puzzles; i++){
+         puzzleTimes[i] = new LatencyHistogram();
+      }
+   }
+
+   //==================RECORDING=====================
+
+   @Override
+   public void sceneEntered(AdventureManager session, int scene){
+      if (session.getStory() == story){
+         sceneVisits[scene].increment();
+      }
+   }
+
+   @Override
+   public void choiceMade(AdventureManager session, int scene, int option, long nanos){
+      choices.increment();
+      if (option == -1){
+         cancellations.increment();
+      }
+      if (session.getStory() == story){
+         choiceTimes[scene].record(nanos);
+      }
+   }
+
+   @Override
+   public void puzzleFinished(AdventureManager session, int puzzle, Puzzle outcome, boolean solved, long nanos){
+      puzzleAttempts.add(outcome.getAttemptsUsed() + (solved ? 1 : 0));
+      (solved ? puzzlesSolved : puzzlesFailed).increment();
+      hintRequests.add(outcome.getHintsShown());
+      cancellations.add(outcome.getCancellations());
+      if (session.getStory() == story){
+         puzzleTimes[puzzle].record(nanos);
+      }
+   }
+
+   @Override
+   public void playthroughEnded(AdventureManager session, int ending){
+      playthroughs.increment();
+      if (session.getStory() == story){
+         endings[ending].increment();
+      }
+   }
+
+   @Override
+   public void sessionEnded(AdventureManager session){
+      sessionsEnded.increment();
+   }
+
+   //==================READING=====================
+
+   @Override
+   public long getSessionsEnded(){
+      return sessionsEnded.sum();
+   }
+
+   @Override
+   public long getPlaythroughs(){
+      return playthroughs.sum();
+   }
+
+   @Override
+   public long getChoices(){
+      return choices.sum();
+   }
+
+   @Override
+   public long getCancellations(){
+      return cancellations.sum();
+   }
+
+   @Override
+   public long getPuzzleAttempts(){
+      return puzzleAttempts.sum();
+   }
+
+   @Override
+   public long getPuzzlesSolved(){
+      return puzzlesSolved.sum();
+   }
+
+   @Override
+   public long getPuzzlesFailed(){
+      return puzzlesFailed.sum();
+   }
+
+   @Override
+   public long getHintRequests(){
+      return hintRequests.sum();
+   }
+
+   @Override
+   public Map<String, Long> getEndingCounts(){
+      Map<String, Long> counts = new LinkedHashMap<>();
+      for (int scene = 0; scene < endings.length; scene++){
+         if (story.isEnding(scene)){
+            counts.put(story.getSceneName(scene), endings[scene].sum());
+         }
+      }
+      return counts;
+   }
+
+   @Override
+   public Map<String, Long> getSceneVisits(){
+      Map<String, Long> counts = new LinkedHashMap<>();
+      for (int scene = 0; scene < sceneVisits.length; scene++){
+         counts.put(story.getSceneName(scene), sceneVisits[scene].sum());
+      }
+      return counts;
+   }
+
+   /** Retrieves the choice times of one scene.
+       @param scene The scene index.
+       @return The histogram of how long its choice was on screen.*/
+   public LatencyHistogram getChoiceTimes(int scene){
+      return choiceTimes[scene];
+   }
+
+   /** Retrieves the solving times of one puzzle.
+       @param puzzle The puzzle index.
+       @return The histogram of how long players spent on it.*/
+   public LatencyHistogram getPuzzleTimes(int puzzle){
+      return puzzleTimes[puzzle];
+   }
+
+   @Override
+   public String getSnapshot(){
+      return snapshot();
+   }
+
+   /** Writes every metric as text in the Prometheus exposition format, one value per line,
+       so it can be read by a person or scraped by a monitoring system.
+       Times are in seconds, with the 50th, 90th, 99th and 99.9th percentiles.
+       @return The metrics text.*/
+   public String snapshot(){
+      StringBuilder out = new StringBuilder(8192);
+      counter(out, "mansion_sessions_ended_total", "Sessions whose player declined to play again.", getSessionsEnded());
+      counter(out, "mansion_playthroughs_total", "Playthroughs that reached an ending.", getPlaythroughs());
+      counter(out, "mansion_choices_total", "Scene choices answered, cancellations included.", getChoices());
+      counter(out, "mansion_cancellations_total", "Choices and puzzle dialogs cancelled.", getCancellations());
+      counter(out, "mansion_puzzle_attempts_total", "Puzzle answers submitted.", getPuzzleAttempts());
+      counter(out, "mansion_puzzles_solved_total", "Puzzles solved.", getPuzzlesSolved());
+      counter(out, "mansion_puzzles_failed_total", "Puzzles failed or given up.", getPuzzlesFailed());
+      counter(out, "mansion_hints_total", "Hints shown.", getHintRequests());
+      header(out, "mansion_scene_visits_total", "Times each scene was entered.", "counter");
+      for (int scene = 0; scene < sceneVisits.length; scene++){
+         line(out, "mansion_scene_visits_total", "scene", story.getSceneName(scene), null, sceneVisits[scene].sum());
+      }
+      header(out, "mansion_endings_total", "Times each ending was reached.", "counter");
+      for (int scene = 0; scene < endings.length; scene++){
+         if (story.isEnding(scene)){
+            line(out, "mansion_endings_total", "scene", story.getSceneName(scene), null, endings[scene].sum());
+         }
+      }
+      header(out, "mansion_choice_seconds", "Time each scene's choice was on screen.", "summary");
+      for (int scene = 0; scene < choiceTimes.length; scene++){
+         summary(out, "mansion_choice_seconds", "scene", story.getSceneName(scene), choiceTimes[scene]);
+      }
+      header(out, "mansion_puzzle_seconds", "Time spent on each puzzle, by its scene.", "summary");
+      for (int puzzle = 0; puzzle < puzzleTimes.length; puzzle++){
+         summary(out, "mansion_puzzle_seconds", "scene", puzzleScenes[puzzle], puzzleTimes[puzzle]);
+      }
+      return out.toString();
+   }
+
+   /** Makes the metrics visible over JMX as MysteryMansion:type=GameMetrics.
+       @throws IllegalStateException if another GameMetrics is already registered.*/
+   public void register(){
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         server.registerMBean(this, objectName());
+      } catch (JMException e){
+         throw new IllegalStateException("Could not register the game metrics with JMX", e);
+      }
+   }
+
+   /** Removes the metrics from JMX again.*/
+   public void unregister(){
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         if (server.isRegistered(objectName())){
+            server.unregisterMBean(objectName());
+         }
+      } catch (JMException e){
+         throw new IllegalStateException("Could not unregister the game metrics from JMX", e);
+      }
+   }
+
+   //==================HELPER METHODS=====================
+
+   private static ObjectName objectName() throws JMException {
+      return new ObjectName("MysteryMansion:type=GameMetrics");
+   }
+
+   /* A counter for each of count things, ex. scenes; also used by BranchAnalytics.*/
+   static LongAdder[] adders(int count){
+      LongAdder[] adders = new LongAdder[count];
+      for (int i = 0; i < count; i++){
+         adders[i] = new LongAdder();
+      }
+      return adders;
+   }
+
+   private static void header(StringBuilder out, String name, String help, String type){
+      out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+      out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+   }
+
+   private static void counter(StringBuilder out, String name, String help, long value){
+      header(out, name, help, "counter");
+      out.append(name).append(' ').append(value).append('\n');
+   }
+
+   private static void line(StringBuilder out, String name, String label, String value, String quantile, Object number){
+      out.append(name).append('{').append(label).append("=\"").append(value).append('"');
+      if (quantile != null){
+         out.append(",quantile=\"").append(quantile).append('"');
+      }
+      out.append("} ").append(number).append('\n');
+   }
+
+   private static void summary(StringBuilder out, String name, String label, String value, LatencyHistogram times){
+      if (times.getCount() == 0){
+         return;
+      }
+      String[] quantiles = {"0.5", "0.9", "0.99", "0.999"};
+      for (String quantile : quantiles){
+         line(out, name, label, value, quantile, times.getPercentile(Double.parseDouble(quantile) * 100) / 1e9);
+      }
+      line(out, name + "_count", label, value, null, times.getCount());
+   }
+}
@@ -0,0 +1,30 @@
+import java.util.Map;
+
+/**
+  The JMX view of GameMetrics, shown in tools such as JConsole or VisualVM
+  under MysteryMansion:type=GameMetrics.
+  */
+public interface GameMetricsMXBean {
+   /** @return Sessions whose player declined to play again.*/
+   long getSessionsEnded();
+   /** @return Playthroughs that reached an ending.*/
+   long getPlaythroughs();
+   /** @return Scene choices answered, cancellations included.*/
+   long getChoices();
+   /** @return Scene choices and puzzle dialogs the players cancelled.*/
+   long getCancellations();
+   /** @return Puzzle answers submitted, right or wrong.*/
+   long getPuzzleAttempts();
+   /** @return Puzzles solved.*/
+   long getPuzzlesSolved();
+   /** @return Puzzles failed or given up.*/
+   long getPuzzlesFailed();
+   /** @return Hints shown.*/
+   long getHintRequests();
+   /** @return Times each ending was reached, by scene name.*/
+   Map<String, Long> getEndingCounts();
+   /** @return Times each scene was entered, by scene name.*/
+   Map<String, Long> getSceneVisits();
+   /** @return Every metric as text, the same as GameMetrics.snapshot().*/
+   String getSnapshot();
+}
@@ -0,0 +1,60 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+  Gives every item of the story (Red Key, Blue Key, Silver Key, ...) a small integer id.
+  Players keep their inventory as a set of these ids instead of a list of names, and the
+  catalogue turns an id back into its display name when the inventory is shown.
+  Ids are handed out in the order items are first seen and are shared by every session in the process.
+  */
+public final class ItemCatalog {
+   private static final Map<String, Integer> ids = new ConcurrentHashMap<>(); // Item name -> id.
+   private static volatile String[] names = new String[8]; // Id -> item name, replaced when it grows.
+   private static int count; // Number of ids handed out, guarded by the class lock.
+
+   private ItemCatalog(){
+   }
+
+   /** Retrieves the id of an item, giving it the next free id the first time it is seen.
+       @param name The item name (ex. "Red Key").
+       @return The item's id, from 0 up.*/
+   public static int id(String name){
+      Integer id = ids.get(name);
+      return id != null ? id : register(name);
+   }
+
+   /** Looks up the id of an item without registering it.
+       @param name The item name.
+       @return The item's id, or -1 if no player has ever been given it.*/
+   public static int find(String name){
+      Integer id = ids.get(name);
+      return id != null ? id : -1;
+   }
+
+   /** Retrieves the display name of an item.
+       @param id An id returned by id().
+       @return The item name.*/
+   public static String name(int id){
+      return names[id];
+   }
+
+   /** @return The number of distinct items seen so far.*/
+   public static synchronized int size(){
+      return count;
+   }
+
+   private static synchronized int register(String name){
+      Integer id = ids.get(name);
+      if (id != null){
+         return id; //Another session registered it first
+      }
+      if (count == names.length){
+         names = Arrays.copyOf(names, count * 2);
+      }
+      //The name is stored before the id is published through the map, so anyone holding the id can read it
+      names[count] = name;
+      ids.put(name, count);
+      return count++;
+   }
+}
@@ -0,0 +1,92 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+  A thread-safe histogram of durations in nanoseconds with log-linear buckets: every power of two
+  is split into 16 buckets, so percentiles are accurate to about 6% from nanoseconds up to hours,
+  in a fixed 8 KB no matter how many values are recorded. Recording is a single atomic increment,
+  so many session threads can share one histogram.
+  */
+public final class LatencyHistogram {
+   private static final int SUB_BUCKET_BITS = 4;
+   private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+   private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+   private final AtomicLong total = new AtomicLong(); // Number of values recorded.
+   private final AtomicLong max = new AtomicLong(); // Largest value recorded.
+
+   /** Records one duration.
+       @param nanos The duration in nanoseconds; negative values count as 0.*/
+   public void record(long nanos){
+      long value = Math.max(0, nanos);
+      counts.incrementAndGet(bucket(value));
+      total.incrementAndGet();
+      if (value > max.get()){
+         max.accumulateAndGet(value, Math::max);
+      }
+   }
+
+   /** @return The number of durations recorded.*/
+   public long getCount(){
+      return total.get();
+   }
+
+   /** @return The largest duration recorded, in nanoseconds.*/
+   public long getMax(){
+      return max.get();
+   }
+
+   /** Estimates a percentile of the recorded durations.
+       @param percentile The percentile, from 0 to 100 (ex. 99.9).
+       @return The duration in nanoseconds that this share of values stays at or below, or 0 if empty.*/
+   public long getPercentile(double percentile){
+      long count = total.get();
+      if (count == 0){
+         return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length(); i++){
+         seen += counts.get(i);
+         if (seen >= rank){
+            return Math.min(upperBound(i), max.get());
+         }
+      }
+      return max.get();
+   }
+
+   /** Adds every value recorded in another histogram to this one.
+       @param other The histogram to add.*/
+   public void add(LatencyHistogram other){
+      for (int i = 0; i < counts.length(); i++){
+         long count = other.counts.get(i);
+         if (count != 0){
+            counts.addAndGet(i, count);
+         }
+      }
+      total.addAndGet(other.total.get());
+      max.accumulateAndGet(other.max.get(), Math::max);
+   }
+
+   /* Bucket of a value: values below 16 get their own bucket; above that, the position of the
+      highest bit picks the power of two and the next 4 bits the bucket inside it.*/
+   private static int bucket(long value){
+      if (value < SUB_BUCKETS){
+         return (int) value;
+      }
+      int exponent = 63 - Long.numberOfLeadingZeros(value); // At least SUB_BUCKET_BITS.
+      int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+      return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + mantissa;
+   }
+
+   /* The largest value that falls in a bucket.*/
+   private static long upperBound(int bucket){
+      if (bucket < SUB_BUCKETS){
+         return bucket;
+      }
+      int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+      long mantissa = bucket % SUB_BUCKETS;
+      long lowest = (1L << exponent) + (mantissa << (exponent - SUB_BUCKET_BITS));
+      return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+   }
+}
@@ -0,0 +1,353 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+  Ranks players across every session by their best result: highest score first, then fewest
+  playthroughs. Register it as a GameListener (ex. with SessionHost.addListener()) and each
+  finished session's score and attempt count are submitted when the player stops playing.
+  Entries are kept in a ConcurrentSkipListSet, so an update is O(log n) and top() and rankOf()
+  read without locks while sessions keep submitting. Ranks are counted per distinct score, of which
+  a story has few, so rankOf() does not walk the players. Memory is bounded: past the capacity the
+  lowest entry is dropped. startFlushing() saves the board to a file in the background, and
+  load() reads it back after a restart.
+  */
+public class Leaderboard implements GameListener, AutoCloseable {
+   static final int MAGIC = 0x4D4D4C42; // "MMLB"
+   static final int VERSION = 1;
+   /** Entries kept unless another capacity is given; about 150 MB when full.*/
+   public static final int DEFAULT_CAPACITY = 1_000_000;
+
+   /* Best first: higher score, then fewer attempts, then by name so every player has one place.*/
+   private static final Comparator<Entry> ORDER = Comparator.comparingInt((Entry e) -> -e.score)
+         .thenComparingInt(e -> e.attempts).thenComparing(e -> e.name);
+
+   private final int capacity;
+   private final ConcurrentSkipListSet<Entry> ranking = new ConcurrentSkipListSet<>(ORDER);
+   private final Map<String, Entry> best = new ConcurrentHashMap<>(); // Each player's entry, by name.
+   private final ConcurrentSkipListMap<Integer, Integer> scoreCounts = // Entries per score, highest first.
+         new ConcurrentSkipListMap<>(Collections.reverseOrder());
+   private final AtomicInteger size = new AtomicInteger(); // The skip list's own size() is O(n).
+   private final AtomicLong changes = new AtomicLong(); // Bumped on every change, to skip idle flushes.
+   private ScheduledExecutorService flusher; // Saves the board periodically; null until startFlushing().
+   private Path flushFile; // Where the flusher saves.
+   private FsyncPolicy flushPolicy;
+   private volatile long savedChanges = -1; // The value of changes at the last save.
+
+   /** Creates an empty leaderboard holding up to DEFAULT_CAPACITY players.*/
+   public Leaderboard(){
+      this(DEFAULT_CAPACITY);
+   }
+
+   /** Creates an empty leaderboard.
+       @param capacity The most players kept; the lowest ranked are dropped beyond it.*/
+   public Leaderboard(int capacity){
+      if (capacity < 1){
+         throw new IllegalArgumentException("Leaderboard capacity must be positive: " + capacity);
+      }
+      this.capacity = capacity;
+   }
+
+   /** A player's best result. Immutable.*/
+   public static final class Entry {
+      private final String name;
+      private final int score;
+      private final int attempts;
+
+      Entry(String name, int score, int attempts){
+         this.name = name;
+         this.score = score;
+         this.attempts = attempts;
+      }
+
+      /** @return The player's name.*/
+      public String getName(){
+         return name;
+      }
+
+      /** @return The player's best score.*/
+      public int getScore(){
+         return score;
+      }
+
+      /** @return The playthroughs it took to reach that score.*/
+      public int getAttempts(){
+         return attempts;
+      }
+
+      @Override
+      public String toString(){
+         return name + " " + score + " (" + attempts + " attempts)";
+      }
+   }
+
+   //==================UPDATES=====================
+
+   /** Records a result, keeping it only if it beats the player's best.
+       @param name The player's name.
+       @param score The score reached.
+       @param attempts The playthroughs it took.
+       @return true if the result is the player's new best.*/
+   public boolean submit(String name, int score, int attempts){
+      Entry result = new Entry(name, score, attempts);
+      boolean[] improved = new boolean[1];
+      best.compute(name, (key, old) -> {
+         if (old != null && ORDER.compare(old, result) <= 0){
+            return old; //Not better than the player's best
+         }
+         if (old != null){
+            unrank(old);
+         }
+         ranking.add(result);
+         scoreCounts.merge(score, 1, Integer::sum);
+         size.incrementAndGet();
+         improved[0] = true;
+         return result;
+      });
+      if (improved[0]){
+         changes.incrementAndGet();
+         while (size.get() > capacity){
+            dropLowest();
+         }
+      }
+      return improved[0];
+   }
+
+   /** Submits the session's score and playthroughs when the player stops playing.*/
+   @Override
+   public void sessionEnded(AdventureManager session){
+      PlayerState player = session.getPlayer().getState();
+      submit(player.getName(), player.getScore(), session.getAttempts());
+   }
+
+   /* Takes an entry out of the ranking, if it is still there. Called while its player's map slot is held.*/
+   private void unrank(Entry entry){
+      if (ranking.remove(entry)){
+         scoreCounts.computeIfPresent(entry.score, (score, count) -> count == 1 ? null : count - 1);
+         size.decrementAndGet();
+      }
+   }
+
+   /* Drops the lowest entry to stay within the capacity.*/
+   private void dropLowest(){
+      Entry lowest = lastOrNull();
+      if (lowest == null){
+         return;
+      }
+      //Through the player's map slot, so it cannot interleave with a submit for the same player
+      best.computeIfPresent(lowest.name, (key, current) -> {
+         unrank(lowest);
+         return current == lowest ? null : current;
+      });
+   }
+
+   /* The lowest entry, or null if the board is empty.*/
+   private Entry lastOrNull(){
+      try {
+         return ranking.last();
+      } catch (NoSuchElementException e){
+         return null; //Emptied by another thread meanwhile
+      }
+   }
+
+   //==================QUERIES=====================
+
+   /** Lists the best players. Never blocks submissions; entries changing meanwhile may be missed.
+       @param count The most entries to return.
+       @return Up to count entries, best first.*/
+   public List<Entry> top(int count){
+      List<Entry> top = new ArrayList<>(Math.min(count, 1024));
+      Iterator<Entry> it = ranking.iterator();
+      while (top.size() < count && it.hasNext()){
+         top.add(it.next());
+      }
+      return top;
+   }
+
+   /** Finds a player's place. Players with the same score share a place.
+       @param name The player's name.
+       @return 1 for the top score, or -1 if the player is not on the board.*/
+   public int rankOf(String name){
+      Entry entry = best.get(name);
+      if (entry == null){
+         return -1;
+      }
+      int rank = 1;
+      for (int count : scoreCounts.headMap(entry.score, false).values()){
+         rank += count;
+      }
+      return rank;
+   }
+
+   /** Looks up a player's best result.
+       @param name The player's name.
+       @return The entry, or null if the player is not on the board.*/
+   public Entry get(String name){
+      return best.get(name);
+   }
+
+   /** @return The number of players on the board.*/
+   public int size(){
+      return size.get();
+   }
+
+   //==================PERSISTENCE=====================
+
+   /** Writes the board to a file, replacing it atomically so a crash leaves the old or the new board.
+       Submissions carry on meanwhile; the file holds the entries seen while walking the board.
+       @param file The file to write.
+       @param policy How far to force the file to disk.
+       @throws IOException if the file cannot be written.*/
+   public void save(Path file, FsyncPolicy policy) throws IOException {
+      Path absolute = file.toAbsolutePath();
+      Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+      try {
+         try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)){
+            List<Entry> entries = top(Integer.MAX_VALUE);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Entry entry : entries){
+               out.writeInt(entry.score);
+               out.writeInt(entry.attempts);
+               out.writeUTF(entry.name);
+            }
+            out.flush();
+            if (policy != FsyncPolicy.NONE){
+               channel.force(policy == FsyncPolicy.FULL);
+            }
+         }
+         Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException | RuntimeException e){
+         Files.deleteIfExists(temp);
+         throw e;
+      }
+      if (policy == FsyncPolicy.FULL){
+         SessionSnapshot.forceDirectory(absolute.getParent());
+      }
+   }
+
+   /** Adds the entries of a board saved by save(), ex. at startup. A missing file is an empty board.
+       @param file The file to read.
+       @return The number of entries read.
+       @throws IOException if the file cannot be read.
+       @throws IllegalArgumentException if the file is not a leaderboard.*/
+   public int load(Path file) throws IOException {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))){
+         if (in.readInt() != MAGIC || in.readInt() != VERSION){
+            throw new IllegalArgumentException("Not a leaderboard file: " + file);
+         }
+         int count = in.readInt();
+         for (int i = 0; i < count; i++){
+            int score = in.readInt();
+            int attempts = in.readInt();
+            submit(in.readUTF(), score, attempts);
+         }
+         return count;
+      } catch (NoSuchFileException e){
+         return 0;
+      } catch (EOFException e){
+         throw new IllegalArgumentException("Leaderboard file is truncated: " + file, e);
+      }
+   }
+
+   /** Saves the board to a file every period, on a background thread, whenever it has changed.
+       close() stops it and saves one last time.
+       @param file The file to write.
+       @param period Time between saves.
+       @param unit The unit of period.
+       @param policy How far to force each save to disk.*/
+   public synchronized void startFlushing(Path file, long period, TimeUnit unit, FsyncPolicy policy){
+      if (flusher != null){
+         throw new IllegalStateException("The leaderboard is already being flushed");
+      }
+      flushFile = file;
+      flushPolicy = policy;
+      flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+         Thread thread = new Thread(task, "leaderboard-flush");
+         thread.setDaemon(true);
+         return thread;
+      });
+      flusher.scheduleWithFixedDelay(() -> {
+         try {
+            flushIfChanged();
+         } catch (IOException e){
+            System.err.println("Could not save the leaderboard: " + e); //Try again next period
+         }
+      }, period, period, unit);
+   }
+
+   /* Saves the board unless nothing changed since the last save. Only one thread calls it at a time.*/
+   private void flushIfChanged() throws IOException {
+      long seen = changes.get();
+      if (seen != savedChanges){
+         save(flushFile, flushPolicy);
+         savedChanges = seen;
+      }
+   }
+
+   /** Stops the background saves started by startFlushing() after saving any last changes.
+       @throws UncheckedIOException if the last save fails.*/
+   @Override
+   public synchronized void close(){
+      if (flusher == null){
+         return;
+      }
+      flusher.shutdown();
+      try {
+         flusher.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }
+      flusher = null;
+      try {
+         flushIfChanged();
+      } catch (IOException e){
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   /** Prints the top of a saved board.
+       @param args The board file and optionally how many entries to show (default 10).*/
+   public static void main(String[] args) throws IOException {
+      if (args.length < 1){
+         System.err.println("Usage: java Leaderboard <file> [count]");
+         return;
+      }
+      Leaderboard board = new Leaderboard(Integer.MAX_VALUE);
+      board.load(Paths.get(args[0]));
+      int count = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+      int place = 0;
+      for (Entry entry : board.top(count)){
+         System.out.printf("%3d. %s%n", ++place, entry);
+      }
+   }
+}
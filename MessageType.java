@@ -0,0 +1,11 @@
+/**
+  The kind of message shown to the player, independent of how it is presented.
+  SwingGameIO maps these onto JOptionPane icons, while text front ends use them as labels.
+  */
+public enum MessageType {
+   PLAIN,
+   INFORMATION,
+   WARNING,
+   ERROR,
+   QUESTION
+}
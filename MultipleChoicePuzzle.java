@@ -1,5 +1,3 @@
-import javax.swing.JOptionPane;
- 
  /**
    Represents a multiple-choice puzzle in the Mystery Mansion game.
    Extends the base Puzzle class to handle choice-based questions with retry logic.
@@ -10,6 +8,8 @@ import javax.swing.JOptionPane;
       
       // Array of choice options presented to the player for selection.
       private String[] options; 
+      // The question with its options, asked for every attempt; made by start().
+      private Prompt prompt;
       
       /**
         Constructor to initialize a MultipleChoicePuzzle with question details and options.
@@ -25,65 +25,46 @@ import javax.swing.JOptionPane;
       }
       
       /**
-        Attempts to solve the puzzle by displaying the question and options in a dialog.
-        Allows up to 3 attempts, with feedback on success/failure and graceful cancellation handling.
-        @return true if the puzzle is solved correctly within attempts, false otherwise.
+        Shows the question and asks for the first pick.
+        Allows the attempts of the puzzle's AttemptPolicy (3 by default), with feedback on success/failure and graceful cancellation handling.
+        @param io The front end used to talk to the player.
+        @return The choice prompt, or null if no attempts are left.
         */
       @Override
-      public boolean attemptSolve(){
-         JOptionPane.showMessageDialog(null, question);
-         boolean solved = false;
-         int attempts = 0;
-         final int MAX_ATTEMPTS = 3;
-         while (!solved && attempts < MAX_ATTEMPTS){
-               int choice = JOptionPane.showOptionDialog(
-                   null, 
-                   question, 
-                   "Puzzle", 
-                   JOptionPane.DEFAULT_OPTION, 
-                   JOptionPane.QUESTION_MESSAGE,
-                   null, 
-                   options, 
-                   options[0]
-               );
-               
-               if (choice == JOptionPane.CLOSED_OPTION){ //Handled dialog cancellation
-                     JOptionPane.showMessageDialog(
-                          null, 
-                          "Puzzle canceled. Returning to game.", 
-                          "Canceled", 
-                          JOptionPane.WARNING_MESSAGE);
-                     return false; //excit gracefully without solving
-               }
-               
-               String selected = options[choice];
-               if (isCorrect(selected)){
-                  solved = true;
-               } else {
-                  attempts++;
-                  if (attempts < MAX_ATTEMPTS){
-                      JOptionPane.showMessageDialog(
-                           null, 
-                           wrongMsg, 
-                           "Incorrect", 
-                           JOptionPane.ERROR_MESSAGE);
-                  } else{
-                     JOptionPane.showMessageDialog(
-                            null, 
-                            failMsg, 
-                            "Game Over", 
-                            JOptionPane.ERROR_MESSAGE);
-                  }
-               }
-           }
-           return solved;
+      public Prompt start(GameIO io){
+         io.showMessage(question);
+         prompt = new Prompt(Prompt.CHOICE, question, "Puzzle", options);
+         return ask(prompt); //Attempts start at 0, or where a restored session left off
+      }
+      
+      /**
+        Checks one pick.
+        @param choice The index of the selected option, or -1 if cancelled.
+        @param io The front end used to talk to the player.
+        @return The choice prompt again, or null once the puzzle is solved, cancelled or every attempt is used.
+        */
+      @Override
+      public Prompt answer(int choice, GameIO io){
+         if (choice == -1){ //Handled dialog cancellation
+               cancellations++;
+               attempt.cancel();
+               io.showMessage(
+                    "Puzzle canceled. Returning to game.", 
+                    "Canceled", 
+                    MessageType.WARNING);
+               return null; //excit gracefully without solving
+         }
+         
+         //Check the pick; wrong ones use up an attempt
+         return judge(isCorrect(options[choice]), prompt, io);
       }
       
       /**
         Displays the available options in a separate dialog for player reference.
         Can be called to show choices before or during puzzle attempts.
+        @param io The front end used to show the options.
         */
-      public void displayOptions(){
-            JOptionPane.showMessageDialog(null, "Options: " + String.join(", ", options), "Choices", JOptionPane.INFORMATION_MESSAGE);
+      public void displayOptions(GameIO io){
+            io.showMessage("Options: " + String.join(", ", options), "Choices", MessageType.INFORMATION);
       }
    }
\ No newline at end of file
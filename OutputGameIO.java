@@ -0,0 +1,48 @@
+/**
+  The GameIO of a stepped session: it only shows what the game says. A stepped session hands
+  its questions back as Prompts and takes the answers through AdventureManager.answer(), so
+  nothing ever asks through the front end; if something does, it is a bug and fails loudly.
+  Hosts that step sessions (TextServer, AsyncSessionHost, SessionManager) and tools that only
+  need a session's state, not its text (BranchAnalytics, DecisionJournal) use this instead of
+  each inventing their own. Subclasses write the messages somewhere; SILENT drops them.
+  */
+public abstract class OutputGameIO implements GameIO {
+   /** Drops every message, ex. for bots, benchmarks and replays.*/
+   public static final OutputGameIO SILENT = new OutputGameIO(){
+      @Override
+      public void showMessage(String message, String title, MessageType type){
+      }
+
+      @Override
+      public void showText(CharSequence message){
+      }
+   };
+
+   /** Shows the welcome text; a stepped session starts when its host begins it, so there is nothing to ask.
+       @param message The welcome text.
+       @return true.*/
+   @Override
+   public boolean showWelcome(String message){
+      showMessage(message, "Mystery Mansion", MessageType.PLAIN);
+      return true;
+   }
+
+   @Override
+   public int showOptions(String message, String title, String[] options){
+      throw notAsked();
+   }
+
+   @Override
+   public String askText(String message, String title){
+      throw notAsked();
+   }
+
+   @Override
+   public boolean confirm(String message, String title){
+      throw notAsked();
+   }
+
+   private static IllegalStateException notAsked(){
+      return new IllegalStateException("A stepped session is answered through AdventureManager.answer(), not asked");
+   }
+}
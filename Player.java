@@ -1,78 +1,124 @@
-import java.util.*; // Import List and ArrayList classes for managing collections
-import javax.swing.JOptionPane; // For showing dialog boxes to the user
+import java.util.concurrent.atomic.AtomicReference; // Publishes each new state without locking
 
 /* Represents the player in the MysteryMansion game.
    This class manages the player's name, score, and inventory of collected objects.
-   It provides methods to update the player's state and display information via dialogs.
-   Demonstrates encapsulation, collections (ArrayList), and user interaction.
+   It provides methods to update the player's state and display information through a GameIO.
+   Everything about the player lives in one immutable PlayerState; each change builds a new one
+   and publishes it atomically (copy-on-write), so other threads can read getState() at any time
+   without blocking the game and never see a score and inventory that did not exist together.
+   The inventory is a bitset of ItemCatalog ids (one bit per item) plus the ids in the order they were
+   collected, so checking for an item is a single bit test.
+   Demonstrates encapsulation, immutable snapshots, and user interaction.
    */
    
 public class Player {
-    //The name of the player, used for personalization in the game.
-    private String name;
-    //The players current score, accumulated through successful actions.
-    private int score;
-    //A list of objects collected by the player during the game 
-    private List<String> collectedObjects;
+    //The player's name, score and collected objects, replaced as a whole on every change.
+    private final AtomicReference<PlayerState> state;
 
     /* Constructor to initialize a new Player with a given name.
       Sets the score to 0 and creates an empty inventory.
       */
     public Player(String name) {
-        this.name = name;
-        this.score = 0;
-        this.collectedObjects = new ArrayList<>(); // ArrayList used as the actual implementation of List
+        this.state = new AtomicReference<>(new PlayerState(name));
+    }
+    
+    /** Returns a consistent view of the player: name, score and collected objects at one moment.
+      Safe to call from any thread; it never blocks and the result never changes.
+      @return the player's current state*/
+    public PlayerState getState() {
+        return state.get();
     }
     
     /**Returns the player's name.
       @return the player's name as a String*/
     public String getName() {
-        return name;
+        return state.get().getName();
     }
     
     /*Returns the player's current score.
       @return the player's score as an integer*/
     public int getScore() {
-        return score;
+        return state.get().getScore();
     }
     
     /** Increases the players score by a specified amount.
       Used when the player completes successful actions (ex. solving puzzles).
        @param amount The number of points to add to the score.*/
     public void increaseScore(int amount) {
-        score += amount;
+        PlayerState current;
+        do {
+            current = state.get();
+        } while (!state.compareAndSet(current, current.withScore(amount)));
     }
     
     /** Adds an object to the player's collection if it's not already present.
-       Displays a dialog to notify the player of the addition.
-       @param obj The name of the object to add(ex. "Red Key")*/
-    public void addObjects(String obj) {
-        if (!collectedObjects.contains(obj)) {
-            collectedObjects.add(obj); 
-            JOptionPane.showMessageDialog(
-                null,
-                obj + " added to your collected objects!\nCurrent items: " + String.join(", ", collectedObjects),
+       Displays a message to notify the player of the addition.
+       @param obj The name of the object to add(ex. "Red Key")
+       @param io The front end used to notify the player.*/
+    public void addObjects(String obj, GameIO io) {
+        if (collectObject(obj)) {
+            io.showMessage(
+                obj + " added to your collected objects!\nCurrent items: " + appendCollectedObjects(new StringBuilder()),
                 "Item Collected",
-                JOptionPane.INFORMATION_MESSAGE
+                MessageType.INFORMATION
             );
             
         }         
    }
 
+    /** Adds an object to the player's collection without telling the player,
+       ex. when a saved session is restored.
+       @param obj The name of the object to add.
+       @return true if the object was not collected yet.*/
+    public boolean collectObject(String obj) {
+        int id = ItemCatalog.id(obj);
+        PlayerState current;
+        do {
+            current = state.get();
+            if (current.owns(id)) {
+                return false;
+            }
+        } while (!state.compareAndSet(current, current.withItem(id)));
+        return true;
+    }
+    
+    /** Returns the collected objects in the order they were collected.
+       @return a new array with the object names*/
+    public String[] getCollectedObjects() {
+        return state.get().getCollectedObjects();
+    }
+
     /*Clears all objects from the player's collection.
       Typically called when restarting the game.*/
     public void clearCollectedObjects() {
-        collectedObjects.clear();
+        PlayerState current;
+        do {
+            current = state.get();
+        } while (!state.compareAndSet(current, current.withoutItems()));
+    }
+    
+    /** Checks if the player has collected an object.
+       @param obj The name of the object (ex. "Red Key").
+       @return true if the object is in the player's collection.*/
+    public boolean hasObject(String obj) {
+        return state.get().hasObject(obj);
+    }
+    
+    /** Returns how many objects the player has collected.
+       @return the number of collected objects*/
+    public int getCollectedCount() {
+        return state.get().getCollectedCount();
     }
     
 
-    /* Display the player's collected objects in a dialog box.
+    /* Display the player's collected objects through the given front end.
      Shows a message if the inventory is empty.*/
-      public void showCollectedObjects() {
-        if (collectedObjects.isEmpty()) {
-            JOptionPane.showMessageDialog(null, "You have not collected anything yet.", "Collected Objects", JOptionPane.INFORMATION_MESSAGE);
+      public void showCollectedObjects(GameIO io) {
+        PlayerState current = state.get();
+        if (current.getCollectedCount() == 0) {
+            io.showMessage("You have not collected anything yet.", "Collected Objects", MessageType.INFORMATION);
         } else {
-            JOptionPane.showMessageDialog(null, "Collected objects: " + String.join(", ", collectedObjects), "Collected Objects", JOptionPane.INFORMATION_MESSAGE);
+            io.showMessage(current.appendCollectedObjects(new StringBuilder("Collected objects: ")).toString(), "Collected Objects", MessageType.INFORMATION);
         }
     }
     
@@ -83,7 +129,14 @@ public class Player {
      */
      @Override
      public String toString() { // Returns player info as a string
-         return  name + "!\n" + "Final score: " + score + "\nCollected objects: " + collectedObjects;
+         return state.get().toString();
+     }
      
+     /** Appends the collected object names, in the order they were collected, separated by ", ".
+        Used to fill the {items} placeholder of story text without building a separate string.
+        @param text The buffer to append to.
+        @return The same buffer.*/
+     public StringBuilder appendCollectedObjects(StringBuilder text) {
+         return state.get().appendCollectedObjects(text);
      }
 }
@@ -0,0 +1,115 @@
+import java.util.Arrays;
+
+/**
+  An immutable view of a player at one moment: name, score and collected objects.
+  Player publishes a new PlayerState every time it changes, so other threads (metrics, autosave,
+  admin tools) can read a consistent player without locks: the score and inventory they see were
+  always true together, and the game thread never waits for them.
+  The inventory is a bitset of ItemCatalog ids plus the ids in the order they were collected;
+  both arrays are copied when an object is added and never changed after publishing.
+  */
+public final class PlayerState {
+   private static final long[] NO_BITS = new long[1]; // Never written, shared by every empty inventory.
+   private static final int[] NO_ITEMS = new int[0];
+
+   private final String name;
+   private final int score;
+   private final long[] ownedItems; // Bit i is set when the player holds the item with ItemCatalog id i.
+   private final int[] collectedOrder; // Exactly the collected ids, in the order they were collected.
+
+   /** Creates the state of a new player with no score and nothing collected.
+       @param name The player's name.*/
+   public PlayerState(String name){
+      this(name, 0, NO_BITS, NO_ITEMS);
+   }
+
+   private PlayerState(String name, int score, long[] ownedItems, int[] collectedOrder){
+      this.name = name;
+      this.score = score;
+      this.ownedItems = ownedItems;
+      this.collectedOrder = collectedOrder;
+   }
+
+   /** @return The player's name.*/
+   public String getName(){
+      return name;
+   }
+
+   /** @return The player's score.*/
+   public int getScore(){
+      return score;
+   }
+
+   /** @return The number of collected objects.*/
+   public int getCollectedCount(){
+      return collectedOrder.length;
+   }
+
+   /** Checks if the player had collected an object.
+       @param obj The name of the object (ex. "Red Key").
+       @return true if the object is in the collection.*/
+   public boolean hasObject(String obj){
+      int id = ItemCatalog.find(obj);
+      return id >= 0 && owns(id);
+   }
+
+   /** @return A new array with the collected object names, in the order they were collected.*/
+   public String[] getCollectedObjects(){
+      String[] objects = new String[collectedOrder.length];
+      for (int i = 0; i < objects.length; i++){
+         objects[i] = ItemCatalog.name(collectedOrder[i]);
+      }
+      return objects;
+   }
+
+   /** Appends the collected object names, in the order they were collected, separated by ", ".
+       @param text The buffer to append to.
+       @return The same buffer.*/
+   public StringBuilder appendCollectedObjects(StringBuilder text){
+      for (int i = 0; i < collectedOrder.length; i++){
+         if (i > 0){
+            text.append(", ");
+         }
+         text.append(ItemCatalog.name(collectedOrder[i]));
+      }
+      return text;
+   }
+
+   @Override
+   public String toString(){
+      StringBuilder text = new StringBuilder(name).append("!\nFinal score: ").append(score).append("\nCollected objects: [");
+      return appendCollectedObjects(text).append(']').toString();
+   }
+
+   //==================CHANGES=====================
+   // Each returns a new state and leaves this one as it was.
+
+   /* This state with points added to the score; the inventory arrays are shared.*/
+   PlayerState withScore(int amount){
+      return new PlayerState(name, score + amount, ownedItems, collectedOrder);
+   }
+
+   /* This state with an item added, or this state itself if the item is already collected.*/
+   PlayerState withItem(int id){
+      if (owns(id)){
+         return this;
+      }
+      int word = id >>> 6;
+      long[] bits = Arrays.copyOf(ownedItems, Math.max(ownedItems.length, word + 1));
+      bits[word] |= 1L << id;
+      int[] order = Arrays.copyOf(collectedOrder, collectedOrder.length + 1);
+      order[collectedOrder.length] = id;
+      return new PlayerState(name, score, bits, order);
+   }
+
+   /* This state with an empty inventory.*/
+   PlayerState withoutItems(){
+      return collectedOrder.length == 0 ? this : new PlayerState(name, score, NO_BITS, NO_ITEMS);
+   }
+
+   /* Checks the inventory bit of an item id.*/
+   boolean owns(int id){
+      int word = id >>> 6;
+      return word < ownedItems.length && (ownedItems[word] & (1L << id)) != 0;
+   }
+}
@@ -0,0 +1,65 @@
+/**
+  What a game session is waiting for: a choice between options, a typed answer or a yes/no
+  question, with the text and title to show. AdventureManager's stepped methods (begin() and
+  answer()) return one instead of blocking on a dialog, and the player's answer is handed back
+  whenever it arrives, so no thread waits while the player thinks. Immutable.
+  */
+public final class Prompt {
+   /** Pick one of the options; answer with its index, or -1 to cancel.*/
+   public static final int CHOICE = 0;
+   /** Type an answer; answer with the text, or null to cancel.*/
+   public static final int TEXT = 1;
+   /** Answer yes or no; cancelling counts as no.*/
+   public static final int CONFIRM = 2;
+
+   private final int kind;
+   private final String message;
+   private final String title;
+   private final String[] options; // Only for CHOICE; never changed.
+
+   /** Creates a prompt.
+       @param kind CHOICE, TEXT or CONFIRM.
+       @param message The question or scene text.
+       @param title The title of the dialog or block.
+       @param options The options to pick from for CHOICE, otherwise null.*/
+   public Prompt(int kind, String message, String title, String[] options){
+      if (kind < CHOICE || kind > CONFIRM || (kind == CHOICE) != (options != null)){
+         throw new IllegalArgumentException("Invalid prompt kind " + kind);
+      }
+      this.kind = kind;
+      this.message = message;
+      this.title = title;
+      this.options = options;
+   }
+
+   /** @return CHOICE, TEXT or CONFIRM.*/
+   public int getKind(){
+      return kind;
+   }
+
+   /** @return The question or scene text.*/
+   public String getMessage(){
+      return message;
+   }
+
+   /** @return The title of the dialog or block.*/
+   public String getTitle(){
+      return title;
+   }
+
+   /** @return The number of options, or 0 if this is not a CHOICE.*/
+   public int getOptionCount(){
+      return options == null ? 0 : options.length;
+   }
+
+   /** @param index The option index, from 0.
+       @return The text of the option.*/
+   public String getOption(int index){
+      return options[index];
+   }
+
+   /* The options array itself, for handing straight to GameIO.showOptions() without a copy.*/
+   String[] options(){
+      return options;
+   }
+}
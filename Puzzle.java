@@ -1,17 +1,27 @@
-import javax.swing.JOptionPane;
+import java.util.function.LongSupplier;
 
 /**
   The base Puzzle class for the Mystery Mansion game.
   This abstract class defines a generic puzzle structure with common components:
   a question prompt, correct answer, feedback messages, and failure handling.
-  Subclasses (e.g., TextPuzzle, MultipleChoicePuzzle) must implement the attemptSolve() method
-  to define specific solving logic, demonstrating inheritance and polymorphism.
+  Subclasses (e.g., TextPuzzle, MultipleChoicePuzzle) implement the solving logic as steps:
+  start() shows the question and returns the first Prompt, and each answer() returns the next one
+  until the puzzle is over. attemptSolve() drives those steps through a blocking front end, while
+  a stepped session hands answers in whenever they arrive. The counting (wrong answers, hints,
+  cooldowns) is done by a PuzzleAttempt under the puzzle's AttemptPolicy, so both kinds of puzzle
+  follow the same rules. Cooldowns are timed by the puzzle's clock, which a session sets to the
+  time of the answer being handled, so a replayed session is judged at the recorded times.
+  Demonstrates inheritance and polymorphism.
    */
 public abstract class Puzzle{
    protected String question; // The puzzle question or prompt displayed to the player.
    protected String correctAnswer; // The expected correct answer, compared case-insensitively.
    protected String wrongMsg; // Message shown when the player submits an incorrect answer.
    protected String failMsg; // Message shown if the player exhausts all attemots and fails.
+   protected AnswerMatcher matcher; // Decides which answers count as correct; exact match by default.
+   protected PuzzleAttempt attempt = new PuzzleAttempt(AttemptPolicy.DEFAULT); // Wrong answers, hints and cooldown so far.
+   protected int cancellations; // Dialogs the player cancelled, for metrics.
+   protected LongSupplier clock = System::nanoTime; // When an answer is given, in nanoseconds, for the cooldown.
    
    /**
       Constructor that initializes all core puzzle components
@@ -25,25 +35,214 @@ public abstract class Puzzle{
       this.correctAnswer = correctAnswer;
       this.wrongMsg = wrongMsg;
       this.failMsg = failMsg;
+      this.matcher = AnswerMatcher.exact(correctAnswer); //Canonical form is prepared once, here
    }
    
-    /**
-      Abstract method that subclasses must implement to define puzzle-solving logic.
-      Handles user interaction, attempts, and success/failure determination.
+   /**
+      Replaces how answers are checked, ex. to accept synonyms, anagrams or small typos.
+      @param matcher The matcher to use from now on.
+      */
+   public void setMatcher(AnswerMatcher matcher){
+      this.matcher = matcher;
+   }
+   
+   /**
+      Retrieves how answers are checked.
+      @return The puzzle's AnswerMatcher.
+      */
+   public AnswerMatcher getMatcher(){
+      return matcher;
+   }
+   
+   /**
+      Sets the rules the puzzle is attempted under. Call it before start(), and before
+      setAttemptsUsed() when resuming, since it starts a fresh attempt.
+      @param policy The attempts, hints and cooldown allowed.
+      */
+   public void setPolicy(AttemptPolicy policy){
+      this.attempt = new PuzzleAttempt(policy);
+   }
+   
+   /**
+      Sets where the puzzle reads the time of an answer, ex. the session's answer time so a
+      replay is judged at the recorded times. System.nanoTime() unless changed.
+      @param clock Gives the time of the answer being judged, in nanoseconds.
+      */
+   public void setClock(LongSupplier clock){
+      this.clock = clock;
+   }
+   
+   /**
+      Retrieves the state of the player's attempt, ex. for a front end to show attempts left.
+      @return The puzzle's PuzzleAttempt.
+      */
+   public PuzzleAttempt getAttempt(){
+      return attempt;
+   }
+   
+   /**
+      Retrieves how many wrong attempts the player has used on this puzzle.
+      @return The number of wrong attempts so far.
+      */
+   public int getAttemptsUsed(){
+      return attempt.getWrongAnswers();
+   }
+   
+   /**
+      Sets how many wrong attempts are already used, ex. when resuming a saved session.
+      @param attempts The number of wrong attempts already used.
+      */
+   public void setAttemptsUsed(int attempts){
+      attempt.restore(attempts);
+   }
+   
+   /**
+      Continues an attempt saved part way, ex. when resuming a saved session: its wrong answers,
+      hints, cancellations and the rest of its cooldown, which runs on from the puzzle's clock.
+      Call it after setPolicy() and setClock().
+      @param attempts The number of wrong attempts already used.
+      @param hints The number of hints already shown.
+      @param cancellations The number of dialogs already cancelled.
+      @param cooldownLeft Nanoseconds of cooldown left when the attempt was saved, or 0.
+      */
+   public void resumeAttempt(int attempts, int hints, int cancellations, long cooldownLeft){
+      attempt.restore(attempts, hints, cooldownLeft, clock.getAsLong());
+      this.cancellations = cancellations;
+   }
+   
+   /**
+      Retrieves how many hints the player asked for on this puzzle.
+      @return The number of hints shown.
+      */
+   public int getHintsShown(){
+      return attempt.getHintsUsed();
+   }
+   
+   /**
+      Retrieves how many puzzle dialogs the player cancelled.
+      @return The number of cancellations.
+      */
+   public int getCancellations(){
+      return cancellations;
+   }
+   
+   /**
+      Retrieves whether the player solved the puzzle.
+      @return true once a correct answer was given.
+      */
+   public boolean isSolved(){
+      return attempt.getState() == PuzzleAttempt.State.SOLVED;
+   }
+   
+   /**
+      Lets the player attempt the puzzle through a blocking front end, asking each question
+      and waiting for the answer. Handles user interaction, attempts, and success/failure.
      
+      @param io The front end used to talk to the player.
       @return true if the player solves the puzzle successfully, false otherwise.
       */
-   public abstract boolean attemptSolve(); 
+   public boolean attemptSolve(GameIO io){
+      Prompt prompt = start(io);
+      while (prompt != null){
+         if (prompt.getKind() == Prompt.CHOICE){
+            prompt = answer(io.showOptions(prompt.getMessage(), prompt.getTitle(), prompt.options()), io);
+         } else {
+            prompt = answer(io.askText(prompt.getMessage(), prompt.getTitle()), io);
+         }
+      }
+      return isSolved();
+   }
+   
+   /**
+      Shows the puzzle and returns the first question, without waiting for the answer.
+      Attempts already used (ex. by a resumed session) still count.
+      
+      @param io The front end used to show messages.
+      @return The first question, or null if no attempts are left.
+      */
+   public abstract Prompt start(GameIO io);
+   
+   /**
+      Takes the player's pick for a multiple-choice question.
+      
+      @param choice The index of the selected option, or -1 if the player cancelled.
+      @param io The front end used to show feedback.
+      @return The next question, or null once the puzzle is solved or failed.
+      @throws IllegalStateException if this puzzle does not ask for a choice.
+      */
+   public Prompt answer(int choice, GameIO io){
+      throw new IllegalStateException("This puzzle expects a typed answer");
+   }
+   
+   /**
+      Takes the player's typed answer.
+      
+      @param text The text entered, or null if the player cancelled.
+      @param io The front end used to show feedback.
+      @return The next question, or null once the puzzle is solved or failed.
+      @throws IllegalStateException if this puzzle does not ask for text.
+      */
+   public Prompt answer(String text, GameIO io){
+      throw new IllegalStateException("This puzzle expects a choice");
+   }
   
    /**
        Checks if the user's answer matches the expected correct answer.
-       Comparison is case-insensitive and trims whitespace for robustness.
+       Comparison is case-insensitive and ignores surrounding whitespace, and is done in place
+       by the puzzle's AnswerMatcher, so no trimmed or upper-cased copies are made.
        
        @param answer The user's submitted answer.
        @return true if the answer is correct, false otherwise.
      */
    public boolean isCorrect(String answer){
-      return answer != null && answer.trim().toUpperCase().equals(correctAnswer.toUpperCase());
+      return matcher.matches(answer);
+   }
+   
+   /**
+       Asks a question unless the attempt is already over, ex. failed before a saved session was resumed.
+       
+       @param question The question to ask.
+       @return The question, or null if no attempts are left.
+       */
+   protected Prompt ask(Prompt question){
+      return attempt.isOver() ? null : question;
+   }
+   
+   /**
+       Takes a checked answer through the attempt and tells the player how it went: refused if it
+       came during the cooldown, wrong with attempts left, or failed for good. The same for every
+       kind of puzzle, so the rules live in the AttemptPolicy rather than in each subclass.
+       
+       @param correct true if the answer is accepted.
+       @param again The question to ask again if another answer is wanted.
+       @param io The front end used to show feedback.
+       @return again, or null once the puzzle is solved or failed.
+       */
+   protected Prompt judge(boolean correct, Prompt again, GameIO io){
+      long now = clock.getAsLong();
+      long wait = attempt.cooldownLeft(now);
+      if (wait > 0){
+         io.showMessage("Not so fast! Wait " + ((wait + 999_999_999L) / 1_000_000_000L) + " more second(s) before answering.",
+               "Too Soon", MessageType.WARNING);
+         return again;
+      }
+      switch (attempt.submit(correct, now)){
+         case SOLVED:
+            return null;
+         case ASKING:
+            io.showMessage(
+                 wrongMsg, 
+                 "Incorrect", 
+                 MessageType.ERROR);
+            return again;
+         default:
+            //All attempts exhausted
+            io.showMessage(
+                 failMsg, 
+                 "Game Over", 
+                 MessageType.ERROR);
+            return null;
+      }
    }
    
    /**
@@ -51,31 +250,42 @@ public abstract class Puzzle{
        Prevents empty inputs, handles cancellations, and sanitizes responses.
        Used by subclasses for consistent user input handling.
       
+       @param io The front end used to ask the player.
        @param message The prompt or question to display in the dialog.
        @param title The dialog window title.
-       @return The sanitized user input (trimmed and uppercased), or an empty string if canceled.
+       @return The user input as typed (never blank), or an empty string if canceled.
+               Matchers ignore case and surrounding whitespace, so no cleaned copy is needed.
        */
-      protected String getPuzzleInput(String message, String title){
-         String input = "";
+      protected String getPuzzleInput(GameIO io, String message, String title){
+         String input = null;
          
          //Loop until valid input is provided
-         while (input == null || input.trim().isEmpty()){
-         
-            input = JOptionPane.showInputDialog(null, message, title, JOptionPane.QUESTION_MESSAGE);
-            if (input == null){
-                  //handle dialog cancellation gracefully
-                  JOptionPane.showMessageDialog(null, "Input canceled. Returning to game.", "Canceled", JOptionPane.WARNING_MESSAGE);
-                  return ""; //Signal cancellation to caller
-            }
-            //Handle empty input submission
-            if(input.trim().isEmpty()){
-               JOptionPane.showConfirmDialog(null, "You didn't enter an answer. Try again.", "No Answer", JOptionPane.WARNING_MESSAGE);
-               input = ""; //Reset for retry
-            }
-         
+         while (input == null){
+            input = acceptInput(io.askText(message, title), io);
          }
-         return input.trim().toUpperCase(); //return cleaned, standardized input
+         return input; //Matchers compare case-insensitively in place
+   }
+   
+   /**
+       Checks one line of input the way getPuzzleInput() does, for puzzles answered step by step.
+       
+       @param input The text the player entered, or null if the dialog was cancelled.
+       @param io The front end used to warn the player.
+       @return The input as typed, an empty string if canceled, or null if it was blank and should be asked again.
+       */
+   protected String acceptInput(String input, GameIO io){
+      if (input == null){
+         //handle dialog cancellation gracefully
+         cancellations++;
+         io.showMessage("Input canceled. Returning to game.", "Canceled", MessageType.WARNING);
+         return ""; //Signal cancellation to caller
+      }
+      //Handle empty input submission
+      if (input.isBlank()){
+         io.showMessage("You didn't enter an answer. Try again.", "No Answer", MessageType.WARNING);
+         return null; //Ask again
+      }
+      return input;
    }
 
 }
-  
\ No newline at end of file
@@ -0,0 +1,139 @@
+/**
+  The state of one player's attempt at one puzzle, stepped one input at a time under an
+  AttemptPolicy: it counts wrong answers and hints, holds the cooldown after a wrong answer and
+  knows when the puzzle is solved, failed or cancelled. It never shows anything or waits for
+  anyone, so the same attempt can be stepped by a blocking dialog loop, a stepped session served
+  from an event loop, or a bot. Times are passed in (nanoseconds on the caller's clock, ex.
+  System.nanoTime()) rather than read, so callers decide the clock. Puzzle keeps one per puzzle and words the outcomes for the player.
+  */
+public final class PuzzleAttempt {
+   /** Where an attempt stands.*/
+   public enum State {
+      /** Waiting for an answer.*/
+      ASKING,
+      /** A correct answer was given.*/
+      SOLVED,
+      /** Every attempt was used on wrong answers.*/
+      FAILED,
+      /** The player walked away from the puzzle.*/
+      CANCELLED
+   }
+
+   private final AttemptPolicy policy;
+   private State state = State.ASKING;
+   private int wrongAnswers;
+   private int hintsUsed;
+   private long cooldownEnds; // Clock time before which answers are refused; only valid while coolingDown.
+   private boolean coolingDown;
+
+   /** Starts an attempt.
+       @param policy The rules to follow.*/
+   public PuzzleAttempt(AttemptPolicy policy){
+      this.policy = policy;
+   }
+
+   /** @return The rules this attempt follows.*/
+   public AttemptPolicy getPolicy(){
+      return policy;
+   }
+
+   /** @return Where the attempt stands.*/
+   public State getState(){
+      return state;
+   }
+
+   /** @return true once the attempt is solved, failed or cancelled.*/
+   public boolean isOver(){
+      return state != State.ASKING;
+   }
+
+   /** @return Wrong answers given so far.*/
+   public int getWrongAnswers(){
+      return wrongAnswers;
+   }
+
+   /** Counts wrong answers given before, ex. when a saved session resumes mid-puzzle.
+       The attempt is failed if they use up every attempt.
+       @param wrongAnswers Wrong answers already given.*/
+   public void restore(int wrongAnswers){
+      this.wrongAnswers = wrongAnswers;
+      state = wrongAnswers >= policy.getMaxAttempts() ? State.FAILED : State.ASKING;
+   }
+
+   /** Continues an attempt saved part way, ex. in a SessionSnapshot: its wrong answers, its hints
+       and what was left of its cooldown.
+       @param wrongAnswers Wrong answers already given.
+       @param hintsUsed Hints already asked for.
+       @param cooldownLeft Nanoseconds of cooldown left when the attempt was saved, or 0.
+       @param now The current time on the caller's clock, in nanoseconds, from which the cooldown runs on.*/
+   public void restore(int wrongAnswers, int hintsUsed, long cooldownLeft, long now){
+      restore(wrongAnswers);
+      this.hintsUsed = hintsUsed;
+      coolingDown = cooldownLeft > 0 && !isOver();
+      cooldownEnds = now + cooldownLeft;
+   }
+
+   /** @return Attempts left before the puzzle is failed.*/
+   public int getAttemptsLeft(){
+      return Math.max(0, policy.getMaxAttempts() - wrongAnswers);
+   }
+
+   /** @return Hints asked for so far.*/
+   public int getHintsUsed(){
+      return hintsUsed;
+   }
+
+   /** Checks whether an answer given now would be refused because of a recent wrong one.
+       @param now The current time on the caller's clock, in nanoseconds.
+       @return Nanoseconds still to wait, or 0 if an answer can be given.*/
+   public long cooldownLeft(long now){
+      if (!coolingDown){
+         return 0;
+      }
+      long left = cooldownEnds - now;
+      if (left <= 0){
+         coolingDown = false;
+         return 0;
+      }
+      return left;
+   }
+
+   /** Takes a hint request.
+       @return Which hint this is, from 1, or 0 if the hint budget is spent or the attempt is over.*/
+   public int requestHint(){
+      if (isOver() || hintsUsed >= policy.getHintBudget()){
+         return 0;
+      }
+      return ++hintsUsed;
+   }
+
+   /** Takes an answer that has been checked.
+       @param correct true if the answer is accepted.
+       @param now The current time on the caller's clock, in nanoseconds, to start the cooldown after a wrong answer.
+       @return SOLVED, ASKING if another answer is wanted, or FAILED once every attempt is used.
+       @throws IllegalStateException if the attempt is over or still cooling down; check cooldownLeft() first.*/
+   public State submit(boolean correct, long now){
+      if (isOver()){
+         throw new IllegalStateException("The attempt is already " + state);
+      }
+      if (cooldownLeft(now) > 0){
+         throw new IllegalStateException("Answer given during the cooldown");
+      }
+      if (correct){
+         state = State.SOLVED;
+      } else if (++wrongAnswers >= policy.getMaxAttempts()){
+         state = State.FAILED;
+      } else if (policy.getCooldownNanos() > 0){
+         coolingDown = true;
+         cooldownEnds = now + policy.getCooldownNanos();
+      }
+      return state;
+   }
+
+   /** Ends the attempt because the player walked away.*/
+   public void cancel(){
+      if (!isOver()){
+         state = State.CANCELLED;
+      }
+   }
+}
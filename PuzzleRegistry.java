@@ -0,0 +1,182 @@
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+  Every puzzle of a story, by ID, with its AnswerMatcher compiled once and shared.
+  A puzzle's ID is the name of the scene that asks it (ex. PIANO_PUZZLE), so it stays the same when
+  the story is edited and recompiled. The registry builds the Puzzle a session plays (see newPuzzle())
+  and grades answers in bulk without any dialog (see grade()), ex. to score recorded answer logs or
+  to check that new puzzle content accepts what it should from a corpus of answers.
+  Built once per StoryPack (see StoryPack.getPuzzles()) and shared by every session. Immutable.
+  */
+public final class PuzzleRegistry {
+   private static final int CHUNK = 4096; // Answers graded per task; smaller batches are graded on the caller's thread.
+
+   private final StoryPack story;
+   private final String[] ids; // Each puzzle's ID.
+   private final Map<String, Integer> byId = new HashMap<>();
+   private final AnswerMatcher[] matchers; // Each puzzle's matcher, compiled from its answer and accepted answers.
+
+   /** Builds the registry for a story.
+       @param story The story to read the puzzles from.*/
+   PuzzleRegistry(StoryPack story){
+      this.story = story;
+      ids = new String[story.getPuzzleCount()];
+      matchers = new AnswerMatcher[ids.length];
+      for (int scene = 0; scene < story.getSceneCount(); scene++){
+         int puzzle = story.getScenePuzzle(scene);
+         if (puzzle >= 0){
+            ids[puzzle] = story.getSceneName(scene);
+            byId.put(ids[puzzle], puzzle);
+         }
+      }
+      for (int puzzle = 0; puzzle < ids.length; puzzle++){
+         matchers[puzzle] = story.getPuzzleMatcher(puzzle);
+      }
+   }
+
+   /** @return The number of puzzles.*/
+   public int size(){
+      return ids.length;
+   }
+
+   /** Looks up a puzzle by ID.
+       @param id The name of the scene that asks the puzzle.
+       @return The puzzle index, or -1 if there is no such puzzle.*/
+   public int indexOf(String id){
+      Integer puzzle = byId.get(id);
+      return puzzle == null ? -1 : puzzle;
+   }
+
+   /** @param puzzle The puzzle index.
+       @return The puzzle's ID.*/
+   public String getId(int puzzle){
+      return ids[puzzle];
+   }
+
+   /** @param puzzle The puzzle index.
+       @return The compiled matcher that decides which answers count.*/
+   public AnswerMatcher getMatcher(int puzzle){
+      return matchers[puzzle];
+   }
+
+   /** Builds a puzzle for a player to attempt, with its texts filled in for that player.
+       @param puzzle The puzzle index.
+       @param player The player, for the {name}, {score} and {items} placeholders.
+       @return A fresh TextPuzzle or MultipleChoicePuzzle using the shared matcher.*/
+   public Puzzle newPuzzle(int puzzle, Player player){
+      String question = render(StoryPack.P_QUESTION, puzzle, player);
+      String answer = story.getPuzzleAnswer(puzzle);
+      String wrongMsg = render(StoryPack.P_WRONG, puzzle, player);
+      String failMsg = render(StoryPack.P_FAIL, puzzle, player);
+      Puzzle challenge;
+      if (story.getPuzzleKind(puzzle) == StoryPack.TEXT_PUZZLE){
+         challenge = new TextPuzzle(question, answer, wrongMsg, failMsg, story.getPuzzleHint(puzzle));
+      } else {
+         challenge = new MultipleChoicePuzzle(question, answer, wrongMsg, failMsg, story.getContent().getPicks(puzzle));
+      }
+      challenge.setMatcher(matchers[puzzle]); //Synonyms, anagrams or typos, as the story allows
+      return challenge;
+   }
+
+   /* Fills the placeholders of one of a puzzle's texts.*/
+   private String render(int field, int puzzle, Player player){
+      return story.getTemplate(story.puzzleField(puzzle, field)).render(player);
+   }
+
+   //==================BATCH GRADING=====================
+
+   /** Grades every answer of a batch against its puzzle. Large batches are split into chunks
+       graded in parallel on the common pool; each answer is checked in place, with no allocation.
+       Choice puzzle answers are the text of the pick.
+       @param batch The answers.
+       @param correct Receives, for each answer in batch order, whether it is accepted.
+       @return The number of accepted answers.
+       @throws IllegalArgumentException if correct is shorter than the batch.*/
+   public int grade(AnswerBatch batch, boolean[] correct){
+      int size = batch.size();
+      if (correct.length < size){
+         throw new IllegalArgumentException("Room for " + correct.length + " results but " + size + " answers");
+      }
+      int chunks = (size + CHUNK - 1) / CHUNK;
+      if (chunks <= 1){
+         return grade(batch, 0, size, correct);
+      }
+      return IntStream.range(0, chunks).parallel()
+            .map(chunk -> grade(batch, chunk * CHUNK, Math.min(size, (chunk + 1) * CHUNK), correct))
+            .sum();
+   }
+
+   /* Grades answers [from, to) of a batch; every chunk writes its own part of correct.*/
+   private int grade(AnswerBatch batch, int from, int to, boolean[] correct){
+      CharBuffer text = CharBuffer.wrap(batch.chars()); //One view per chunk; its indexes are the array's
+      int accepted = 0;
+      for (int i = from; i < to; i++){
+         boolean ok = matchers[batch.getPuzzle(i)].matches(text, batch.start(i), batch.end(i));
+         correct[i] = ok;
+         if (ok){
+            accepted++;
+         }
+      }
+      return accepted;
+   }
+
+   /** Grades an answer log and prints how many answers each puzzle accepted. Each line of the log
+       is a puzzle ID, a tab and the answer, optionally followed by a tab and "yes" or "no" for
+       whether it should be accepted; answers graded otherwise are listed, to validate new content.
+       @param args The log file.*/
+   public static void main(String[] args) throws IOException {
+      if (args.length < 1){
+         System.err.println("Usage: java PuzzleRegistry <answers.tsv>");
+         return;
+      }
+      PuzzleRegistry registry = StoryPack.getDefault().getPuzzles();
+      List<String> lines = Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8);
+      AnswerBatch batch = new AnswerBatch(lines.size());
+      int[] expected = new int[lines.size()]; // 1 accepted, 0 rejected, -1 not said.
+      int[] lineNumbers = new int[lines.size()];
+      for (int n = 0; n < lines.size(); n++){
+         String[] fields = lines.get(n).split("\t", -1);
+         if (fields.length < 2){
+            continue; //Blank or not an answer
+         }
+         int puzzle = registry.indexOf(fields[0].trim());
+         if (puzzle < 0){
+            System.err.println("Line " + (n + 1) + ": unknown puzzle " + fields[0]);
+            continue;
+         }
+         expected[batch.size()] = fields.length > 2 ? (fields[2].trim().equalsIgnoreCase("yes") ? 1 : 0) : -1;
+         lineNumbers[batch.size()] = n + 1;
+         batch.add(puzzle, fields[1]);
+      }
+      boolean[] correct = new boolean[batch.size()];
+      long start = System.nanoTime();
+      int accepted = registry.grade(batch, correct);
+      double millis = (System.nanoTime() - start) / 1e6;
+      int[] total = new int[registry.size()];
+      int[] passed = new int[registry.size()];
+      int mismatches = 0;
+      for (int i = 0; i < batch.size(); i++){
+         total[batch.getPuzzle(i)]++;
+         if (correct[i]){
+            passed[batch.getPuzzle(i)]++;
+         }
+         if (expected[i] >= 0 && correct[i] != (expected[i] == 1)){
+            mismatches++;
+            System.out.println("Line " + lineNumbers[i] + ": " + registry.getId(batch.getPuzzle(i)) + " "
+                  + (correct[i] ? "accepts" : "rejects") + " \"" + batch.getAnswer(i) + "\"");
+         }
+      }
+      for (int puzzle = 0; puzzle < registry.size(); puzzle++){
+         System.out.printf("%-22s %8d of %8d accepted%n", registry.getId(puzzle), passed[puzzle], total[puzzle]);
+      }
+      System.out.printf("%d of %d answers accepted in %.1f ms, %d not as expected%n", accepted, batch.size(), millis, mismatches);
+   }
+}
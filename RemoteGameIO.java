@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+  Text front end for a hosted session whose input arrives from another thread (ex. a network connection).
+  Output is written like ConsoleGameIO; input lines are handed in with submit() and the session's
+  thread waits for them on a queue. On a virtual thread that wait costs almost nothing.
+  After close(), every question is answered as cancelled, so the game winds down by itself.
+  */
+public class RemoteGameIO extends ConsoleGameIO {
+   private static final String CLOSED = new String("<closed>"); // Marker queued by close(), compared by identity.
+   
+   private final BlockingQueue<String> input = new LinkedBlockingQueue<>(); // Lines waiting to be read.
+   private volatile boolean closed; // True once close() was called.
+   
+   /** Creates a remote front end writing to the given stream.
+       @param out Where the session's messages and prompts are written.*/
+   public RemoteGameIO(OutputStream out){
+      super(null, new PrintWriter(new Utf8Writer(out), true));
+   }
+   
+   /** Hands the session the player's next line of input.
+       @param line The line the player typed.
+       @return false if the session is already closed and the line was dropped.*/
+   public boolean submit(String line){
+      if (closed){
+         return false;
+      }
+      return input.offer(line);
+   }
+   
+   /** Closes the input: the current and every later question is treated as cancelled.*/
+   public void close(){
+      closed = true;
+      input.offer(CLOSED);
+   }
+   
+   /** @return true once close() was called.*/
+   public boolean isClosed(){
+      return closed;
+   }
+   
+   @Override
+   protected String readLine(){
+      if (closed){
+         return null;
+      }
+      try {
+         String line = input.take();
+         if (line == CLOSED){
+            input.offer(CLOSED); //Leave the marker for any later read
+            return null;
+         }
+         return line;
+      } catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+         closed = true;
+         return null;
+      }
+   }
+   
+   /* Unbuffered writer that encodes straight to the stream. An idle session then holds no
+      8 KB encoder buffers, which is most of what a PrintStream would cost per session.*/
+   private static class Utf8Writer extends Writer {
+      private final OutputStream out;
+      
+      Utf8Writer(OutputStream out){
+         this.out = out;
+      }
+      
+      @Override
+      public void write(char[] chars, int offset, int length) throws IOException {
+         out.write(new String(chars, offset, length).getBytes(StandardCharsets.UTF_8));
+      }
+      
+      @Override
+      public void write(String text, int offset, int length) throws IOException {
+         out.write(text.substring(offset, offset + length).getBytes(StandardCharsets.UTF_8));
+      }
+      
+      @Override
+      public void flush() throws IOException {
+         out.flush();
+      }
+      
+      @Override
+      public void close() throws IOException {
+         out.close();
+      }
+   }
+}
@@ -1,7 +1,5 @@
-import javax.swing.JOptionPane;
-
 /**
-  Represents a scene in the Mystery Mansion game, handling user interaction via dialogs.
+  Represents a scene in the Mystery Mansion game, handling user interaction through the manager's GameIO.
   This class encapsulates the display of narrative text and choice options, with built-in error handling for cancellations.
   It integrates with AdventureManager for flow control, demonstrating encapsulation and user input management.
   */
@@ -32,18 +30,16 @@ public class Scene{
        Handles cancellations by calling handleCancellation and returning a special value.
        @return The index of the selected option, or -1 if cancelled.*/
    public int display(){
-      int result = JOptionPane.showOptionDialog(null, 
-         text, 
-         "Mystery Mansion",
-         JOptionPane.DEFAULT_OPTION,
-         JOptionPane.QUESTION_MESSAGE,
-         null,
-         options,
-         options[0]
-       );
-      
+      return accept(getIO().showOptions(text, "Mystery Mansion", options));
+   }
+   
+   /** Takes the player's answer to the scene's choice when it was asked elsewhere, ex. by a session
+       that waits for the answer without blocking a thread. Handles a cancellation like display() does.
+       @param result The index of the selected option, or -1 if the player cancelled.
+       @return The same index, or -1 if cancelled.*/
+   public int accept(int result){
       //Check for dialog cancellation
-      if (result == JOptionPane.CLOSED_OPTION){
+      if (result == -1){
          handleCancellation(); //Handle gracefully to avoid crashes
          return -1; //Indicate cancellation to caller
       }
@@ -64,19 +60,19 @@ public class Scene{
    }
    
    /* Handles dialog cancellation by showing a warning message.
-     Optionally triggers a restart via AdventureManager if allowBack is true.*/
+     The restart itself is left to the caller: the scene returns -1 and the dispatcher
+     hands control back to the AdventureManager, so no restart is started from inside a dialog.*/
    private void handleCancellation(){
-         JOptionPane.showMessageDialog(
-            null,
+         getIO().showMessage(
             "Dialog canceled. " + (allowBack ? "Returning to previous scene." : "Game will continue."),
             "Canceled",
-            JOptionPane.WARNING_MESSAGE
+            MessageType.WARNING
          );
-         if (allowBack && manager != null){
-               //Trigger restart to prevents abrupt exits and allow replay
-               manager.restartGame(); 
-         }
-         // If allowback is false, just show message; caller handles retry
+   }
+   
+   /* Retrieves the front end to display through, falling back to Swing dialogs without a manager.*/
+   private GameIO getIO(){
+         return manager != null ? manager.getIO() : new SwingGameIO();
    }
    
 }
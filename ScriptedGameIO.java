@@ -0,0 +1,74 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+  In-memory GameIO implementation that answers from a prepared script.
+  Each scripted line answers the next question: an option number (starting at 0) for choices,
+  the typed text for text prompts and "yes"/"no" for confirmations.
+  When the script runs out, every further question is treated as cancelled.
+  Every message shown is kept in a transcript, which makes it handy for headless runs.
+  */
+public class ScriptedGameIO implements GameIO {
+   private final Deque<String> script; // Remaining answers, consumed in order.
+   private final List<String> transcript = new ArrayList<>(); // Every message and prompt shown so far.
+   
+   /** Creates a scripted front end.
+       @param answers The answers to give, in the order the questions will be asked.*/
+   public ScriptedGameIO(String... answers){
+      this(Arrays.asList(answers));
+   }
+   
+   /** Creates a scripted front end.
+       @param answers The answers to give, in the order the questions will be asked.*/
+   public ScriptedGameIO(List<String> answers){
+      this.script = new ArrayDeque<>(answers);
+   }
+   
+   @Override
+   public void showMessage(String message, String title, MessageType type){
+      transcript.add(message);
+   }
+   
+   @Override
+   public int showOptions(String message, String title, String[] options){
+      transcript.add(message);
+      String answer = script.poll();
+      if (answer == null){
+         return -1;
+      }
+      int choice = Integer.parseInt(answer.trim());
+      if (choice < 0 || choice >= options.length){
+         throw new IllegalStateException("Scripted choice " + choice + " is out of range for: " + message);
+      }
+      return choice;
+   }
+   
+   @Override
+   public String askText(String message, String title){
+      transcript.add(message);
+      return script.poll();
+   }
+   
+   @Override
+   public boolean confirm(String message, String title){
+      transcript.add(message);
+      String answer = script.poll();
+      return answer != null && answer.trim().equalsIgnoreCase("yes");
+   }
+   
+   /** Retrieves every message and prompt shown so far.
+       @return A read-only view of the transcript.*/
+   public List<String> getTranscript(){
+      return Collections.unmodifiableList(transcript);
+   }
+   
+   /** Retrieves how many scripted answers have not been used yet.
+       @return The number of remaining answers.*/
+   public int remainingAnswers(){
+      return script.size();
+   }
+}
@@ -0,0 +1,193 @@
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+  Hosts many game sessions in one JVM.
+  Each player gets their own Player and AdventureManager, running on its own thread that simply
+  blocks while waiting for input. On Java 21+ these are virtual threads, so an idle session costs
+  only its small heap footprint; on older JVMs the host falls back to ordinary daemon threads.
+  When a session ends (the player declines to replay, or the host closes it) its objects are
+  released and the JVM keeps running for everyone else.
+  */
+public class SessionHost implements AutoCloseable {
+   private final ExecutorService executor = newSessionExecutor(); // Runs one task per session.
+   private final Map<Long, Session> sessions = new ConcurrentHashMap<>(); // Running sessions by id.
+   private final AtomicLong nextId = new AtomicLong(); // Source of session ids.
+   private final StoryRepository stories; // Gives each new session the current story; it keeps that version.
+   private volatile DecisionJournal journal; // Records every session's decisions, or null.
+   private final List<GameListener> listeners = new CopyOnWriteArrayList<>(); // Added to every new session.
+   
+   /** Creates a host for the default story, picking up new versions of it as they are published.*/
+   public SessionHost(){
+      this(StoryRepository.getDefault());
+   }
+   
+   /** Creates a host for the given story.
+       @param story The compiled story every session plays.*/
+   public SessionHost(StoryPack story){
+      this(StoryRepository.of(story));
+   }
+   
+   /** Creates a host whose new sessions play the current version of a story.
+       @param stories Where the story is published; running sessions keep the version they started on.*/
+   public SessionHost(StoryRepository stories){
+      this.stories = stories;
+   }
+   
+   /** Records the decisions of every session opened from now on.
+       @param journal The journal to append to, or null to stop recording.*/
+   public void setJournal(DecisionJournal journal){
+      this.journal = journal;
+   }
+   
+   /** Observes every session opened from now on, ex. with GameMetrics.
+       @param listener The listener to add to each new session.*/
+   public void addListener(GameListener listener){
+      listeners.add(listener);
+   }
+   
+   /** Starts a new session that talks through the given front end.
+       @param playerName The name of the player.
+       @param io The front end for this player.
+       @return The id of the new session.*/
+   public long open(String playerName, GameIO io){
+      long id = nextId.incrementAndGet();
+      AdventureManager manager = new AdventureManager(new Player(playerName), io, stories.getStory());
+      for (GameListener listener : listeners){
+         manager.addListener(listener);
+      }
+      DecisionJournal recorder = journal;
+      if (recorder != null){
+         recorder.start(id, manager);
+      }
+      FutureTask<Void> task = new FutureTask<>(() -> {
+         try {
+            manager.startGame();
+         } finally {
+            sessions.remove(id); //Release the session as soon as it ends
+         }
+      }, null);
+      sessions.put(id, new Session(manager, io, task)); //Complete before anyone can close it
+      executor.execute(task);
+      return id;
+   }
+   
+   /** Starts a new text session whose input is fed through the returned RemoteGameIO.
+       @param playerName The name of the player.
+       @param out Where the session's output is written.
+       @return The front end to submit the player's lines to.*/
+   public RemoteGameIO openRemote(String playerName, OutputStream out){
+      RemoteGameIO io = new RemoteGameIO(out);
+      open(playerName, io);
+      return io;
+   }
+   
+   /** Ends a session early. Remote sessions wind down on their own; others are interrupted.
+       @param id The session id.
+       @return false if there is no such running session.*/
+   public boolean close(long id){
+      Session session = sessions.remove(id);
+      if (session == null){
+         return false;
+      }
+      if (session.io instanceof RemoteGameIO){
+         ((RemoteGameIO) session.io).close();
+      } else {
+         session.task.cancel(true);
+      }
+      return true;
+   }
+   
+   /** @return The number of sessions still running.*/
+   public int getActiveSessions(){
+      return sessions.size();
+   }
+   
+   /** Retrieves the manager of a running session, ex. to read the player's score.
+       @param id The session id.
+       @return The session's AdventureManager, or null if it has ended.*/
+   public AdventureManager getManager(long id){
+      Session session = sessions.get(id);
+      return session == null ? null : session.manager;
+   }
+   
+   /** Reads every running session's player without stopping any of them, ex. for admin tools.
+       Each state is consistent on its own; sessions keep playing while the map is built.
+       @return The current player states by session id.*/
+   public Map<Long, PlayerState> getPlayers(){
+      Map<Long, PlayerState> players = new TreeMap<>();
+      for (Map.Entry<Long, Session> entry : sessions.entrySet()){
+         players.put(entry.getKey(), entry.getValue().manager.getPlayer().getState());
+      }
+      return players;
+   }
+   
+   /** Closes every session and stops the host, waiting briefly for sessions to finish.*/
+   @Override
+   public void close(){
+      for (Long id : sessions.keySet()){
+         close(id);
+      }
+      executor.shutdown();
+      try {
+         executor.awaitTermination(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }
+   }
+   
+   /* Creates a virtual-thread-per-task executor when the JVM has one, or a daemon thread pool otherwise.*/
+   private static ExecutorService newSessionExecutor(){
+      try {
+         return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (ReflectiveOperationException e){
+         return Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(null, task, "mansion-session", 256 * 1024);
+            thread.setDaemon(true);
+            return thread;
+         });
+      }
+   }
+   
+   /* A running session: its manager, the front end it was opened with and the task playing it.*/
+   private static class Session {
+      final AdventureManager manager;
+      final GameIO io;
+      final Future<?> task;
+      
+      Session(AdventureManager manager, GameIO io, Future<?> task){
+         this.manager = manager;
+         this.io = io;
+         this.task = task;
+      }
+   }
+   
+   /** Opens the given number of idle remote sessions and reports the heap they use.
+       @param args Optional number of sessions (default 10000).*/
+   public static void main(String[] args) throws InterruptedException {
+      int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+      Runtime runtime = Runtime.getRuntime();
+      try (SessionHost host = new SessionHost()){
+         System.gc();
+         long before = runtime.totalMemory() - runtime.freeMemory();
+         for (int i = 0; i < count; i++){
+            host.openRemote("Player" + i, OutputStream.nullOutputStream());
+         }
+         Thread.sleep(1000); //Let every session reach its first question
+         System.gc();
+         long after = runtime.totalMemory() - runtime.freeMemory();
+         System.out.printf("%d idle sessions, %.1f MB heap (%d bytes per session)%n",
+               host.getActiveSessions(), (after - before) / 1048576.0, (after - before) / Math.max(1, count));
+      }
+   }
+}
@@ -0,0 +1,462 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+  Keeps many stepped sessions within a memory budget by paging idle ones out to disk.
+  At most maxResident sessions keep their AdventureManager (and with it the Player, MysteryMansion,
+  puzzle and prompt) in the heap. When a step brings in one too many, the session that has waited
+  longest for its player is saved as a SessionSnapshot file of a few dozen bytes and its objects
+  are dropped; only a small record (story, front end) stays behind. When an answer
+  for a paged-out session arrives it is restored from the file first, so callers never see the
+  difference: the snapshot keeps a half-finished puzzle's wrong answers, hints and cancellations,
+  and its cooldown goes on running while the session is on disk. Paging back in runs the story up to the saved question again with a silent front end and before
+  the listeners are added, so nothing is shown or counted twice.
+  Steps of one session must not overlap; steps of different sessions can run on any threads.
+  Eviction is in least-recently-used order; evictIdle() also pages out sessions idle for too long.
+  */
+public class SessionManager implements AutoCloseable {
+   private final StoryRepository stories; // Gives each new session the current story; it keeps that version.
+   private final Path directory; // Where paged-out sessions are kept.
+   private final int maxResident;
+   private final Map<Long, Entry> sessions = new ConcurrentHashMap<>(); // Every open session, resident or not.
+   private final LinkedHashMap<Long, Entry> resident = new LinkedHashMap<>(16, 0.75f, true); // Least recently used first; guarded by itself.
+   private final AtomicLong nextId = new AtomicLong();
+   private final List<GameListener> listeners = new CopyOnWriteArrayList<>(); // Added to every session, also after paging in.
+   private volatile DecisionJournal journal; // Records every new session's decisions, or null.
+
+   private final LongAdder hits = new LongAdder(); // Steps that found their session in memory.
+   private final LongAdder pageIns = new LongAdder();
+   private final LongAdder pageOuts = new LongAdder();
+   private final LongAdder pageOutFailures = new LongAdder(); // Page files that could not be written.
+   private final LatencyHistogram pageInTimes = new LatencyHistogram();
+
+   /** Creates a manager whose new sessions play the current version of a story.
+       @param stories Where the story is published; sessions keep the version they started on.
+       @param directory Where paged-out sessions are written; created if missing.
+       @param maxResident The most sessions kept in memory at once.
+       @throws IOException if the directory cannot be created.*/
+   public SessionManager(StoryRepository stories, Path directory, int maxResident) throws IOException {
+      if (maxResident < 1){
+         throw new IllegalArgumentException("At least one session must fit in memory: " + maxResident);
+      }
+      this.stories = stories;
+      this.directory = Files.createDirectories(directory);
+      this.maxResident = maxResident;
+   }
+
+   /** One session: always its front end and story, and its manager while it is resident.*/
+   private static final class Entry {
+      private final long id;
+      private final StoryPack story;
+      private final GameIO io;
+      private final DecisionJournal journal; // Where the session's answers are recorded, or null.
+      private final long sessionId; // The manager's own id, kept so a paged-in session is the same one to listeners.
+      private AdventureManager manager; // Null while paged out; guarded by this.
+      private long stamp; // Changes whenever the session is used, so a stale eviction can tell; written holding both locks.
+      private long lastUsed; // System.nanoTime() of the last step; written holding both locks.
+      private long pagedOut; // System.nanoTime() when the session was last paged out; guarded by this.
+      private boolean closed; // Guarded by this.
+
+      Entry(long id, AdventureManager manager, DecisionJournal journal){
+         this.id = id;
+         this.journal = journal;
+         this.sessionId = manager.getSessionId();
+         this.story = manager.getStory();
+         this.io = manager.getIO();
+         this.manager = manager;
+      }
+   }
+
+   /** Observes every session opened from now on, ex. with GameMetrics or BranchAnalytics.
+       @param listener The listener to add to each new session.*/
+   public void addListener(GameListener listener){
+      listeners.add(listener);
+   }
+
+   /** Records the decisions of every new session opened from now on, also across paging.
+       With FsyncPolicy.DATA or FULL each answer waits for the disk.
+       @param journal The journal to append to, or null to stop recording.*/
+   public void setJournal(DecisionJournal journal){
+      this.journal = journal;
+   }
+
+   //==================SESSIONS=====================
+
+   /** Opens and starts a new session.
+       @param playerName The name of the player.
+       @param io Where the session's messages go; must not block. Its input methods are never called.
+       @return The session id; getPrompt() gives the first question.*/
+   public long open(String playerName, GameIO io){
+      return open(new AdventureManager(new Player(playerName), io, stories.getStory()));
+   }
+
+   /** Takes over and starts an existing session, ex. one with its own AttemptPolicy or one
+       restored from a SessionSnapshot. Its front end is kept across paging, and its attempt
+       policy goes into the page file with the rest of its state.
+       Only a session that has not played yet is journaled.
+       @param manager The session, not started yet.
+       @return The session id.*/
+   public long open(AdventureManager manager){
+      for (GameListener listener : listeners){
+         manager.addListener(listener);
+      }
+      DecisionJournal recorder = manager.getCurrentScene() < 0 ? journal : null; //Only a new session's trace replays
+      Entry entry = new Entry(nextId.incrementAndGet(), manager, recorder);
+      if (recorder != null){
+         recorder.start(entry.id, manager);
+      }
+      sessions.put(entry.id, entry);
+      step(entry.id, AdventureManager::begin);
+      return entry.id;
+   }
+
+   /** Retrieves what a session is being asked, paging it in if needed.
+       @param id The session id.
+       @return The waiting prompt.
+       @throws IllegalArgumentException if there is no such session, ex. it has ended.*/
+   public Prompt getPrompt(long id){
+      return step(id, AdventureManager::getPrompt);
+   }
+
+   /** Retrieves a session's manager, paging it in if needed, ex. to read the player.
+       The manager is only valid until the session is paged out again.
+       @param id The session id.
+       @return The manager.*/
+   public AdventureManager getManager(long id){
+      AdventureManager[] manager = new AdventureManager[1];
+      step(id, session -> {
+         manager[0] = session;
+         return session.getPrompt();
+      });
+      return manager[0];
+   }
+
+   /** Answers a session's CHOICE prompt; see AdventureManager.answer(int).
+       @param id The session id.
+       @param choice The option picked, or -1 to cancel.
+       @return The next prompt, or null once the session is over.*/
+   public Prompt answer(long id, int choice){
+      return step(id, session -> session.answer(choice));
+   }
+
+   /** Answers a session's TEXT prompt; see AdventureManager.answer(String).
+       @param id The session id.
+       @param text The text entered, or null to cancel.
+       @return The next prompt, or null once the session is over.*/
+   public Prompt answer(long id, String text){
+      return step(id, session -> session.answer(text));
+   }
+
+   /** Answers a session's CONFIRM prompt; see AdventureManager.answer(boolean).
+       @param id The session id.
+       @param yes true to play again.
+       @return The next prompt, or null once the session is over.*/
+   public Prompt answer(long id, boolean yes){
+      return step(id, session -> session.answer(yes));
+   }
+
+   /** Ends a session where it is and deletes its page file.
+       @param id The session id.
+       @return true if the session was open.*/
+   public boolean close(long id){
+      Entry entry = sessions.get(id);
+      if (entry == null){
+         return false;
+      }
+      synchronized (entry){
+         end(entry);
+      }
+      return true;
+   }
+
+   /** Pages out every session that has not been stepped for a while, whatever the budget.
+       Stops at the first session that cannot be written, leaving the rest for a later call.
+       @param idle How long a session may wait before it is paged out.
+       @param unit The unit of idle.
+       @return The number of sessions paged out.*/
+   public int evictIdle(long idle, TimeUnit unit){
+      long cutoff = System.nanoTime() - unit.toNanos(idle);
+      int evicted = 0;
+      while (true){
+         Entry victim;
+         long stamp;
+         synchronized (resident){
+            Iterator<Entry> eldest = resident.values().iterator();
+            if (!eldest.hasNext() || eldest.next().lastUsed - cutoff > 0){
+               return evicted;
+            }
+            victim = resident.remove(resident.keySet().iterator().next());
+            stamp = victim.stamp;
+         }
+         PageOut result = pageOut(victim, stamp);
+         if (result == PageOut.FAILED){
+            return evicted;
+         }
+         if (result == PageOut.DONE){
+            evicted++;
+         }
+      }
+   }
+
+   /** Drops every session and deletes the page files.*/
+   @Override
+   public void close(){
+      for (Entry entry : sessions.values()){
+         synchronized (entry){
+            end(entry);
+         }
+      }
+   }
+
+   //==================PAGING=====================
+
+   /* Runs one step of a session, paged in, then keeps the resident sessions within the budget.
+      Sessions are only locked one at a time, so steps and evictions of different sessions never deadlock.*/
+   private Prompt step(long id, Function<AdventureManager, Prompt> action){
+      Entry entry = sessions.get(id);
+      if (entry == null){
+         throw new IllegalArgumentException("No session " + id);
+      }
+      Prompt prompt;
+      synchronized (entry){
+         if (entry.closed){
+            throw new IllegalArgumentException("No session " + id);
+         }
+         prompt = action.apply(pageIn(entry));
+         if (prompt == null){
+            end(entry); //Over; nothing holds on to it any more
+         } else {
+            touch(entry);
+         }
+      }
+      evictOverBudget();
+      return prompt;
+   }
+
+   /* Returns the session's manager, restoring it from its page file if it was paged out. Holds the entry's lock.*/
+   private AdventureManager pageIn(Entry entry){
+      if (entry.manager != null){
+         hits.increment();
+         return entry.manager;
+      }
+      long start = System.nanoTime();
+      Path file = pageFile(entry.id);
+      try {
+         SessionSnapshot saved = SessionSnapshot.read(file).waited(System.nanoTime() - entry.pagedOut); //The cooldown ran on meanwhile
+         AdventureManager manager = AdventureManager.restore(saved, OutputGameIO.SILENT, entry.story);
+         manager.setSessionId(entry.sessionId);
+         manager.begin(); //Back to the saved question, silently and unseen by listeners
+         manager.setIO(entry.io);
+         if (entry.journal != null){
+            manager.setJournal(entry.journal, entry.id); //The same trace goes on
+         }
+         for (GameListener listener : listeners){
+            manager.addListener(listener);
+         }
+         entry.manager = manager;
+         Files.deleteIfExists(file);
+      } catch (IOException e){
+         throw new UncheckedIOException("Could not page in session " + entry.id, e);
+      }
+      pageIns.increment();
+      pageInTimes.record(System.nanoTime() - start);
+      return entry.manager;
+   }
+
+   /* Marks a session as just used. Holds the entry's lock.*/
+   private void touch(Entry entry){
+      synchronized (resident){
+         entry.stamp++;
+         entry.lastUsed = System.nanoTime();
+         resident.put(entry.id, entry); //Moves it to the most recently used end
+      }
+   }
+
+   /* Pages out the least recently used sessions until the rest fit in the budget.
+      Stops at the first session that cannot be written: the sessions stay over budget until a
+      later step tries again, rather than every step retrying them all (see getPageOutFailures()).*/
+   private void evictOverBudget(){
+      while (true){
+         Entry victim;
+         long stamp;
+         synchronized (resident){
+            if (resident.size() <= maxResident){
+               return;
+            }
+            victim = resident.remove(resident.keySet().iterator().next());
+            stamp = victim.stamp;
+         }
+         if (pageOut(victim, stamp) == PageOut.FAILED){
+            return;
+         }
+      }
+   }
+
+   /* How a page-out went.*/
+   private enum PageOut {
+      DONE, // Written and dropped.
+      SKIPPED, // Closed, already out or used since it was picked.
+      FAILED // Could not be written; still in memory.
+   }
+
+   /* Writes a session to its page file and drops its objects, unless it was used since it was picked.
+      A session that cannot be written stays in memory, back at the most recently used end.*/
+   private PageOut pageOut(Entry entry, long stamp){
+      synchronized (entry){
+         if (entry.closed || entry.manager == null || entry.stamp != stamp){
+            return PageOut.SKIPPED;
+         }
+         try {
+            entry.manager.snapshot().write(pageFile(entry.id), FsyncPolicy.NONE); //A cache, not a save: the OS flushes it
+            entry.pagedOut = System.nanoTime();
+         } catch (IOException | RuntimeException e){
+            System.err.println("Could not page out session " + entry.id + ": " + e.getMessage());
+            pageOutFailures.increment();
+            synchronized (resident){
+               resident.put(entry.id, entry); //Not used, so its stamp and idle time stay as they were
+            }
+            return PageOut.FAILED;
+         }
+         entry.manager = null;
+      }
+      pageOuts.increment();
+      return PageOut.DONE;
+   }
+
+   /* Forgets a session and deletes its page file. Holds the entry's lock.*/
+   private void end(Entry entry){
+      if (entry.closed){
+         return;
+      }
+      entry.closed = true;
+      entry.manager = null;
+      sessions.remove(entry.id);
+      synchronized (resident){
+         resident.remove(entry.id);
+      }
+      try {
+         Files.deleteIfExists(pageFile(entry.id));
+      } catch (IOException e){
+         System.err.println("Could not delete the page file of session " + entry.id + ": " + e.getMessage());
+      }
+   }
+
+   private Path pageFile(long id){
+      return directory.resolve("session-" + id + ".page");
+   }
+
+   //==================STATS=====================
+
+   /** @return Sessions open, resident or paged out.*/
+   public int getSessions(){
+      return sessions.size();
+   }
+
+   /** @return Sessions whose objects are in memory.*/
+   public int getResidentSessions(){
+      synchronized (resident){
+         return resident.size();
+      }
+   }
+
+   /** @return The most sessions kept in memory at once.*/
+   public int getMaxResident(){
+      return maxResident;
+   }
+
+   /** @return Steps that found their session in memory.*/
+   public long getHits(){
+      return hits.sum();
+   }
+
+   /** @return Steps that had to read their session back from disk first.*/
+   public long getPageIns(){
+      return pageIns.sum();
+   }
+
+   /** @return Sessions written out to disk.*/
+   public long getPageOuts(){
+      return pageOuts.sum();
+   }
+
+   /** @return Page-outs that failed, ex. with the disk full; each leaves a session over budget in memory.*/
+   public long getPageOutFailures(){
+      return pageOutFailures.sum();
+   }
+
+   /** @return The share of steps that found their session in memory, 0 to 1.*/
+   public double getHitRate(){
+      long hit = getHits();
+      long total = hit + getPageIns();
+      return total == 0 ? 1 : (double) hit / total;
+   }
+
+   /** @return How long paging a session back in took, file read and story replay included.*/
+   public LatencyHistogram getPageInTimes(){
+      return pageInTimes;
+   }
+
+   /** @return The stats as one line of text.*/
+   public String stats(){
+      return String.format("%d sessions, %d resident (max %d); hit rate %.1f%%, %d page-ins, %d page-outs (%d failed); page-in p50 %.1f us, p99 %.1f us, max %.1f us",
+            getSessions(), getResidentSessions(), maxResident, 100 * getHitRate(), getPageIns(), getPageOuts(), getPageOutFailures(),
+            pageInTimes.getPercentile(50) / 1e3, pageInTimes.getPercentile(99) / 1e3, pageInTimes.getMax() / 1e3);
+   }
+
+   /** Opens many sessions with a small memory budget and answers them in a skewed order, most
+       answers going to a few busy players while the rest sit idle, then reports the paging stats
+       and the heap used.
+       @param args Optional sessions (default 20000), resident budget (default 2000) and answers (default 200000).*/
+   public static void main(String[] args) throws IOException {
+      int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+      int budget = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+      int answers = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+      Path directory = Files.createTempDirectory("mansion-sessions");
+      try (SessionManager manager = new SessionManager(StoryRepository.of(StoryPack.getDefault()), directory, budget)){
+         long[] ids = new long[count];
+         for (int i = 0; i < count; i++){
+            ids[i] = manager.open("Player" + i, OutputGameIO.SILENT);
+         }
+         SplittableRandom random = new SplittableRandom(1);
+         long start = System.nanoTime();
+         for (int n = 0; n < answers; n++){
+            double skew = random.nextDouble();
+            int i = (int) (count * skew * skew * skew); //Most answers go to the first few sessions
+            if (ids[i] < 0){
+               ids[i] = manager.open("Player" + i, OutputGameIO.SILENT); //Ended; a new player takes the slot
+            }
+            Prompt prompt = manager.getPrompt(ids[i]);
+            Prompt next;
+            switch (prompt.getKind()){
+               case Prompt.CHOICE: next = manager.answer(ids[i], random.nextInt(prompt.getOptionCount())); break;
+               case Prompt.TEXT: next = manager.answer(ids[i], random.nextBoolean() ? "HAUNTED" : "WRONG"); break;
+               default: next = manager.answer(ids[i], random.nextInt(4) != 0); break;
+            }
+            if (next == null){
+               ids[i] = -1;
+            }
+         }
+         double seconds = (System.nanoTime() - start) / 1e9;
+         System.gc();
+         Runtime runtime = Runtime.getRuntime();
+         System.out.printf("%d answers in %.2f s (%.0f answers/s), heap used %d MB%n", answers, seconds, answers / seconds,
+               (runtime.totalMemory() - runtime.freeMemory()) >> 20);
+         System.out.println(manager.stats());
+      } finally {
+         Files.deleteIfExists(directory);
+      }
+   }
+}
@@ -0,0 +1,271 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+  The saved state of one game session: the player's name, score and inventory, how many
+  playthroughs were started, the AttemptPolicy its puzzles follow, and where in the story the
+  player is (scene, operation within the scene, and if that operation is a puzzle, the attempt
+  so far: wrong answers, hints, cancelled dialogs and how much of the cooldown was left).
+  Snapshots are taken with AdventureManager.snapshot() and continued with AdventureManager.restore().
+  The binary form is a few dozen bytes: a versioned header, the numbers, length-prefixed UTF-8
+  strings and a CRC32, so a torn or foreign file is rejected instead of restoring a broken session.
+  The scene is stored by name, so a snapshot still restores after the story is recompiled.
+  */
+public final class SessionSnapshot {
+   static final int MAGIC = 0x4D4D5353; // "MMSS"
+   static final int VERSION = 3;
+   private static final int HEADER_SIZE = 40 + AttemptPolicy.BYTES;
+
+   private final String playerName;
+   private final int score;
+   private final String[] collectedObjects; // In the order they were collected.
+   private final int attempts; // Playthroughs started.
+   private final String scene; // Scene name, or null before the first playthrough.
+   private final int sceneOp; // Operation within the scene; the scene's operation count after an ending.
+   private final int puzzleAttempts; // Wrong attempts used on the puzzle at sceneOp.
+   private final int puzzleHints; // Hints shown on that puzzle.
+   private final int puzzleCancellations; // Dialogs of that puzzle cancelled.
+   private final long cooldownLeft; // Nanoseconds before that puzzle takes another answer.
+   private final AttemptPolicy policy;
+
+   SessionSnapshot(String playerName, int score, String[] collectedObjects, int attempts, String scene, int sceneOp,
+         int puzzleAttempts, int puzzleHints, int puzzleCancellations, long cooldownLeft, AttemptPolicy policy){
+      this.playerName = playerName;
+      this.score = score;
+      this.collectedObjects = collectedObjects;
+      this.attempts = attempts;
+      this.scene = scene;
+      this.sceneOp = sceneOp;
+      this.puzzleAttempts = puzzleAttempts;
+      this.puzzleHints = puzzleHints;
+      this.puzzleCancellations = puzzleCancellations;
+      this.cooldownLeft = cooldownLeft;
+      this.policy = policy;
+   }
+
+   //==================BINARY FORM=====================
+
+   /** Encodes the snapshot.
+       @return The binary form.
+       @throws IllegalArgumentException if a name is 65535 UTF-8 bytes or longer.*/
+   public byte[] toBytes(){
+      byte[][] strings = new byte[2 + collectedObjects.length][];
+      strings[0] = utf8(playerName);
+      strings[1] = scene == null ? null : utf8(scene);
+      int size = HEADER_SIZE + 4;
+      for (int i = 0; i < collectedObjects.length; i++){
+         strings[2 + i] = utf8(collectedObjects[i]);
+      }
+      for (byte[] text : strings){
+         size += 2 + (text == null ? 0 : text.length);
+      }
+      ByteBuffer out = ByteBuffer.allocate(size);
+      out.putInt(MAGIC).putShort((short) VERSION).putShort((short) collectedObjects.length);
+      out.putInt(attempts).putInt(score).putInt(sceneOp);
+      out.putInt(puzzleAttempts).putInt(puzzleHints).putInt(puzzleCancellations).putLong(cooldownLeft);
+      policy.write(out);
+      for (byte[] text : strings){
+         if (text == null){
+            out.putShort((short) -1); //No scene yet
+         } else {
+            out.putShort((short) text.length).put(text);
+         }
+      }
+      out.putInt(checksum(out.array(), size - 4));
+      return out.array();
+   }
+
+   /** Decodes a snapshot written by toBytes().
+       @param data The binary form.
+       @return The snapshot.
+       @throws IllegalArgumentException if the data is not a valid snapshot of this VERSION.*/
+   public static SessionSnapshot fromBytes(byte[] data){
+      if (data.length < HEADER_SIZE + 4 || checksum(data, data.length - 4) != ByteBuffer.wrap(data, data.length - 4, 4).getInt()){
+         throw new IllegalArgumentException("Session snapshot is damaged");
+      }
+      ByteBuffer in = ByteBuffer.wrap(data, 0, data.length - 4);
+      if (in.getInt() != MAGIC || in.getShort() != VERSION){
+         throw new IllegalArgumentException("Not a version " + VERSION + " session snapshot");
+      }
+      try {
+         String[] objects = new String[Short.toUnsignedInt(in.getShort())];
+         int attempts = in.getInt();
+         int score = in.getInt();
+         int sceneOp = in.getInt();
+         int puzzleAttempts = in.getInt();
+         int puzzleHints = in.getInt();
+         int puzzleCancellations = in.getInt();
+         long cooldownLeft = in.getLong();
+         AttemptPolicy policy = AttemptPolicy.read(in);
+         String playerName = readString(in);
+         String scene = readString(in);
+         for (int i = 0; i < objects.length; i++){
+            objects[i] = readString(in);
+         }
+         return new SessionSnapshot(playerName, score, objects, attempts, scene, sceneOp,
+               puzzleAttempts, puzzleHints, puzzleCancellations, cooldownLeft, policy);
+      } catch (RuntimeException e){ //Buffer underflow or bad lengths in a file with a matching checksum
+         throw new IllegalArgumentException("Session snapshot is damaged", e);
+      }
+   }
+
+   /** Saves the snapshot to a file through a FileChannel.
+       The bytes go to a temporary file next to the target, which is then moved into place,
+       so a crash while saving leaves the previous snapshot intact.
+       @param file The file to write.
+       @param policy How far the write is forced to the disk before returning.
+       @throws IOException if the file cannot be written.*/
+   public void write(Path file, FsyncPolicy policy) throws IOException {
+      Path absolute = file.toAbsolutePath();
+      Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+      try {
+         try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)){
+            ByteBuffer data = ByteBuffer.wrap(toBytes());
+            while (data.hasRemaining()){
+               channel.write(data);
+            }
+            if (policy != FsyncPolicy.NONE){
+               channel.force(policy == FsyncPolicy.FULL);
+            }
+         }
+         Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException | RuntimeException e){
+         Files.deleteIfExists(temp);
+         throw e;
+      }
+      if (policy == FsyncPolicy.FULL){
+         forceDirectory(absolute.getParent());
+      }
+   }
+
+   /** Reads a snapshot saved by write().
+       @param file The file to read.
+       @return The snapshot.
+       @throws IOException if the file cannot be read.
+       @throws IllegalArgumentException if the file is not a valid snapshot.*/
+   public static SessionSnapshot read(Path file) throws IOException {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+         long size = channel.size();
+         if (size > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("Session snapshot is damaged");
+         }
+         ByteBuffer data = ByteBuffer.allocate((int) size);
+         while (data.hasRemaining() && channel.read(data) >= 0){
+            //Keep reading until the buffer is full
+         }
+         return fromBytes(data.array());
+      }
+   }
+
+   //==================ACCESSORS=====================
+
+   /** @return The player's name.*/
+   public String getPlayerName(){
+      return playerName;
+   }
+
+   /** @return The player's score.*/
+   public int getScore(){
+      return score;
+   }
+
+   /** @return The collected objects in the order they were collected.*/
+   public String[] getCollectedObjects(){
+      return collectedObjects.clone();
+   }
+
+   /** @return The number of playthroughs started.*/
+   public int getAttempts(){
+      return attempts;
+   }
+
+   /** @return The name of the scene the player is in, or null if no playthrough had started.*/
+   public String getScene(){
+      return scene;
+   }
+
+   /** @return The operation within the scene to continue from.*/
+   public int getSceneOp(){
+      return sceneOp;
+   }
+
+   /** @return Wrong attempts used on the puzzle being attempted, or 0.*/
+   public int getPuzzleAttempts(){
+      return puzzleAttempts;
+   }
+
+   /** @return Hints shown on the puzzle being attempted, or 0.*/
+   public int getPuzzleHints(){
+      return puzzleHints;
+   }
+
+   /** @return Dialogs of the puzzle being attempted that the player cancelled, or 0.*/
+   public int getPuzzleCancellations(){
+      return puzzleCancellations;
+   }
+
+   /** @return Nanoseconds the puzzle being attempted still refused answers for when the snapshot
+       was taken, or 0.*/
+   public long getCooldownLeft(){
+      return cooldownLeft;
+   }
+
+   /** Gives the snapshot as it would be after the session waited, ex. while it was paged out:
+       the cooldown runs on, everything else stays.
+       @param nanos How long the session waited.
+       @return A snapshot with the cooldown shortened, or this one if there was none.*/
+   SessionSnapshot waited(long nanos){
+      if (cooldownLeft == 0){
+         return this;
+      }
+      return new SessionSnapshot(playerName, score, collectedObjects, attempts, scene, sceneOp,
+            puzzleAttempts, puzzleHints, puzzleCancellations, Math.max(0, cooldownLeft - nanos), policy);
+   }
+
+   /** @return The rules the session's puzzles follow.*/
+   public AttemptPolicy getPolicy(){
+      return policy;
+   }
+
+   //==================HELPER METHODS=====================
+
+   private static byte[] utf8(String text){
+      byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+      if (bytes.length >= 0xFFFF){ //0xFFFF is the length marking a missing scene
+         throw new IllegalArgumentException("Name too long for a session snapshot: " + text.substring(0, 20) + "...");
+      }
+      return bytes;
+   }
+
+   private static String readString(ByteBuffer in){
+      short length = in.getShort();
+      if (length == -1){
+         return null;
+      }
+      int start = in.position();
+      in.position(start + Short.toUnsignedInt(length)); //Fails if the string runs past the data
+      return new String(in.array(), start, Short.toUnsignedInt(length), StandardCharsets.UTF_8);
+   }
+
+   private static int checksum(byte[] data, int length){
+      CRC32 crc = new CRC32();
+      crc.update(data, 0, length);
+      return (int) crc.getValue();
+   }
+
+   /* Makes a rename durable by forcing the directory, where the platform allows opening one.*/
+   static void forceDirectory(Path directory){
+      try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)){
+         channel.force(true);
+      } catch (IOException e){
+         //Not supported on every platform (ex. Windows); the file itself is already forced
+      }
+   }
+}
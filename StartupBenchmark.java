@@ -0,0 +1,83 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+  The launcher profile for kiosks: records an AppCDS archive of the classes a launch loads, and
+  compares how long launches take without class data sharing, with the JDK's default archive and
+  with the game's own archive.
+  The archive is recorded from "AdventureGame --train", which decodes the image, builds every
+  dialog of a launch through SwingGameIO without showing it and plays a scripted game, cancelled
+  choice included, without a screen or a player, so it covers AdventureGame, AdventureManager,
+  MysteryMansion, Scene, the Puzzle classes, the story pack and the Swing and image classes they
+  pull in. The JVM only archives classes from jars, so run it with the game in a jar, and launch
+  the game with the archive through:
+  java -XX:SharedArchiveFile=mansion.jsa -cp <game jar> AdventureGame
+  The archive only matches the JDK and class path it was recorded with; a JVM that finds it stale
+  ignores it and starts as usual, so rebuild it (with --rebuild) after upgrading either.
+  The tree has no build file, so this runs with plain javac/java:
+  java StartupBenchmark [launches per profile] [archive file] [--rebuild]
+  */
+public class StartupBenchmark {
+   /** The archive file used unless another is given.*/
+   public static final String DEFAULT_ARCHIVE = "mansion.jsa";
+
+   private static final int DEFAULT_LAUNCHES = 10;
+
+   /** Records the archive if needed, then times the launch profiles in turn and prints their launch times.
+       @param args Optional launches per profile (default 10), archive file (default mansion.jsa)
+                   and --rebuild to record the archive even if it exists.*/
+   public static void main(String[] args) throws IOException, InterruptedException {
+      List<String> options = new ArrayList<>(Arrays.asList(args));
+      boolean rebuild = options.remove("--rebuild");
+      int launches = options.size() > 0 ? Integer.parseInt(options.get(0)) : DEFAULT_LAUNCHES;
+      Path archive = Paths.get(options.size() > 1 ? options.get(1) : DEFAULT_ARCHIVE);
+
+      if (rebuild || !Files.exists(archive)){
+         long nanos = launch("-XX:ArchiveClassesAtExit=" + archive);
+         System.out.printf("Recorded %s (%d KB) in %.0f ms%n", archive, Files.size(archive) / 1024, nanos / 1e6);
+      }
+
+      String[][] profiles = {
+         {"no CDS", "-Xshare:off"},
+         {"JDK CDS", "-Xshare:auto"},
+         {"AppCDS", "-XX:SharedArchiveFile=" + archive},
+      };
+      long[][] times = new long[profiles.length][launches];
+      launch(profiles[0][1]); //Warm the OS file cache, which would otherwise favour later profiles
+      for (int i = 0; i < launches; i++){
+         for (int p = 0; p < profiles.length; p++){ //Interleaved, so drift on the machine hits every profile alike
+            times[p][i] = launch(profiles[p][1]);
+         }
+      }
+      System.out.printf("%-10s %10s %10s %10s%n", "profile", "min ms", "median ms", "mean ms");
+      for (int p = 0; p < profiles.length; p++){
+         long[] sorted = times[p].clone();
+         Arrays.sort(sorted);
+         System.out.printf("%-10s %10.1f %10.1f %10.1f%n", profiles[p][0],
+               sorted[0] / 1e6, sorted[sorted.length / 2] / 1e6, Arrays.stream(sorted).average().orElse(0) / 1e6);
+      }
+   }
+
+   /* Runs one training launch in a new JVM with the given option and returns its wall time in nanoseconds.*/
+   private static long launch(String jvmOption) throws IOException, InterruptedException {
+      String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+      ProcessBuilder builder = new ProcessBuilder(java, jvmOption, "-Xlog:cds=off", "-Xlog:cds+dynamic=off",
+            "-cp", System.getProperty("java.class.path"), "AdventureGame", "--train");
+      builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+      builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+      builder.directory(new File(System.getProperty("user.dir")));
+      long start = System.nanoTime();
+      int status = builder.start().waitFor();
+      long nanos = System.nanoTime() - start;
+      if (status != 0){
+         throw new IllegalStateException("Launch with " + jvmOption + " failed with status " + status);
+      }
+      return nanos;
+   }
+}
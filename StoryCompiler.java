@@ -0,0 +1,422 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+  Compiles a story script (see mansion.story for the format) into the binary scene pack read by StoryPack.
+  Every distinct string is stored once in a UTF-8 string table, and scenes, operations, options and
+  puzzles become fixed-size integer records that point into it, so the pack can be memory-mapped
+  and read in place. All scene targets are checked at compile time, not when a player reaches them.
+  Run it with: java StoryCompiler mansion.story mansion.pack
+  */
+public class StoryCompiler {
+   private final List<String> strings = new ArrayList<>(); // Distinct strings in the order they were first used.
+   private final Map<String, Integer> stringIds = new HashMap<>(); // String text -> index in the string table.
+   private final List<int[]> scenes = new ArrayList<>(); // {name, firstOp, opCount} per scene.
+   private final Map<String, Integer> sceneIds = new HashMap<>(); // Scene name -> scene index.
+   private final List<int[]> ops = new ArrayList<>(); // {code, a, b, c} per operation.
+   private final List<int[]> options = new ArrayList<>(); // {text, target} per choice option or puzzle pick.
+   private final List<int[]> puzzles = new ArrayList<>(); // One StoryPack.PUZZLE_RECORD sized record per puzzle.
+   private final List<Target> targets = new ArrayList<>(); // Scene references to resolve once every scene is known.
+   
+   private List<String> lines; // The script being compiled.
+   private int pos; // Index of the next unread line.
+   private String source; // Script name used in error messages.
+   
+   /** Command line entry point.
+       @param args The story script to read and the pack file to write.*/
+   public static void main(String[] args) throws IOException {
+      if (args.length != 2){
+         System.err.println("Usage: java StoryCompiler <story file> <pack file>");
+         System.exit(2);
+      }
+      compile(Paths.get(args[0]), Paths.get(args[1]));
+   }
+   
+   /** Compiles a story script into a pack file.
+       The pack is written next to the target first and then moved into place,
+       so a running game never maps a half-written file; a failed write leaves no temporary file behind.
+       @param story The story script to read.
+       @param pack The pack file to write.
+       @throws IOException if the script cannot be read or the pack cannot be written.
+       @throws IllegalArgumentException if the script has a syntax error, an unknown scene target or a
+               puzzle that cannot be solved (no answer, no messages, or a choice answer that is not a pick).*/
+   public static void compile(Path story, Path pack) throws IOException {
+      StoryCompiler compiler = new StoryCompiler();
+      compiler.parse(story.getFileName().toString(), Files.readAllLines(story, StandardCharsets.UTF_8));
+      Path absolute = pack.toAbsolutePath();
+      Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+      try {
+         try (OutputStream out = Files.newOutputStream(temp)){
+            compiler.write(out);
+         }
+         Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException | RuntimeException e){
+         Files.deleteIfExists(temp);
+         throw e;
+      }
+   }
+   
+   //==================PARSING=====================
+   
+   /* Parses every scene of the script and resolves the scene targets.*/
+   private void parse(String source, List<String> lines){
+      this.source = source;
+      this.lines = lines;
+      this.pos = 0;
+      String line;
+      while ((line = nextDirective()) != null){
+         if (!line.startsWith("scene ")){
+            throw error("expected \"scene NAME\" but found: " + line);
+         }
+         parseScene(line.substring(6).trim());
+      }
+      if (scenes.isEmpty()){
+         throw error("the story has no scenes");
+      }
+      if (!sceneIds.containsKey(StoryPack.CANCELLED_SCENE)){
+         throw error("the story must define a " + StoryPack.CANCELLED_SCENE + " scene for cancelled dialogs");
+      }
+      //Every scene exists now, so the forward references can be filled in
+      for (Target target : targets){
+         Integer id = sceneIds.get(target.scene);
+         if (id == null){
+            throw new IllegalArgumentException(source + " line " + target.line + ": unknown scene " + target.scene);
+         }
+         target.record[target.index] = id;
+      }
+   }
+   
+   /* Parses the lines of one scene up to and including its ending directive.*/
+   private void parseScene(String name){
+      if (name.isEmpty() || sceneIds.containsKey(name)){
+         throw error("missing or duplicate scene name: " + name);
+      }
+      sceneIds.put(name, scenes.size());
+      int firstOp = ops.size();
+      boolean ended = false;
+      while (!ended){
+         String line = nextDirective();
+         if (line == null){
+            throw error("scene " + name + " has no choice, puzzle, goto or end");
+         }
+         String word = firstWord(line);
+         String rest = line.substring(word.length()).trim();
+         switch (word){
+            case "say":
+               addOp(StoryPack.SAY, text(readBlock()), 0, 0);
+               break;
+            case "give":
+               addOp(StoryPack.GIVE, intern(requireText(rest, line)), 0, 0);
+               break;
+            case "score":
+               addOp(StoryPack.SCORE, parseNumber(rest), 0, 0);
+               break;
+            case "choice":
+               parseChoice();
+               ended = true;
+               break;
+            case "puzzle":
+               parsePuzzle(rest);
+               ended = true;
+               break;
+            case "goto":
+               int[] jump = addOp(StoryPack.GOTO, 0, 0, 0);
+               target(requireText(rest, line), jump, 1); //field 1 is the op's first argument
+               ended = true;
+               break;
+            case "end":
+               addOp(StoryPack.END, rest.isEmpty() ? -1 : intern(rest), 0, 0);
+               ended = true;
+               break;
+            default:
+               throw error("unknown directive: " + line);
+         }
+      }
+      scenes.add(new int[]{intern(name), firstOp, ops.size() - firstOp});
+   }
+   
+   /* Parses a choice: its text block followed by at least one "option TARGET text" line.*/
+   private void parseChoice(){
+      int text = text(readBlock());
+      int firstOption = options.size();
+      while (peekDirective("option ")){
+         String line = nextDirective();
+         String[] parts = line.substring(7).trim().split(" ", 2);
+         int[] option = {intern(requireText(parts.length > 1 ? parts[1] : "", line)), 0};
+         options.add(option);
+         target(parts[0], option, 1);
+      }
+      if (options.size() == firstOption){
+         throw error("a choice needs at least one option");
+      }
+      addOp(StoryPack.CHOICE, text, firstOption, options.size() - firstOption);
+   }
+   
+   /* Parses a text or multiple-choice puzzle and its success and failure scenes.*/
+   private void parsePuzzle(String kind){
+      int[] puzzle = new int[StoryPack.PUZZLE_RECORD];
+      if (kind.equals("text")){
+         puzzle[StoryPack.P_KIND] = StoryPack.TEXT_PUZZLE;
+      } else if (kind.equals("choice")){
+         puzzle[StoryPack.P_KIND] = StoryPack.CHOICE_PUZZLE;
+      } else {
+         throw error("puzzle must be \"text\" or \"choice\", not: " + kind);
+      }
+      puzzle[StoryPack.P_QUESTION] = text(readBlock());
+      puzzle[StoryPack.P_ANSWER] = -1; //Required; checked once the puzzle is read
+      puzzle[StoryPack.P_WRONG] = -1;
+      puzzle[StoryPack.P_FAIL] = -1;
+      puzzle[StoryPack.P_HINT] = -1;
+      puzzle[StoryPack.P_FIRST_PICK] = options.size();
+      puzzle[StoryPack.P_MATCH] = StoryPack.MATCH_EXACT;
+      List<Integer> accepts = new ArrayList<>(); // Stored after the picks so both stay contiguous.
+      boolean hasSuccess = false;
+      boolean hasFailure = false;
+      while (!(hasSuccess && hasFailure)){
+         String line = nextDirective();
+         if (line == null){
+            throw error("puzzle is missing its success or failure scene");
+         }
+         String word = firstWord(line);
+         String rest = line.substring(word.length()).trim();
+         switch (word){
+            case "answer": puzzle[StoryPack.P_ANSWER] = intern(requireText(rest, line)); break;
+            case "wrong": puzzle[StoryPack.P_WRONG] = text(readBlock()); break;
+            case "fail": puzzle[StoryPack.P_FAIL] = text(readBlock()); break;
+            case "hint": puzzle[StoryPack.P_HINT] = intern(requireText(rest, line)); break;
+            case "pick": options.add(new int[]{intern(requireText(rest, line)), -1}); break;
+            case "accept": accepts.add(intern(requireText(rest, line))); break;
+            case "match": parseMatch(rest, puzzle); break;
+            case "success": target(rest, puzzle, StoryPack.P_SUCCESS); hasSuccess = true; break;
+            case "failure": target(rest, puzzle, StoryPack.P_FAILURE); hasFailure = true; break;
+            default: throw error("unknown puzzle directive: " + line);
+         }
+      }
+      puzzle[StoryPack.P_PICK_COUNT] = options.size() - puzzle[StoryPack.P_FIRST_PICK];
+      puzzle[StoryPack.P_FIRST_ACCEPT] = options.size();
+      puzzle[StoryPack.P_ACCEPT_COUNT] = accepts.size();
+      for (int accept : accepts){
+         options.add(new int[]{accept, -1});
+      }
+      if (puzzle[StoryPack.P_ANSWER] < 0){
+         throw error("puzzle is missing its \"answer\"");
+      }
+      if (puzzle[StoryPack.P_WRONG] < 0 || puzzle[StoryPack.P_FAIL] < 0){
+         throw error("puzzle is missing its \"wrong\" or \"fail\" message");
+      }
+      if (puzzle[StoryPack.P_KIND] == StoryPack.CHOICE_PUZZLE){
+         if (puzzle[StoryPack.P_PICK_COUNT] == 0){
+            throw error("a choice puzzle needs \"pick\" lines");
+         }
+         if (!hasPick(puzzle, strings.get(puzzle[StoryPack.P_ANSWER]))){
+            throw error("the answer of a choice puzzle must be one of its picks: " + strings.get(puzzle[StoryPack.P_ANSWER]));
+         }
+      }
+      addOp(StoryPack.PUZZLE, puzzles.size(), 0, 0);
+      puzzles.add(puzzle);
+   }
+   
+   /* Checks that one of a puzzle's picks is the given answer, as players would type or pick it.*/
+   private boolean hasPick(int[] puzzle, String answer){
+      int first = puzzle[StoryPack.P_FIRST_PICK];
+      for (int pick = first; pick < first + puzzle[StoryPack.P_PICK_COUNT]; pick++){
+         if (strings.get(options.get(pick)[0]).trim().equalsIgnoreCase(answer.trim())){
+            return true;
+         }
+      }
+      return false;
+   }
+   
+   /* Parses "match exact", "match anagram" or "match edits N" into the puzzle record.*/
+   private void parseMatch(String rest, int[] puzzle){
+      String[] parts = rest.split("\\s+");
+      if (parts.length == 1 && parts[0].equals("exact")){
+         puzzle[StoryPack.P_MATCH] = StoryPack.MATCH_EXACT;
+      } else if (parts.length == 1 && parts[0].equals("anagram")){
+         puzzle[StoryPack.P_MATCH] = StoryPack.MATCH_ANAGRAM;
+      } else if (parts.length == 2 && parts[0].equals("edits")){
+         int edits;
+         try {
+            edits = Integer.parseInt(parts[1]);
+         } catch (NumberFormatException e){
+            throw error("edits needs a number, not: " + parts[1]);
+         }
+         if (edits < 0){
+            throw error("edits cannot be negative");
+         }
+         puzzle[StoryPack.P_MATCH] = StoryPack.MATCH_EDITS;
+         puzzle[StoryPack.P_MATCH_ARG] = edits;
+      } else {
+         throw error("match must be \"exact\", \"anagram\" or \"edits N\", not: " + rest);
+      }
+   }
+   
+   /* Reads a text block: every line up to the line holding a single ".", joined with line breaks.*/
+   private String readBlock(){
+      StringBuilder text = new StringBuilder();
+      int start = pos;
+      while (pos < lines.size()){
+         String line = lines.get(pos++);
+         if (line.equals(".")){
+            return text.toString();
+         }
+         if (pos - 1 > start){
+            text.append('\n');
+         }
+         text.append(line);
+      }
+      throw new IllegalArgumentException(source + " line " + start + ": text block is missing its closing \".\"");
+   }
+   
+   /* Returns the next line that is not blank or a comment, or null at the end of the script.*/
+   private String nextDirective(){
+      while (pos < lines.size()){
+         String line = lines.get(pos++).trim();
+         if (!line.isEmpty() && !line.startsWith("#")){
+            return line;
+         }
+      }
+      return null;
+   }
+   
+   /* Checks if the next directive starts with the given prefix without consuming it.*/
+   private boolean peekDirective(String prefix){
+      int saved = pos;
+      String line = nextDirective();
+      pos = saved;
+      return line != null && line.startsWith(prefix);
+   }
+   
+   //==================RECORDS=====================
+   
+   private int[] addOp(int code, int a, int b, int c){
+      int[] op = {code, a, b, c};
+      ops.add(op);
+      return op;
+   }
+   
+   /* Remembers that field "index" of record must hold the id of the named scene.*/
+   private void target(String scene, int[] record, int index){
+      if (scene.isEmpty()){
+         throw error("missing target scene");
+      }
+      targets.add(new Target(scene, pos, record, index));
+   }
+   
+   /* Interns a narrative text block after checking its placeholders, so a typo like {nmae}
+      is reported with its line number instead of when a player reaches it.*/
+   private int text(String block){
+      try {
+         TextTemplate.compile(block);
+      } catch (IllegalArgumentException e){
+         throw error(e.getMessage());
+      }
+      return intern(block);
+   }
+   
+   /* Returns the string table index of the text, adding it the first time it is seen.*/
+   private int intern(String text){
+      Integer id = stringIds.get(text);
+      if (id == null){
+         id = strings.size();
+         strings.add(text);
+         stringIds.put(text, id);
+      }
+      return id;
+   }
+   
+   //==================WRITING=====================
+   
+   /* Writes the pack: header, string offsets, fixed-size records, then the UTF-8 string data.*/
+   private void write(OutputStream stream) throws IOException {
+      byte[][] encoded = new byte[strings.size()][];
+      int blobSize = 0;
+      for (int i = 0; i < encoded.length; i++){
+         encoded[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+         blobSize += encoded[i].length;
+      }
+      DataOutputStream out = new DataOutputStream(stream);
+      out.writeInt(StoryPack.MAGIC);
+      out.writeInt(StoryPack.VERSION);
+      out.writeInt(strings.size());
+      out.writeInt(scenes.size());
+      out.writeInt(ops.size());
+      out.writeInt(options.size());
+      out.writeInt(puzzles.size());
+      out.writeInt(blobSize);
+      out.writeInt(0); //The first scene in the script is where the story starts
+      int offset = 0;
+      for (byte[] bytes : encoded){
+         out.writeInt(offset);
+         offset += bytes.length;
+      }
+      out.writeInt(offset);
+      writeRecords(out, scenes);
+      writeRecords(out, ops);
+      writeRecords(out, options);
+      writeRecords(out, puzzles);
+      for (byte[] bytes : encoded){
+         out.write(bytes);
+      }
+      out.flush();
+   }
+   
+   private static void writeRecords(DataOutputStream out, List<int[]> records) throws IOException {
+      for (int[] record : records){
+         for (int value : record){
+            out.writeInt(value);
+         }
+      }
+   }
+   
+   //==================HELPERS=====================
+   
+   private static String firstWord(String line){
+      int space = line.indexOf(' ');
+      return space < 0 ? line : line.substring(0, space);
+   }
+   
+   private String requireText(String text, String line){
+      if (text.isEmpty()){
+         throw error("missing value in: " + line);
+      }
+      return text;
+   }
+   
+   private int parseNumber(String text){
+      try {
+         return Integer.parseInt(text);
+      } catch (NumberFormatException e){
+         throw error("expected a number but found: " + text);
+      }
+   }
+   
+   private IllegalArgumentException error(String message){
+      return new IllegalArgumentException(source + " line " + pos + ": " + message);
+   }
+   
+   /* A reference to a scene by name, and the record field its index must be written to.*/
+   private static class Target {
+      final String scene;
+      final int line;
+      final int[] record;
+      final int index;
+      
+      Target(String scene, int line, int[] record, int index){
+         this.scene = scene;
+         this.line = line;
+         this.record = record;
+         this.index = index;
+      }
+   }
+}
@@ -0,0 +1,262 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+  Enumerates every path through a compiled story and reports, for each ending, whether it can be
+  reached, how many distinct paths lead to it and the highest score a player can finish it with.
+  Every choice option and both outcomes of every puzzle count as separate branches; cancelling a
+  dialog is not counted as a branch.
+  
+  Paths are not walked one by one. Each scene is summarised once (paths and best score to every
+  ending from there), and a scene shared by many branches reuses its summary, so the work grows
+  with the number of scenes rather than the number of paths. Summaries are computed as fork-join
+  tasks, so independent branches are explored on all cores with work stealing.
+  Run it with: java StoryExplorer [story file]
+  */
+public class StoryExplorer {
+   private static final int UNREACHABLE = Integer.MIN_VALUE; // Best score marker for an ending that can't be reached.
+   
+   private final StoryPack story; // The story being explored.
+   private final int[] endings; // Scene index of every ending, in story order.
+   private final int[] endingSlot; // Scene index -> position in endings, or -1 for other scenes.
+   private final ConcurrentHashMap<Integer, SceneTask> memo = new ConcurrentHashMap<>(); // Scene -> its (shared) summary task.
+   
+   /** Creates an explorer for a story.
+       @param story The compiled story to explore.*/
+   public StoryExplorer(StoryPack story){
+      this.story = story;
+      endingSlot = new int[story.getSceneCount()];
+      List<Integer> found = new ArrayList<>();
+      for (int scene = 0; scene < story.getSceneCount(); scene++){
+         endingSlot[scene] = -1;
+         if (story.isEnding(scene)){
+            endingSlot[scene] = found.size();
+            found.add(scene);
+         }
+      }
+      endings = found.stream().mapToInt(Integer::intValue).toArray();
+   }
+   
+   /** Explores the story from its first scene on the common fork-join pool.
+       @return The summary of every path from the first scene.
+       @throws IllegalStateException if the story has a loop, which would mean endless paths.*/
+   public Report explore(){
+      return explore(ForkJoinPool.commonPool());
+   }
+   
+   /** Explores the story from its first scene.
+       @param pool The fork-join pool to run on.
+       @return The summary of every path from the first scene.
+       @throws IllegalStateException if the story has a loop, which would mean endless paths.*/
+   public Report explore(ForkJoinPool pool){
+      checkForLoops();
+      Summary start = pool.invoke(taskFor(story.getStartScene()));
+      return new Report(start);
+   }
+   
+   /* Returns the shared task summarising a scene, creating and forking it the first time.*/
+   private SceneTask taskFor(int scene){
+      return memo.computeIfAbsent(scene, SceneTask::new);
+   }
+   
+   /* Summarises one scene: the points it awards plus the merged summaries of every branch out of it.*/
+   private class SceneTask extends RecursiveTask<Summary> {
+      private static final long serialVersionUID = 1L;
+      private final int scene;
+      
+      SceneTask(int scene){
+         this.scene = scene;
+      }
+      
+      @Override
+      protected Summary compute(){
+         int points = 0;
+         int last = story.getLastOp(scene);
+         for (int op = story.getFirstOp(scene); op < last; op++){
+            if (story.getOpCode(op) == StoryPack.SCORE){
+               points += story.getOpArg(op, 0);
+            }
+         }
+         Summary summary = new Summary(endings.length);
+         if (endingSlot[scene] >= 0){
+            summary.paths[endingSlot[scene]] = 1;
+            summary.bestScore[endingSlot[scene]] = points;
+            return summary;
+         }
+         int[] targets = branches(last);
+         List<SceneTask> children = new ArrayList<>(targets.length);
+         for (int target : targets){
+            SceneTask child = taskFor(target);
+            //Only the thread that created a task forks it; everyone else just joins it
+            if (child.getForkJoinTaskTag() == 0 && child.compareAndSetForkJoinTaskTag((short) 0, (short) 1)){
+               child.fork();
+            }
+            children.add(child);
+         }
+         for (SceneTask child : children){
+            summary.add(child.join(), points);
+         }
+         return summary;
+      }
+   }
+   
+   /* Returns the scene every branch of a scene's last operation leads to (one entry per option).*/
+   private int[] branches(int op){
+      switch (story.getOpCode(op)){
+         case StoryPack.CHOICE:
+            int[] targets = new int[story.getOpArg(op, 2)];
+            for (int i = 0; i < targets.length; i++){
+               targets[i] = story.getOptionTarget(story.getOpArg(op, 1) + i);
+            }
+            return targets;
+         case StoryPack.PUZZLE:
+            int puzzle = story.getOpArg(op, 0);
+            return new int[]{story.getPuzzleSuccess(puzzle), story.getPuzzleFailure(puzzle)};
+         case StoryPack.GOTO:
+            return new int[]{story.getOpArg(op, 0)};
+         default:
+            return new int[0];
+      }
+   }
+   
+   /* Depth-first search from the first scene that fails on any loop back to a scene still being visited.*/
+   private void checkForLoops(){
+      byte[] state = new byte[story.getSceneCount()]; //0 = new, 1 = on the current path, 2 = done
+      int[][] stack = new int[story.getSceneCount()][];
+      int[] position = new int[story.getSceneCount()];
+      int[] scenes = new int[story.getSceneCount()];
+      int depth = 0;
+      scenes[0] = story.getStartScene();
+      stack[0] = branchesOf(scenes[0]);
+      state[scenes[0]] = 1;
+      while (depth >= 0){
+         int scene = scenes[depth];
+         if (position[depth] < stack[depth].length){
+            int next = stack[depth][position[depth]++];
+            if (state[next] == 1){
+               throw new IllegalStateException("The story loops back to scene " + story.getSceneName(next)
+                     + " from " + story.getSceneName(scene) + ", so it has endless paths");
+            }
+            if (state[next] == 0){
+               state[next] = 1;
+               depth++;
+               scenes[depth] = next;
+               stack[depth] = branchesOf(next);
+               position[depth] = 0;
+            }
+         } else {
+            state[scene] = 2;
+            depth--;
+         }
+      }
+   }
+   
+   private int[] branchesOf(int scene){
+      return branches(story.getLastOp(scene));
+   }
+   
+   /* Number of paths and best score to every ending from one scene.*/
+   private static class Summary {
+      final long[] paths;
+      final int[] bestScore;
+      
+      Summary(int endings){
+         paths = new long[endings];
+         bestScore = new int[endings];
+         Arrays.fill(bestScore, UNREACHABLE);
+      }
+      
+      /* Merges a branch's summary into this one, adding the points earned before the branch.*/
+      void add(Summary branch, int points){
+         for (int i = 0; i < paths.length; i++){
+            if (branch.paths[i] > 0){
+               //Saturate instead of overflowing on enormous stories
+               long total = paths[i] + branch.paths[i];
+               paths[i] = total < 0 ? Long.MAX_VALUE : total;
+               bestScore[i] = Math.max(bestScore[i], branch.bestScore[i] + points);
+            }
+         }
+      }
+   }
+   
+   /**
+     The result of exploring a story: reachability, path count and best score for every ending.
+     */
+   public class Report {
+      private final Summary summary;
+      
+      private Report(Summary summary){
+         this.summary = summary;
+      }
+      
+      /** @return The names of every ending scene, in story order.*/
+      public List<String> getEndings(){
+         List<String> names = new ArrayList<>();
+         for (int scene : endings){
+            names.add(story.getSceneName(scene));
+         }
+         return names;
+      }
+      
+      /** @return true if at least one path from the first scene reaches the ending.*/
+      public boolean isReachable(String ending){
+         return getPathCount(ending) > 0;
+      }
+      
+      /** @return The number of distinct paths from the first scene to the ending (saturates at Long.MAX_VALUE).*/
+      public long getPathCount(String ending){
+         return summary.paths[slotOf(ending)];
+      }
+      
+      /** @return The highest score a playthrough can finish the ending with, or -1 if it is unreachable.*/
+      public int getBestScore(String ending){
+         int best = summary.bestScore[slotOf(ending)];
+         return best == UNREACHABLE ? -1 : best;
+      }
+      
+      /** @return The total number of paths from the first scene to any ending.*/
+      public long getTotalPaths(){
+         long total = 0;
+         for (long paths : summary.paths){
+            total += paths;
+         }
+         return total;
+      }
+      
+      private int slotOf(String ending){
+         int scene = story.findScene(ending);
+         if (scene < 0 || endingSlot[scene] < 0){
+            throw new IllegalArgumentException("No ending named " + ending);
+         }
+         return endingSlot[scene];
+      }
+      
+      /** @return A table with one line per ending.*/
+      @Override
+      public String toString(){
+         StringBuilder text = new StringBuilder();
+         text.append(String.format("%-20s %-10s %12s %10s%n", "Ending", "Reachable", "Paths", "Best score"));
+         for (String ending : getEndings()){
+            text.append(String.format("%-20s %-10s %12d %10s%n", ending, isReachable(ending) ? "yes" : "no",
+                  getPathCount(ending), isReachable(ending) ? String.valueOf(getBestScore(ending)) : "-"));
+         }
+         text.append(String.format("%-20s %-10s %12d%n", "Total", "", getTotalPaths()));
+         return text.toString();
+      }
+   }
+   
+   /** Explores a story and prints the report.
+       @param args Optional story script (default mansion.story).*/
+   public static void main(String[] args) throws IOException {
+      String script = args.length > 0 ? args[0] : "mansion.story";
+      String pack = script.endsWith(".story") ? script.substring(0, script.length() - 6) + ".pack" : script + ".pack";
+      StoryPack story = StoryPack.load(Paths.get(script), Paths.get(pack));
+      System.out.print(new StoryExplorer(story).explore());
+   }
+}
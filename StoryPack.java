@@ -0,0 +1,414 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+/**
+  Read-only view of a compiled story pack (written by StoryCompiler).
+  The pack file is memory-mapped and its fixed-size records are read in place, so every
+  session in the process shares the same copy of the story instead of building its own.
+  Each distinct string is decoded from the mapped UTF-8 data the first time it is needed and
+  then kept, so a line of narrative exists at most once per process however many players see it.
+  Scenes, operations, options and puzzles are identified by their index in the pack.
+  */
+public final class StoryPack {
+   static final int MAGIC = 0x4D4D504B; // "MMPK"
+   static final int VERSION = 2;
+   private static final int HEADER_SIZE = 36;
+   
+   //Operation codes. Every scene is a run of SAY/GIVE/SCORE ops ending in CHOICE, PUZZLE, GOTO or END.
+   public static final int SAY = 1; // a = text
+   public static final int GIVE = 2; // a = item name
+   public static final int SCORE = 3; // a = points
+   public static final int CHOICE = 4; // a = text, b = first option, c = option count
+   public static final int PUZZLE = 5; // a = puzzle index
+   public static final int GOTO = 6; // a = target scene
+   public static final int END = 7; // a = replay question, or -1 for the default one
+   
+   //Puzzle kinds
+   public static final int TEXT_PUZZLE = 0;
+   public static final int CHOICE_PUZZLE = 1;
+   
+   //How a puzzle checks answers, on top of its answer and any accepted synonyms
+   public static final int MATCH_EXACT = 0;
+   public static final int MATCH_ANAGRAM = 1;
+   public static final int MATCH_EDITS = 2; // match argument = edits allowed
+   
+   //Fields of a puzzle record
+   static final int P_KIND = 0;
+   static final int P_QUESTION = 1;
+   static final int P_ANSWER = 2;
+   static final int P_WRONG = 3;
+   static final int P_FAIL = 4;
+   static final int P_HINT = 5;
+   static final int P_SUCCESS = 6;
+   static final int P_FAILURE = 7;
+   static final int P_FIRST_PICK = 8;
+   static final int P_PICK_COUNT = 9;
+   static final int P_MATCH = 10;
+   static final int P_MATCH_ARG = 11;
+   static final int P_FIRST_ACCEPT = 12;
+   static final int P_ACCEPT_COUNT = 13;
+   static final int PUZZLE_RECORD = 14;
+   
+   /** Name of the scene every story must define; cancelled dialogs lead there.*/
+   public static final String CANCELLED_SCENE = "CANCELLED";
+   
+   
+   private final ByteBuffer data; // The mapped pack file (read-only).
+   private final int stringCount;
+   private final int sceneCount;
+   private final int puzzleCount;
+   private final int startScene;
+   private final int stringOffsets; // Byte positions of each section inside the pack.
+   private final int scenesStart;
+   private final int opsStart;
+   private final int optionsStart;
+   private final int puzzlesStart;
+   private final int blobStart;
+   private final String[] strings; // Strings decoded so far, shared by every session.
+   private final AnswerMatcher[] matchers; // Puzzle matchers built so far, shared the same way.
+   private final TextTemplate[] templates; // Strings compiled as templates so far, shared the same way.
+   private final int cancelledScene;
+   private ContentCache content; // Option arrays and prompts shared by every session, built on first use.
+   private PuzzleRegistry puzzles; // The puzzles by ID, built on first use.
+   
+   private StoryPack(ByteBuffer data){
+      this.data = data;
+      if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION){
+         throw new IllegalArgumentException("Not a version " + VERSION + " story pack");
+      }
+      stringCount = data.getInt(8);
+      sceneCount = data.getInt(12);
+      int opCount = data.getInt(16);
+      int optionCount = data.getInt(20);
+      puzzleCount = data.getInt(24);
+      startScene = data.getInt(32);
+      stringOffsets = HEADER_SIZE;
+      scenesStart = stringOffsets + 4 * (stringCount + 1);
+      opsStart = scenesStart + 12 * sceneCount;
+      optionsStart = opsStart + 16 * opCount;
+      puzzlesStart = optionsStart + 8 * optionCount;
+      blobStart = puzzlesStart + 4 * PUZZLE_RECORD * puzzleCount;
+      strings = new String[stringCount];
+      matchers = new AnswerMatcher[puzzleCount];
+      templates = new TextTemplate[stringCount];
+      cancelledScene = findScene(CANCELLED_SCENE);
+   }
+   
+   /** Maps a compiled pack file.
+       @param pack The pack file to map.
+       @return The story stored in the pack.
+       @throws IOException if the file cannot be mapped.*/
+   public static StoryPack open(Path pack) throws IOException {
+      try (FileChannel channel = FileChannel.open(pack, StandardOpenOption.READ)){
+         //The mapping stays valid after the channel is closed
+         MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+         return new StoryPack(data);
+      }
+   }
+   
+   /** Maps the pack for a story script, compiling it first if the pack is missing, older than the script
+       or written by another version of the compiler.
+       @param story The story script.
+       @param pack The compiled pack next to it.
+       @return The compiled story.
+       @throws IOException if the script cannot be compiled or the pack cannot be mapped.*/
+   public static StoryPack load(Path story, Path pack) throws IOException {
+      if (Files.exists(story) && (!Files.exists(pack)
+            || Files.getLastModifiedTime(pack).compareTo(Files.getLastModifiedTime(story)) < 0)){
+         StoryCompiler.compile(story, pack);
+      }
+      try {
+         return open(pack);
+      } catch (IllegalArgumentException e){
+         if (!Files.exists(story)){
+            throw e;
+         }
+         StoryCompiler.compile(story, pack); //Stale pack format, rebuild it from the script
+         return open(pack);
+      }
+   }
+   
+   /** Retrieves the story shared by every new game session: the current version of mansion.story
+       compiled into mansion.pack (see StoryRepository.getDefault()).
+       @return The default story, loaded on first use.
+       @throws UncheckedIOException if the story cannot be loaded.*/
+   public static StoryPack getDefault(){
+      return StoryRepository.getDefault().getStory();
+   }
+   
+   //==================STRINGS=====================
+   
+   /** Retrieves a string from the string table, decoding it on first use.
+       @param index The string index.
+       @return The string.*/
+   public String getString(int index){
+      String text = strings[index];
+      if (text == null){
+         //Racing threads may both decode it; either copy is equal and immutable, so that is harmless
+         int start = data.getInt(stringOffsets + 4 * index);
+         int end = data.getInt(stringOffsets + 4 * (index + 1));
+         ByteBuffer bytes = data.duplicate();
+         bytes.position(blobStart + start).limit(blobStart + end);
+         text = StandardCharsets.UTF_8.decode(bytes).toString();
+         strings[index] = text;
+      }
+      return text;
+   }
+   
+   /** Retrieves a string compiled as a text template, compiling it on first use.
+       Every session renders the same compiled template with its own player's details.
+       @param index The string index.
+       @return The template.*/
+   public TextTemplate getTemplate(int index){
+      TextTemplate template = templates[index];
+      if (template == null){
+         template = TextTemplate.compile(getString(index)); //Same benign race as getString
+         templates[index] = template;
+      }
+      return template;
+   }
+   
+   /** Retrieves what every session shows the same way: choice options and prompts, "You chose" lines
+       and puzzle picks. Built on first use and then shared.
+       @return The story's ContentCache.*/
+   public ContentCache getContent(){
+      ContentCache cache = content;
+      if (cache == null){
+         cache = new ContentCache(this); //Its fields are final, so a racing thread sees it whole or builds its own
+         content = cache;
+      }
+      return cache;
+   }
+   
+   /** Retrieves the puzzles by ID, to build them for a session or grade answers in bulk.
+       Built on first use and then shared.
+       @return The story's PuzzleRegistry.*/
+   public PuzzleRegistry getPuzzles(){
+      PuzzleRegistry registry = puzzles;
+      if (registry == null){
+         registry = new PuzzleRegistry(this); //Same benign race as getContent()
+         puzzles = registry;
+      }
+      return registry;
+   }
+   
+   /** Decodes every string, compiles every template and matcher and builds the ContentCache now,
+       spread over the common pool, so the first player does not pay for it scene by scene.
+       Safe while sessions are playing, thanks to the same benign races as lazy loading.
+       @return This story, for chaining.*/
+   public StoryPack prewarm(){
+      IntStream.range(0, stringCount).parallel().forEach(this::getTemplate);
+      IntStream.range(0, puzzleCount).parallel().forEach(this::getPuzzleMatcher);
+      getContent();
+      getPuzzles();
+      return this;
+   }
+   
+   /** Retrieves the number of distinct strings in the pack.
+       @return The string count.*/
+   public int getStringCount(){
+      return stringCount;
+   }
+   
+   //==================SCENES=====================
+   
+   /** @return The scene the story starts at.*/
+   public int getStartScene(){
+      return startScene;
+   }
+   
+   /** @return The scene reached when the player cancels a dialog.*/
+   public int getCancelledScene(){
+      return cancelledScene;
+   }
+   
+   /** @return The number of scenes in the story.*/
+   public int getSceneCount(){
+      return sceneCount;
+   }
+   
+   /** Retrieves the name of a scene as written in the story script.
+       @param scene The scene index.
+       @return The scene name.*/
+   public String getSceneName(int scene){
+      return getString(data.getInt(scenesStart + 12 * scene));
+   }
+   
+   /** Looks up a scene by name.
+       @param name The scene name from the story script.
+       @return The scene index, or -1 if there is no such scene.*/
+   public int findScene(String name){
+      for (int scene = 0; scene < sceneCount; scene++){
+         if (getSceneName(scene).equals(name)){
+            return scene;
+         }
+      }
+      return -1;
+   }
+   
+   /** @return The index of the first operation of a scene.*/
+   public int getFirstOp(int scene){
+      return data.getInt(scenesStart + 12 * scene + 4);
+   }
+   
+   /** @return The number of operations in a scene; the last one is always CHOICE, PUZZLE, GOTO or END.*/
+   public int getOpCount(int scene){
+      return data.getInt(scenesStart + 12 * scene + 8);
+   }
+   
+   /** Retrieves the operation a scene ends with: its CHOICE, PUZZLE, GOTO or END.
+       Choices and puzzles can only end a scene, so this is where to look for them.
+       @param scene The scene index.
+       @return The operation index.*/
+   public int getLastOp(int scene){
+      return getFirstOp(scene) + getOpCount(scene) - 1;
+   }
+   
+   /** Retrieves the puzzle a scene asks.
+       @param scene The scene index.
+       @return The puzzle index, or -1 if the scene does not end with a puzzle.*/
+   public int getScenePuzzle(int scene){
+      int last = getLastOp(scene);
+      return getOpCode(last) == PUZZLE ? getOpArg(last, 0) : -1;
+   }
+   
+   /** Checks if a scene ends the playthrough.
+       @param scene The scene index.
+       @return true if the scene's last operation is END.*/
+   public boolean isEnding(int scene){
+      return getOpCode(getLastOp(scene)) == END;
+   }
+   
+   /** Retrieves the replay question of an ending scene.
+       @param scene The ending scene.
+       @return The question, or null if the ending uses the default one.*/
+   public String getReplayPrompt(int scene){
+      int prompt = getOpArg(getLastOp(scene), 0);
+      return prompt < 0 ? null : getString(prompt);
+   }
+   
+   //==================OPERATIONS=====================
+   
+   /** @return The code (SAY, GIVE, ...) of an operation.*/
+   public int getOpCode(int op){
+      return data.getInt(opsStart + 16 * op);
+   }
+   
+   /** Retrieves an argument of an operation; see the operation codes for their meaning.
+       @param op The operation index.
+       @param arg The argument number (0 to 2).
+       @return The argument value.*/
+   public int getOpArg(int op, int arg){
+      return data.getInt(opsStart + 16 * op + 4 + 4 * arg);
+   }
+   
+   /** @return The text of a choice option or puzzle pick.*/
+   public String getOptionText(int option){
+      return getString(data.getInt(optionsStart + 8 * option));
+   }
+   
+   /** @return The scene a choice option leads to.*/
+   public int getOptionTarget(int option){
+      return data.getInt(optionsStart + 8 * option + 4);
+   }
+   
+   //==================PUZZLES=====================
+   
+   /* Reads one field (a P_ constant) of a puzzle record.*/
+   int puzzleField(int puzzle, int field){
+      return data.getInt(puzzlesStart + 4 * (PUZZLE_RECORD * puzzle + field));
+   }
+   
+   /** @return The number of puzzles in the story.*/
+   public int getPuzzleCount(){
+      return puzzleCount;
+   }
+   
+   /** @return TEXT_PUZZLE or CHOICE_PUZZLE.*/
+   public int getPuzzleKind(int puzzle){
+      return puzzleField(puzzle, P_KIND);
+   }
+   
+   /** @return The question shown before the puzzle.*/
+   public String getPuzzleQuestion(int puzzle){
+      return getString(puzzleField(puzzle, P_QUESTION));
+   }
+   
+   /** @return The correct answer (a pick's text for choice puzzles).*/
+   public String getPuzzleAnswer(int puzzle){
+      return getString(puzzleField(puzzle, P_ANSWER));
+   }
+   
+   /** @return The message shown after a wrong attempt.*/
+   public String getPuzzleWrongMessage(int puzzle){
+      return getString(puzzleField(puzzle, P_WRONG));
+   }
+   
+   /** @return The message shown when every attempt is used up.*/
+   public String getPuzzleFailMessage(int puzzle){
+      return getString(puzzleField(puzzle, P_FAIL));
+   }
+   
+   /** @return The hint of a text puzzle, or null if it has none.*/
+   public String getPuzzleHint(int puzzle){
+      int hint = puzzleField(puzzle, P_HINT);
+      return hint < 0 ? null : getString(hint);
+   }
+   
+   /** @return The scene reached when the puzzle is solved.*/
+   public int getPuzzleSuccess(int puzzle){
+      return puzzleField(puzzle, P_SUCCESS);
+   }
+   
+   /** @return The scene reached when the puzzle is failed or cancelled.*/
+   public int getPuzzleFailure(int puzzle){
+      return puzzleField(puzzle, P_FAILURE);
+   }
+   
+   /** @return The option index of the first pick of a choice puzzle.*/
+   public int getPuzzleFirstPick(int puzzle){
+      return puzzleField(puzzle, P_FIRST_PICK);
+   }
+   
+   /** @return The number of picks of a choice puzzle.*/
+   public int getPuzzlePickCount(int puzzle){
+      return puzzleField(puzzle, P_PICK_COUNT);
+   }
+   
+   /** Retrieves how a puzzle checks answers: its answer and accepted synonyms,
+       compared exactly, as anagrams or with a few typos allowed.
+       The matcher is built the first time it is needed and then shared, like the strings.
+       @param puzzle The puzzle index.
+       @return The puzzle's AnswerMatcher.*/
+   public AnswerMatcher getPuzzleMatcher(int puzzle){
+      AnswerMatcher matcher = matchers[puzzle];
+      if (matcher == null){
+         //Matchers never change, so two sessions racing here just build equal copies
+         matcher = buildMatcher(puzzle);
+         matchers[puzzle] = matcher;
+      }
+      return matcher;
+   }
+   
+   private AnswerMatcher buildMatcher(int puzzle){
+      int firstAccept = puzzleField(puzzle, P_FIRST_ACCEPT);
+      AnswerMatcher[] accepted = new AnswerMatcher[1 + puzzleField(puzzle, P_ACCEPT_COUNT)];
+      for (int i = 0; i < accepted.length; i++){
+         String answer = i == 0 ? getPuzzleAnswer(puzzle) : getOptionText(firstAccept + i - 1);
+         switch (puzzleField(puzzle, P_MATCH)){
+            case MATCH_ANAGRAM: accepted[i] = AnswerMatcher.anagram(answer); break;
+            case MATCH_EDITS: accepted[i] = AnswerMatcher.withinEdits(answer, puzzleField(puzzle, P_MATCH_ARG)); break;
+            default: accepted[i] = AnswerMatcher.exact(answer); break;
+         }
+      }
+      return accepted.length == 1 ? accepted[0] : AnswerMatcher.anyOf(accepted);
+   }
+}
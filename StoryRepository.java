@@ -0,0 +1,178 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+  Holds the current version of a story and swaps in a new one without restarting anything.
+  A session keeps the StoryPack it was created with (AdventureManager never asks for another),
+  so a running game stays on the version it started on while new sessions get the new one.
+  Swapping is a single pointer publish: reload() compiles and prewarms the new version, then sets
+  the reference, so readers never lock and never see a half-loaded story. The old pack stays
+  mapped until its last session ends, since StoryCompiler replaces the pack file rather than
+  rewriting it. Reloads are serialized; a script that does not compile leaves the current version in place.
+  */
+public final class StoryRepository implements AutoCloseable {
+   private static StoryRepository defaultRepository; // mansion.story, loaded on first use.
+
+   private final Path script; // The story script, or null for a fixed story.
+   private final Path pack; // Where the script is compiled to, or null for a fixed story.
+   private final AtomicReference<Version> current = new AtomicReference<>();
+   private ScheduledExecutorService watcher; // Reloads when the script changes; null until startWatching().
+   private FileTime watchedTime; // The script's modification time when it was last loaded.
+
+   /** Creates a repository for a story script and loads its first version.
+       @param script The story script.
+       @param pack The compiled pack, rebuilt from the script when it is missing or out of date.
+       @throws IOException if the story cannot be loaded.*/
+   public StoryRepository(Path script, Path pack) throws IOException {
+      this.script = script;
+      this.pack = pack;
+      watchedTime = modified();
+      current.set(new Version(1, StoryPack.load(script, pack)));
+   }
+
+   /* Creates a repository that always serves the same story.*/
+   private StoryRepository(StoryPack story){
+      this.script = null;
+      this.pack = null;
+      current.set(new Version(1, story));
+   }
+
+   /** Wraps a story that is never reloaded, for hosts given a StoryPack directly.
+       @param story The story.
+       @return A repository whose version never changes.*/
+   public static StoryRepository of(StoryPack story){
+      return new StoryRepository(story);
+   }
+
+   /** Retrieves the repository of the default story: mansion.story compiled into mansion.pack.
+       @return The default repository, loaded on first use.
+       @throws UncheckedIOException if the story cannot be loaded.*/
+   public static synchronized StoryRepository getDefault(){
+      if (defaultRepository == null){
+         try {
+            defaultRepository = new StoryRepository(Paths.get("mansion.story"), Paths.get("mansion.pack"));
+         } catch (IOException e){
+            throw new UncheckedIOException("Could not load the Mystery Mansion story", e);
+         }
+      }
+      return defaultRepository;
+   }
+
+   /** One published version of the story. Immutable.*/
+   public static final class Version {
+      private final int number;
+      private final StoryPack story;
+      private final long loadedAt;
+
+      Version(int number, StoryPack story){
+         this.number = number;
+         this.story = story;
+         this.loadedAt = System.currentTimeMillis();
+      }
+
+      /** @return The version number, from 1 for the story loaded first.*/
+      public int getNumber(){
+         return number;
+      }
+
+      /** @return The story of this version.*/
+      public StoryPack getStory(){
+         return story;
+      }
+
+      /** @return When the version was published, in milliseconds since the epoch.*/
+      public long getLoadedAt(){
+         return loadedAt;
+      }
+
+      @Override
+      public String toString(){
+         return "story version " + number;
+      }
+   }
+
+   /** @return The version new sessions get. Never blocks.*/
+   public Version current(){
+      return current.get();
+   }
+
+   /** @return The story new sessions should play. Never blocks.*/
+   public StoryPack getStory(){
+      return current.get().story;
+   }
+
+   /** Compiles the script again and publishes the result as a new version.
+       Sessions already running keep the version they have.
+       @return The new version.
+       @throws IOException if the script cannot be read or the pack cannot be written.
+       @throws IllegalArgumentException if the script does not compile; the current version stays.
+       @throws IllegalStateException if the repository serves a fixed story.*/
+   public synchronized Version reload() throws IOException {
+      if (script == null){
+         throw new IllegalStateException("This story was not loaded from a script");
+      }
+      FileTime time = modified();
+      StoryCompiler.compile(script, pack); //Replaces the pack file; the old mapping stays valid
+      StoryPack story = StoryPack.open(pack).prewarm(); //Ready before any session sees it
+      Version next = new Version(current.get().number + 1, story);
+      current.set(next);
+      watchedTime = time;
+      return next;
+   }
+
+   /** Checks the script every period, on a background thread, and reloads it when it has changed.
+       A script that fails to compile is reported and tried again once it changes again.
+       close() stops it.
+       @param period Time between checks.
+       @param unit The unit of period.*/
+   public synchronized void startWatching(long period, TimeUnit unit){
+      if (script == null){
+         throw new IllegalStateException("This story was not loaded from a script");
+      }
+      if (watcher != null){
+         throw new IllegalStateException("The story is already being watched");
+      }
+      watcher = Executors.newSingleThreadScheduledExecutor(task -> {
+         Thread thread = new Thread(task, "story-watch");
+         thread.setDaemon(true);
+         return thread;
+      });
+      watcher.scheduleWithFixedDelay(this::reloadIfChanged, period, period, unit);
+   }
+
+   /* Reloads the script if its modification time moved since it was last loaded.*/
+   private synchronized void reloadIfChanged(){
+      try {
+         FileTime time = modified();
+         if (time == null || time.equals(watchedTime)){
+            return;
+         }
+         watchedTime = time; //A broken script is not compiled again until it changes again
+         System.err.println("Reloaded " + script + " as " + reload());
+      } catch (IOException | RuntimeException e){
+         System.err.println("Could not reload " + script + ": " + e.getMessage()); //Keep the current version
+      }
+   }
+
+   /* The script's modification time, or null if it is missing.*/
+   private FileTime modified() throws IOException {
+      return Files.exists(script) ? Files.getLastModifiedTime(script) : null;
+   }
+
+   /** Stops the watching started by startWatching().*/
+   @Override
+   public synchronized void close(){
+      if (watcher != null){
+         watcher.shutdownNow();
+         watcher = null;
+      }
+   }
+}
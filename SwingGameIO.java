@@ -0,0 +1,278 @@
+import java.awt.GraphicsEnvironment;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import javax.imageio.ImageIO;
+import javax.swing.*;// Import JOptionPane for dialog boxes and other Swing components
+
+/**
+  GameIO implementation that shows every message and question as a JOptionPane dialog.
+  This is the classic desktop front end started from AdventureGame.main.
+  Dialogs are built and shown on the event dispatch thread, whichever thread the game runs on.
+  The mansion image is decoded in the background as soon as the first SwingGameIO is made,
+  and the welcome dialog does not wait for it: the picture appears once it is ready.
+  A training front end (see training()) builds the same dialogs but answers them from a script.
+  */
+public class SwingGameIO implements GameIO {
+   private static CompletableFuture<ImageIcon> mansionImage; // Decoding or decoded; started by the first front end.
+   private Runnable welcomeShown; // Told when the welcome dialog is on screen, or null.
+   private final Deque<String> script; // Training answers still to give, or null to show dialogs to a player.
+   
+   /** Creates a Swing front end and starts decoding the mansion image, if no other one has.*/
+   public SwingGameIO(){
+      this(null);
+   }
+   
+   /* Creates a front end that shows its dialogs, or answers them from the script if there is one.*/
+   private SwingGameIO(Deque<String> script){
+      this.script = script;
+      preloadImage();
+   }
+   
+   /** Creates a front end for training runs (see AdventureGame --train) that builds every dialog as
+       a launch does, without showing it, and answers it from a script. Works headless.
+       @param answers The answers in the order the questions are asked, as for ScriptedGameIO:
+                      "yes"/"no" for the welcome and confirmations, the text for text questions and
+                      an option number from 0 for choices, or -1 to close the dialog. Every question
+                      after the last answer is closed.
+       @return The training front end.*/
+   static SwingGameIO training(String... answers){
+      return new SwingGameIO(new ArrayDeque<>(Arrays.asList(answers)));
+   }
+   
+   /** Starts decoding mansion.png on a background thread, once per process.
+       @return The image, completed exceptionally if it cannot be read.*/
+   public static synchronized CompletableFuture<ImageIcon> preloadImage(){
+      if (mansionImage == null){
+         mansionImage = CompletableFuture.supplyAsync(() -> {
+            try {
+               return new ImageIcon(ImageIO.read(new File("mansion.png")));
+            } catch (IOException e){
+               throw new UncheckedIOException(e);
+            }
+         });
+      }
+      return mansionImage;
+   }
+   
+   /** Sets what to run once the welcome dialog is on screen, ex. to time startup.
+       @param listener Run on the event dispatch thread, or null for nothing.*/
+   public void setWelcomeListener(Runnable listener){
+      welcomeShown = listener;
+   }
+   
+   /** Shows the welcome dialog with the mansion image above the message.
+       @param message The welcome text; line breaks are kept.
+       @return true if the player clicked Start.*/
+   @Override
+   public boolean showWelcome(String message){
+      return onEdt(() -> welcome(message));
+   }
+   
+   /* Builds and shows the welcome dialog. Called on the event dispatch thread.*/
+   private boolean welcome(String message){
+      //The image label; the image is filled in when decoded
+      JLabel imageLabel = new JLabel();
+      CompletableFuture<ImageIcon> image = preloadImage();
+      ImageIcon ready = script == null ? image.getNow(null) : decoded(image); //Training waits, so the image is laid out too
+      if (ready != null){
+         imageLabel.setIcon(ready);
+      }
+      JOptionPane pane = createWelcomePane(message, imageLabel);
+      if (script != null){
+         train(pane, "Mystery Mansion", answer -> answer.equalsIgnoreCase("yes") ? pane.getInitialValue() : null);
+         return pane.getInitialValue().equals(pane.getValue());
+      }
+      JDialog dialog = pane.createDialog(null, "Mystery Mansion"); //Parent null for centered
+      if (ready == null){
+         image.thenAccept(icon -> SwingUtilities.invokeLater(() -> {
+            imageLabel.setIcon(icon);
+            dialog.pack();
+            dialog.setLocationRelativeTo(null);
+         }));
+      }
+      Runnable listener = welcomeShown;
+      if (listener != null){
+         dialog.addWindowListener(new WindowAdapter(){
+            @Override
+            public void windowOpened(WindowEvent e){
+               listener.run();
+            }
+         });
+      }
+      dialog.setVisible(true); //Blocks until the player answers
+      dialog.dispose();
+      return pane.getInitialValue().equals(pane.getValue());
+   }
+   
+   /** Builds the content of the welcome dialog without showing it.
+       @param message The welcome text; line breaks are kept.
+       @param imageLabel The label holding the mansion image, which may be filled in later.
+       @return The pane, with Start as its first and initial option.*/
+   static JOptionPane createWelcomePane(String message, JLabel imageLabel){
+      //Create a panel to hold the image and message, arranged vertically
+      JPanel panel = new JPanel();
+      panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
+      
+      //Center the image label horizontally
+      imageLabel.setAlignmentX(JLabel.CENTER_ALIGNMENT);
+      
+      //Create and add the welcome message label, centered horizontally
+      // Uses HTML for formatting (ex. centering and line breaks)
+      JLabel messageLabel = new JLabel("<html><center>"
+         + message.replace("\n", "<br>") + "<br><br>"
+         + "Click Start to begin."
+         + "</center></html>");
+      messageLabel.setAlignmentX(JLabel.CENTER_ALIGNMENT);
+      
+      //Add the image and message to the panel
+      panel.add(imageLabel);
+      panel.add(messageLabel);
+      
+      //Define options for the dialog: Start or Exit
+      Object[] options = {"Start", "Exit"};
+      
+      //Build the welcome pane with the panel, image, and message, as JOptionPane.showOptionDialog does
+      return new JOptionPane(
+               panel, //Content to display
+               JOptionPane.PLAIN_MESSAGE, // Message type (plain, no icon)
+               JOptionPane.YES_NO_OPTION, // Option type (Yes/No buttons)
+               null, //Icon? (none)
+               options, //Button options
+               options[0] //Default selection (Start)
+      );
+   }
+   
+   @Override
+   public void showMessage(String message, String title, MessageType type){
+      onEdt(() -> {
+         //Built as JOptionPane.showMessageDialog does
+         show(new JOptionPane(message, toOptionPaneType(type), JOptionPane.DEFAULT_OPTION), title, null);
+         return null;
+      });
+   }
+   
+   @Override
+   public int showOptions(String message, String title, String[] options){
+      return onEdt(() -> {
+         JOptionPane pane = new JOptionPane(message, JOptionPane.QUESTION_MESSAGE, JOptionPane.DEFAULT_OPTION,
+               null, options, options[0]);
+         show(pane, title, answer -> {
+            int choice = Integer.parseInt(answer.trim());
+            if (choice < -1 || choice >= options.length){
+               throw new IllegalStateException("Scripted choice " + choice + " is out of range for: " + message);
+            }
+            return choice == -1 ? null : options[choice];
+         });
+         //Closing the dialog counts as a cancellation
+         return Arrays.asList(options).indexOf(pane.getValue());
+      });
+   }
+   
+   @Override
+   public String askText(String message, String title){
+      return onEdt(() -> {
+         //Built as JOptionPane.showInputDialog does
+         JOptionPane pane = new JOptionPane(message, JOptionPane.QUESTION_MESSAGE, JOptionPane.OK_CANCEL_OPTION);
+         pane.setWantsInput(true);
+         show(pane, title, answer -> {
+            pane.setInputValue(answer);
+            return JOptionPane.OK_OPTION;
+         });
+         Object text = pane.getInputValue();
+         return text == JOptionPane.UNINITIALIZED_VALUE ? null : (String) text;
+      });
+   }
+   
+   @Override
+   public boolean confirm(String message, String title){
+      return onEdt(() -> {
+         JOptionPane pane = new JOptionPane(message, JOptionPane.QUESTION_MESSAGE, JOptionPane.YES_NO_OPTION);
+         show(pane, title, answer -> answer.equalsIgnoreCase("yes") ? JOptionPane.YES_OPTION : JOptionPane.NO_OPTION);
+         return Integer.valueOf(JOptionPane.YES_OPTION).equals(pane.getValue());
+      });
+   }
+   
+   /* Shows a pane in a modal dialog until the player answers it, which leaves the answer in the pane.
+      A training front end builds the dialog but answers it with scripted instead (see train()).
+      Called on the event dispatch thread.*/
+   private void show(JOptionPane pane, String title, Function<String, Object> scripted){
+      if (script != null){
+         train(pane, title, scripted);
+         return;
+      }
+      pane.setComponentOrientation(JOptionPane.getRootFrame().getComponentOrientation());
+      JDialog dialog = pane.createDialog(null, title); //Parent null for centered
+      pane.selectInitialValue();
+      dialog.setVisible(true); //Blocks until the player answers
+      dialog.dispose();
+   }
+   
+   /* Builds a pane's dialog without showing it and sets the next scripted answer, turned into the
+      pane's value by scripted, or closes it if the script has run out. Without a screen no window
+      can be made, so only the content is laid out. A null scripted takes no answer, ex. for messages.*/
+   private void train(JOptionPane pane, String title, Function<String, Object> scripted){
+      if (GraphicsEnvironment.isHeadless()){
+         JDialog.isDefaultLookAndFeelDecorated(); //Loads the dialog class, as createDialog asks this first
+         pane.getPreferredSize();
+      } else {
+         pane.createDialog(null, title).dispose();
+      }
+      if (scripted != null){
+         String answer = script.poll();
+         pane.setValue(answer == null ? null : scripted.apply(answer));
+      }
+   }
+   
+   /* The decoded image, or null if it cannot be read.*/
+   private static ImageIcon decoded(CompletableFuture<ImageIcon> image){
+      try {
+         return image.join();
+      } catch (RuntimeException e){
+         return null; //No image to show; the rest of the dialog is still worth building
+      }
+   }
+   
+   /* Runs a dialog on the event dispatch thread and waits for its answer.
+      Swing components may only be touched there; the game itself runs on any other thread.*/
+   private static <T> T onEdt(Supplier<T> dialog){
+      if (SwingUtilities.isEventDispatchThread()){
+         return dialog.get();
+      }
+      Object[] result = new Object[1];
+      try {
+         SwingUtilities.invokeAndWait(() -> result[0] = dialog.get());
+      } catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while showing a dialog", e);
+      } catch (InvocationTargetException e){
+         if (e.getCause() instanceof RuntimeException){
+            throw (RuntimeException) e.getCause();
+         }
+         throw new IllegalStateException("Could not show a dialog", e.getCause());
+      }
+      @SuppressWarnings("unchecked")
+      T answer = (T) result[0];
+      return answer;
+   }
+   
+   /* Maps a MessageType onto the matching JOptionPane message constant.*/
+   private static int toOptionPaneType(MessageType type){
+      switch (type){
+         case PLAIN: return JOptionPane.PLAIN_MESSAGE;
+         case WARNING: return JOptionPane.WARNING_MESSAGE;
+         case ERROR: return JOptionPane.ERROR_MESSAGE;
+         case QUESTION: return JOptionPane.QUESTION_MESSAGE;
+         default: return JOptionPane.INFORMATION_MESSAGE;
+      }
+   }
+}
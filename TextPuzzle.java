@@ -1,5 +1,3 @@
-import javax.swing.JOptionPane;
-   
    /**
     Represents a text-based puzzle in the Mystery Mansion game.
     Extends the base Puzzle class to handle input-based questions with hint support and retry logic.
@@ -8,6 +6,8 @@ import javax.swing.JOptionPane;
    public class TextPuzzle extends Puzzle {
       
       private String hint; // An optional clue that can be displayed to the player upon request.
+      private static final AnswerMatcher HINT_REQUEST = AnswerMatcher.exact("HINT"); // Typing HINT in any case asks for the clue.
+      private static final Prompt ANSWER = new Prompt(Prompt.TEXT, "Enter your answer (or type \'HINT\' for a clue):", "Puzzle", null); // Asked for every attempt.
       
        /**
         Creates a new text-based puzzle with question, answer, messages, and hint.
@@ -23,67 +23,55 @@ import javax.swing.JOptionPane;
       }
       
       /**
-        Attempts to solve the puzzle by prompting the player for text input.
-        Allows up to 3 attempts, with options to request a hint or submit an answer.
-        Input is sanitized and validated for correctness.
-        @return true if the puzzle is solved correctly within attempts, false otherwise.
+        Shows the question and asks for the first answer.
+        Allows the attempts of the puzzle's AttemptPolicy (3 by default), with options to request a hint or submit an answer.
+        @param io The front end used to talk to the player.
+        @return The answer prompt, or null if no attempts are left.
         */
       @Override
-      public boolean attemptSolve(){
+      public Prompt start(GameIO io){
          // Display the puzzle question to set the context
-         JOptionPane.showMessageDialog(null, question);
-         
-         boolean solved = false;
-         int attempts = 0;
-         final int MAX_ATTEMPTS = 3;
-         
-         //Loop until solved or max attempts reached
-         while (!solved && attempts < MAX_ATTEMPTS){
-               //Prompt for user input, allowing hint requests
-               String answer = getPuzzleInput("Enter your answer (or type \'HINT\' for a clue):", "Puzzle");
-               
-               //Handle hint request without counting as an attempt
-               if (answer.equals("HINT")){
-                  provideHint();
-                  continue;//skip to next iteration
-               }
-               //Check if the answer is correct
-               if (isCorrect(answer)){
-                  solved = true;
-               } else {
-                  attempts++;
-                  
-                  //Provide feedback based on remaining attempts
-                  if (attempts < MAX_ATTEMPTS){
-                     JOptionPane.showMessageDialog(
-                          null, 
-                          wrongMsg, 
-                          "Incorrect", 
-                          JOptionPane.ERROR_MESSAGE);
-                         
-                  } else{
-                      //All attempts exhausted
-                     JOptionPane.showMessageDialog(
-                          null, 
-                          failMsg, 
-                          "Game Over", 
-                          JOptionPane.ERROR_MESSAGE);
-                  }
-               }
-          }
-          return solved;
+         io.showMessage(question);
+         return ask(ANSWER); //Attempts start at 0, or where a restored session left off
+      }
+      
+      /**
+        Checks one typed answer: a hint request, a correct answer or a wrong one.
+        Input is sanitized and validated for correctness.
+        @param text The text the player entered, or null if cancelled.
+        @param io The front end used to talk to the player.
+        @return The answer prompt again, or null once the puzzle is solved or every attempt is used.
+        */
+      @Override
+      public Prompt answer(String text, GameIO io){
+         String answer = acceptInput(text, io);
+         if (answer == null){
+            return ANSWER; //Blank, ask again
+         }
+         //Handle hint request without counting as an attempt
+         if (HINT_REQUEST.matches(answer)){
+            provideHint(io);
+            return ANSWER;
+         }
+         //Check the answer; wrong ones use up an attempt
+         return judge(isCorrect(answer), ANSWER, io);
       }
       
        /**
         Displays the hint for this puzzle in a dialog.
         Called when the player requests help during puzzle attempts.
+        @param io The front end used to show the hint.
         */
-      public void provideHint(){
-         JOptionPane.showMessageDialog(
-               null, 
-               "Hint: " + hint, 
+      public void provideHint(GameIO io){
+         int level = attempt.requestHint();
+         if (level == 0){
+            io.showMessage("No more hints for this puzzle.", "Hint", MessageType.WARNING);
+            return;
+         }
+         io.showMessage(
+               "Hint: " + attempt.getPolicy().hintText(level, hint, correctAnswer), 
                "Hint", 
-               JOptionPane.INFORMATION_MESSAGE);
+               MessageType.INFORMATION);
      
       }
    }
\ No newline at end of file
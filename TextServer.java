@@ -0,0 +1,626 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+  Line-oriented text front end for many players over TCP (raw or telnet): each connection plays
+  its own stepped AdventureManager session, shown the way ConsoleGameIO shows it, with options as
+  numbered lines. A few event-loop threads, each with its own NIO selector, serve every connection;
+  no thread waits on a player, since a session only runs when a line arrives.
+  Story text that never changes is encoded once per story version into shared direct buffers, and every
+  connection writes it from there with gathering writes, so it is not copied or encoded per player.
+  New players get the current version of the story; connected players keep the one they started on.
+  Slow clients get backpressure: once too much output is waiting for one, the server stops reading
+  its input (and so stops running its game) until the backlog drains.
+  Run it with: java TextServer [port] [event loops], then: telnet localhost 2323
+  (or load it with TextServerClient).
+  */
+public class TextServer implements AutoCloseable {
+   /** The port used unless another is given.*/
+   public static final int DEFAULT_PORT = 2323;
+   private static final int HIGH_WATER = 64 * 1024; // Stop reading from a client with this much output unsent.
+   private static final int LOW_WATER = 16 * 1024; // Read from it again once its backlog is down to this.
+   private static final int MAX_LINE = 1024; // Longest input line accepted, in bytes.
+   private static final int IAC = 255; // Telnet "interpret as command": the next byte is a command, or 255 itself.
+   private static final int WILL = 251; // Telnet WILL, WONT, DO and DONT (251-254) are each followed by one option byte.
+   private static final int DONT = 254;
+   private static final int SB = 250; // Telnet subnegotiation: everything up to IAC SE belongs to it.
+   private static final int SE = 240;
+
+   private final StoryRepository stories; // Where new sessions get their story.
+   private volatile EncodedStory encoded; // The newest story version seen, with its text encoded.
+   private final ServerSocketChannel server;
+   private final EventLoop[] loops;
+   private final Map<MessageType, Map<String, ByteBuffer>> headers = new EnumMap<>(MessageType.class); // "=== Title ===" lines.
+   private final List<GameListener> listeners = new CopyOnWriteArrayList<>(); // Added to every new session.
+   private final AtomicInteger connections = new AtomicInteger();
+   private final AtomicLong nextSession = new AtomicLong(); // Session ids for the journal.
+   private volatile DecisionJournal journal; // Records every new session's decisions, or null.
+   private int nextLoop; // Round-robin over the loops for new connections; only the accepting loop uses it.
+   private volatile boolean closed;
+
+   private static final ByteBuffer NEWLINE = constant("\r\n");
+   private static final ByteBuffer ANSWER_PROMPT = constant("> ");
+   private static final ByteBuffer GREETING = constant("=== Mystery Mansion ===\r\n"
+         + "Welcome to Mystery Mansion, where your adventure awaits!\r\n"
+         + "Before we begin, what is your name?\r\n> ");
+
+   /** Starts a server for the default story on DEFAULT_PORT of every interface, with one event loop.
+       @throws IOException if the port cannot be opened.*/
+   public TextServer() throws IOException {
+      this(StoryRepository.getDefault(), new InetSocketAddress(DEFAULT_PORT), 1);
+   }
+
+   /** Starts a server for a story that is never reloaded.
+       @param story The compiled story every player plays.
+       @param address Where to listen; port 0 picks a free port (see getPort()).
+       @param loopCount The number of event-loop threads.
+       @throws IOException if the address cannot be opened.*/
+   public TextServer(StoryPack story, InetSocketAddress address, int loopCount) throws IOException {
+      this(StoryRepository.of(story), address, loopCount);
+   }
+
+   /** Starts a server.
+       @param stories Where the story is published; each player plays the version current when they connect.
+       @param address Where to listen; port 0 picks a free port (see getPort()).
+       @param loopCount The number of event-loop threads.
+       @throws IOException if the address cannot be opened.*/
+   public TextServer(StoryRepository stories, InetSocketAddress address, int loopCount) throws IOException {
+      this.stories = stories;
+      this.encoded = new EncodedStory(stories.getStory());
+      for (MessageType type : MessageType.values()){
+         headers.put(type, new ConcurrentHashMap<>());
+      }
+      server = ServerSocketChannel.open();
+      server.bind(address);
+      server.configureBlocking(false);
+      loops = new EventLoop[loopCount];
+      for (int i = 0; i < loopCount; i++){
+         loops[i] = new EventLoop(i);
+      }
+      server.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+      for (EventLoop loop : loops){
+         loop.thread.start();
+      }
+   }
+
+   /** Observes every session started from now on, ex. with GameMetrics or a Leaderboard.
+       @param listener The listener to add to each new session.*/
+   public void addListener(GameListener listener){
+      listeners.add(listener);
+   }
+
+   /** Records the decisions of every session started from now on. Sessions are stepped on the
+       event loops, so use FsyncPolicy.NONE: with DATA or FULL every answer would hold up a loop
+       until the disk has it.
+       @param journal The journal to append to, or null to stop recording.*/
+   public void setJournal(DecisionJournal journal){
+      this.journal = journal;
+   }
+
+   /** @return The port the server listens on.*/
+   public int getPort(){
+      try {
+         return ((InetSocketAddress) server.getLocalAddress()).getPort();
+      } catch (IOException e){
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   /** @return The number of players connected.*/
+   public int getConnections(){
+      return connections.get();
+   }
+
+   /** Stops accepting players, drops every connection and stops the event loops.*/
+   @Override
+   public void close(){
+      closed = true;
+      try {
+         server.close();
+      } catch (IOException e){
+         //Closing anyway
+      }
+      for (EventLoop loop : loops){
+         loop.selector.wakeup();
+      }
+      for (EventLoop loop : loops){
+         try {
+            loop.thread.join(5000);
+         } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return;
+         }
+      }
+   }
+
+   //==================EVENT LOOP=====================
+
+   /* One selector and the thread that runs it. Everything about a connection, including its game, runs here.*/
+   private final class EventLoop implements Runnable {
+      final Selector selector;
+      final Thread thread;
+      final Queue<SocketChannel> incoming = new ConcurrentLinkedQueue<>(); // Accepted by another loop, to register here.
+      final ByteBuffer readBuffer = ByteBuffer.allocateDirect(16 * 1024); // Shared by every connection of this loop.
+
+      EventLoop(int index) throws IOException {
+         selector = Selector.open();
+         thread = new Thread(this, "text-server-" + index);
+         thread.setDaemon(true);
+      }
+
+      @Override
+      public void run(){
+         try {
+            while (!closed){
+               selector.select();
+               SocketChannel channel;
+               while ((channel = incoming.poll()) != null){
+                  register(channel);
+               }
+               for (SelectionKey key : selector.selectedKeys()){
+                  handle(key);
+               }
+               selector.selectedKeys().clear();
+            }
+         } catch (IOException | ClosedSelectorException e){
+            if (!closed){
+               System.err.println("Text server event loop stopped: " + e);
+            }
+         } finally {
+            for (SelectionKey key : selector.keys()){
+               if (key.attachment() instanceof Connection){
+                  ((Connection) key.attachment()).close();
+               }
+            }
+            try {
+               selector.close();
+            } catch (IOException e){
+               //Stopping anyway
+            }
+         }
+      }
+
+      /* Dispatches one ready key.*/
+      private void handle(SelectionKey key){
+         if (!key.isValid()){
+            return;
+         }
+         if (key.isAcceptable()){
+            accept();
+            return;
+         }
+         Connection connection = (Connection) key.attachment();
+         try {
+            if (key.isWritable()){
+               connection.flush();
+            }
+            if (key.isValid() && key.isReadable()){
+               connection.read(readBuffer);
+            }
+         } catch (IOException | RuntimeException e){
+            if (!(e instanceof IOException)){
+               System.err.println("Session failed: " + e); //A bug in a session only drops that player
+            }
+            connection.close();
+         }
+      }
+
+      /* Accepts waiting connections and hands them to the loops in turn.*/
+      private void accept(){
+         try {
+            SocketChannel channel;
+            while ((channel = server.accept()) != null){
+               channel.configureBlocking(false);
+               channel.setOption(StandardSocketOptions.TCP_NODELAY, true); //Each reply is one gathered write; don't hold its tail for an ACK
+               EventLoop loop = loops[nextLoop];
+               nextLoop = (nextLoop + 1) % loops.length;
+               if (loop == this){
+                  register(channel);
+               } else {
+                  loop.incoming.add(channel);
+                  loop.selector.wakeup();
+               }
+            }
+         } catch (IOException e){
+            if (!closed){
+               System.err.println("Could not accept a player: " + e);
+            }
+         }
+      }
+
+      /* Starts serving a new connection on this loop.*/
+      private void register(SocketChannel channel){
+         try {
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            Connection connection = new Connection(channel, key);
+            key.attach(connection);
+            connections.incrementAndGet();
+            connection.write(GREETING.duplicate());
+         } catch (IOException e){
+            try {
+               channel.close();
+            } catch (IOException ignored){
+               //Already gone
+            }
+         }
+      }
+   }
+
+   //==================CONNECTION=====================
+
+   /* Telnet commands in the input, following RFC 854.*/
+   private enum Telnet {
+      DATA, // Ordinary input.
+      COMMAND, // After IAC.
+      OPTION, // After IAC WILL, WONT, DO or DONT.
+      SUBNEGOTIATION, // After IAC SB, until IAC SE.
+      SUBNEGOTIATION_IAC // After IAC inside a subnegotiation.
+   }
+
+   /* One player: the socket, the output waiting to be sent, the partial input line and the game session.
+      Only its event loop touches it, so nothing here is synchronized. It is the session's GameIO,
+      but only for output; questions are rendered from the session's Prompt by the connection itself.*/
+   private final class Connection extends OutputGameIO {
+      private final SocketChannel channel;
+      private final SelectionKey key;
+      private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>(); // Waiting to be written, in order.
+      private ByteBuffer[] gather = new ByteBuffer[8]; // Reused for gathering writes.
+      private long pending; // Bytes in outbound.
+      private final byte[] line = new byte[MAX_LINE]; // The input line being received.
+      private int lineLength;
+      private Telnet telnet = Telnet.DATA; // Where the input is in a telnet command; commands can span reads.
+      private ByteBuffer held; // Input read but not processed while reading is paused; null otherwise.
+      private boolean paused; // Not reading because too much output is waiting.
+      private boolean closing; // Close once the output is written.
+      private AdventureManager session; // Null until the player has given a name.
+      private Map<String, ByteBuffer> storyText = Collections.emptyMap(); // The encoded text of the session's story version.
+
+      Connection(SocketChannel channel, SelectionKey key){
+         this.channel = channel;
+         this.key = key;
+      }
+
+      //------------------input------------------
+
+      /* Reads what the client sent and acts on every complete line.*/
+      void read(ByteBuffer buffer) throws IOException {
+         buffer.clear();
+         int count = channel.read(buffer);
+         if (count < 0){
+            close();
+            return;
+         }
+         buffer.flip();
+         consume(buffer);
+      }
+
+      /* Splits input into lines, dropping telnet commands, until it runs out or output backs up.*/
+      private void consume(ByteBuffer input){
+         while (input.hasRemaining() && !closing){
+            if (paused){
+               held = ByteBuffer.allocate(input.remaining()).put(input).flip(); //Rare: only a client sending ahead
+               return;
+            }
+            int b = input.get() & 0xFF;
+            switch (telnet){
+               case COMMAND: //Option negotiation is simply not answered
+                  telnet = b >= WILL && b <= DONT ? Telnet.OPTION : b == SB ? Telnet.SUBNEGOTIATION : Telnet.DATA;
+                  if (b == IAC){
+                     append(b); //IAC IAC is a 255 data byte
+                  }
+                  break;
+               case OPTION:
+                  telnet = Telnet.DATA;
+                  break;
+               case SUBNEGOTIATION:
+                  if (b == IAC){
+                     telnet = Telnet.SUBNEGOTIATION_IAC;
+                  }
+                  break;
+               case SUBNEGOTIATION_IAC:
+                  telnet = b == SE ? Telnet.DATA : Telnet.SUBNEGOTIATION;
+                  break;
+               default:
+                  if (b == IAC){
+                     telnet = Telnet.COMMAND;
+                  } else if (b == '\n'){
+                     String text = new String(line, 0, lineLength, StandardCharsets.UTF_8);
+                     lineLength = 0;
+                     onLine(text);
+                  } else if (b != '\r' && b != 0){
+                     append(b);
+                  }
+                  break;
+            }
+         }
+      }
+
+      /* Adds a byte to the input line, or closes the connection if the line is too long.*/
+      private void append(int b){
+         if (lineLength == MAX_LINE){
+            write(encode("Line too long.\r\n"));
+            closing = true;
+            flushQuietly();
+            return;
+         }
+         line[lineLength++] = (byte) b;
+      }
+
+      /* Steps the game with one line from the player.*/
+      private void onLine(String text){
+         if (session == null){
+            String name = text.trim().isEmpty() ? "Player" : text.trim();
+            EncodedStory story = currentStory();
+            storyText = story.text;
+            session = new AdventureManager(new Player(name), this, story.story);
+            for (GameListener listener : listeners){
+               session.addListener(listener);
+            }
+            DecisionJournal recorder = journal;
+            if (recorder != null){
+               recorder.start(nextSession.incrementAndGet(), session);
+            }
+            show(session.begin());
+            return;
+         }
+         Prompt prompt = session.getPrompt();
+         Prompt next;
+         switch (prompt.getKind()){
+            case Prompt.CHOICE:
+               int choice = parseChoice(text, prompt.getOptionCount());
+               if (choice < 0){
+                  write(encode("Please enter a number between 1 and " + prompt.getOptionCount() + ".\r\n"));
+                  write(choosePrompt(prompt.getOptionCount()));
+                  return;
+               }
+               next = session.answer(choice);
+               break;
+            case Prompt.TEXT:
+               next = session.answer(text);
+               break;
+            default:
+               next = session.answer(text.trim().toLowerCase().startsWith("y"));
+               break;
+         }
+         show(next);
+      }
+
+      //------------------output: GameIO------------------
+
+      @Override
+      public void showMessage(String message, String title, MessageType type){
+         write(header(title, type));
+         write(body(message));
+         write(NEWLINE.duplicate());
+      }
+
+      @Override
+      public void showText(CharSequence message){
+         write(header("Message", MessageType.INFORMATION));
+         write(encode(message + "\n"));
+         write(NEWLINE.duplicate());
+      }
+
+      /* A line of text: shared and already encoded if it is story text, otherwise encoded now.*/
+      private ByteBuffer body(String text){
+         ByteBuffer shared = storyText.get(text);
+         return shared != null ? shared.duplicate() : encode(text + "\n");
+      }
+
+      /* Writes the session's next question the way ConsoleGameIO asks it, or ends the connection.*/
+      private void show(Prompt prompt){
+         if (prompt == null){
+            closing = true; //The farewell message is already queued
+            flushQuietly();
+            return;
+         }
+         write(header(prompt.getTitle(), MessageType.QUESTION));
+         switch (prompt.getKind()){
+            case Prompt.CHOICE:
+               write(body(prompt.getMessage()));
+               for (int i = 0; i < prompt.getOptionCount(); i++){
+                  write(encode("  " + (i + 1) + ") "));
+                  write(body(prompt.getOption(i)));
+               }
+               write(choosePrompt(prompt.getOptionCount()));
+               break;
+            case Prompt.TEXT:
+               write(body(prompt.getMessage()));
+               write(ANSWER_PROMPT.duplicate());
+               break;
+            default:
+               write(encode(prompt.getMessage() + " (y/n): "));
+               break;
+         }
+      }
+
+      //------------------output: socket------------------
+
+      /* Queues bytes for the client and sends what the socket takes now.*/
+      void write(ByteBuffer data){
+         outbound.add(data);
+         pending += data.remaining();
+         if (pending >= HIGH_WATER && !paused){
+            paused = true; //Backpressure: no more input, so no more game output, until the client catches up
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+         }
+         flushQuietly();
+      }
+
+      /* Writes as much of the queued output as the socket takes, with one gathering write per round.*/
+      void flush() throws IOException {
+         while (!outbound.isEmpty()){
+            int count = Math.min(outbound.size(), 64);
+            if (gather.length < count){
+               gather = new ByteBuffer[count];
+            }
+            int i = 0;
+            for (ByteBuffer buffer : outbound){
+               if (i == count){
+                  break;
+               }
+               gather[i++] = buffer;
+            }
+            long written = channel.write(gather, 0, count);
+            pending -= written;
+            while (!outbound.isEmpty() && !outbound.peek().hasRemaining()){
+               outbound.poll();
+            }
+            Arrays.fill(gather, 0, count, null);
+            if (written == 0){
+               break; //Socket buffer full
+            }
+         }
+         if (outbound.isEmpty()){
+            if (closing){
+               close();
+               return;
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+         } else {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+         }
+         if (paused && pending <= LOW_WATER){
+            paused = false;
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            ByteBuffer input = held;
+            held = null;
+            if (input != null){
+               consume(input); //What the client sent ahead is played now
+            }
+         }
+      }
+
+      /* flush() for callers that cannot take an IOException; a failed socket just ends the connection.*/
+      private void flushQuietly(){
+         try {
+            if (key.isValid()){
+               flush();
+            }
+         } catch (IOException e){
+            close();
+         }
+      }
+
+      void close(){
+         if (!key.isValid()){
+            return;
+         }
+         key.cancel();
+         connections.decrementAndGet();
+         try {
+            channel.close();
+         } catch (IOException e){
+            //Already gone
+         }
+      }
+   }
+
+   //==================ENCODING=====================
+
+   /* A story version with every text that has no placeholders encoded once, keyed by the very
+      String the story hands out. Read-only once built.*/
+   private static final class EncodedStory {
+      final StoryPack story;
+      final Map<String, ByteBuffer> text = new IdentityHashMap<>();
+
+      EncodedStory(StoryPack story){
+         this.story = story;
+         for (int i = 0; i < story.getStringCount(); i++){
+            TextTemplate template = story.getTemplate(i);
+            if (template.isConstant()){
+               text.put(template.getText(), constant(template.getText() + "\n"));
+            }
+         }
+      }
+   }
+
+   /* The current story version, encoding it first if it was published since the last new player.
+      Loops racing here may both encode it; either copy works and the other is dropped.*/
+   private EncodedStory currentStory(){
+      EncodedStory story = encoded;
+      StoryPack latest = stories.getStory();
+      if (story.story != latest){
+         story = new EncodedStory(latest);
+         encoded = story;
+      }
+      return story;
+   }
+
+   /* The title line of a block, as ConsoleGameIO prints it; the few titles in use are encoded once.*/
+   private ByteBuffer header(String title, MessageType type){
+      Map<String, ByteBuffer> byTitle = headers.get(type);
+      ByteBuffer header = byTitle.get(title);
+      if (header == null){
+         String suffix = (type == MessageType.WARNING || type == MessageType.ERROR) ? " (" + type.name().toLowerCase() + ")" : "";
+         header = constant("=== " + title + suffix + " ===\n");
+         if (byTitle.size() < 64){ //Titles are a handful of literals; don't let odd ones grow the cache
+            byTitle.put(title, header);
+         }
+      }
+      return header.duplicate();
+   }
+
+   /* "Choose 1-n: " for a number of options.*/
+   private static ByteBuffer choosePrompt(int count){
+      return encode("Choose 1-" + count + ": ");
+   }
+
+   /* Reads an option number typed from 1, returning its index, or -1 if it is not one.*/
+   private static int parseChoice(String text, int count){
+      try {
+         int choice = Integer.parseInt(text.trim());
+         return choice >= 1 && choice <= count ? choice - 1 : -1;
+      } catch (NumberFormatException e){
+         return -1;
+      }
+   }
+
+   /* Encodes text for the wire, with telnet's CRLF line ends.*/
+   private static ByteBuffer encode(String text){
+      return ByteBuffer.wrap(text.replace("\r\n", "\n").replace("\n", "\r\n").getBytes(StandardCharsets.UTF_8));
+   }
+
+   /* Encodes text once into a read-only direct buffer, which the socket can send without another copy.*/
+   private static ByteBuffer constant(String text){
+      ByteBuffer bytes = encode(text);
+      return ByteBuffer.allocateDirect(bytes.remaining()).put(bytes).flip().asReadOnlyBuffer();
+   }
+
+   /** Command line entry point. Serves the default story and reloads it whenever mansion.story changes.
+       @param args Optional port (default 2323) and number of event loops (default 1).*/
+   public static void main(String[] args) throws IOException, InterruptedException {
+      int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+      int loopCount = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+      StoryRepository stories = StoryRepository.getDefault();
+      stories.startWatching(2, TimeUnit.SECONDS); //Edits to mansion.story reach new players without a restart
+      TextServer server = new TextServer(stories, new InetSocketAddress(port), loopCount);
+      System.out.println("Mystery Mansion text server on port " + server.getPort() + " with " + loopCount + " event loop(s)");
+      for (EventLoop loop : server.loops){
+         loop.thread.join();
+      }
+   }
+}
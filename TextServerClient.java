@@ -0,0 +1,124 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+  Load test for TextServer over real sockets: connects every session first, so the server holds
+  them all at once, then plays each one to its end the way a telnet player would, reading the
+  server's text until it asks something and typing an answer: a random option for choices, a
+  guess for puzzles and "n" at the replay question. Reports the sessions per second and the bytes
+  received. Without a host it starts a TextServer in the same JVM on a free port.
+  Run it with: java TextServerClient [sessions] [threads] [host port]
+  */
+public class TextServerClient {
+   private static final String CHOOSE = "Choose 1-"; // How the server asks for an option number.
+   private static final String ANSWER = "> "; // How it asks for a line of text.
+   private static final String CONFIRM = "(y/n): "; // How it asks yes or no.
+
+   /** Runs the load test.
+       @param args Optional number of sessions (default 1000), client threads (default 32),
+                   and the host and port of a running server.*/
+   public static void main(String[] args) throws Exception {
+      int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+      int threads = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+      TextServer local = null;
+      InetSocketAddress address;
+      if (args.length > 3){
+         address = new InetSocketAddress(args[2], Integer.parseInt(args[3]));
+      } else {
+         local = new TextServer(StoryPack.getDefault(), new InetSocketAddress("localhost", 0), 2);
+         address = new InetSocketAddress("localhost", local.getPort());
+      }
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      try {
+         List<Socket> sockets = new ArrayList<>(count);
+         for (int i = 0; i < count; i++){
+            Socket socket = new Socket();
+            socket.connect(address);
+            socket.setTcpNoDelay(true);
+            sockets.add(socket);
+         }
+         AtomicLong bytes = new AtomicLong();
+         long start = System.nanoTime();
+         List<Future<Integer>> results = new ArrayList<>(count);
+         for (int i = 0; i < count; i++){
+            Socket socket = sockets.get(i);
+            SplittableRandom random = new SplittableRandom(i);
+            String name = "Bot" + i;
+            results.add(pool.submit(() -> play(socket, name, random, bytes)));
+         }
+         long answers = 0;
+         for (Future<Integer> result : results){
+            answers += result.get();
+         }
+         double seconds = (System.nanoTime() - start) / 1e9;
+         System.out.printf("%d sessions over TCP in %.2f s (%.0f sessions/s, %.0f answers/s), %.1f MB received%n",
+               count, seconds, count / seconds, answers / seconds, bytes.get() / 1048576.0);
+      } finally {
+         pool.shutdown();
+         if (local != null){
+            local.close();
+         }
+      }
+   }
+
+   /* Plays one session to the end and returns the number of answers typed.*/
+   private static int play(Socket socket, String name, SplittableRandom random, AtomicLong bytes){
+      try (Socket connection = socket){
+         InputStream in = connection.getInputStream();
+         OutputStream out = connection.getOutputStream();
+         byte[] buffer = new byte[8192];
+         StringBuilder line = new StringBuilder(); // Text received since the last newline.
+         int answers = 0;
+         boolean named = false;
+         int read;
+         while ((read = in.read(buffer)) > 0){
+            bytes.addAndGet(read);
+            for (int i = 0; i < read; i++){
+               if (buffer[i] == '\n'){
+                  line.setLength(0);
+               } else if (buffer[i] != '\r'){
+                  line.append((char) (buffer[i] & 0xFF)); //Only the ASCII prompts are looked at
+               }
+            }
+            String reply = reply(line.toString(), named ? null : name, random);
+            if (reply != null){
+               out.write((reply + "\r\n").getBytes(StandardCharsets.UTF_8));
+               out.flush();
+               line.setLength(0);
+               named = true;
+               answers++;
+            }
+         }
+         return answers;
+      } catch (IOException e){
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   /* The line to type if the server is waiting on one, or null to keep reading.*/
+   private static String reply(String line, String name, SplittableRandom random){
+      if (line.startsWith(CHOOSE) && line.endsWith(": ")){
+         int options = Integer.parseInt(line.substring(CHOOSE.length(), line.length() - 2));
+         return String.valueOf(1 + random.nextInt(options));
+      }
+      if (line.equals(ANSWER)){
+         return name != null ? name : random.nextBoolean() ? "HAUNTED" : "KEY";
+      }
+      if (line.endsWith(CONFIRM)){
+         return "n";
+      }
+      return null;
+   }
+}
@@ -0,0 +1,133 @@
+import java.util.Arrays;
+
+/**
+  A piece of story text with placeholders for the player's details, compiled once into segments.
+  Supported placeholders are {name}, {score} and {items} (the collected objects, comma separated).
+  Compiling splits the text into literal ranges and placeholders; rendering then appends each
+  range of the original text and each player field straight into the caller's StringBuilder,
+  so no intermediate strings are built, and text without placeholders is used as it is.
+  StoryPack keeps one compiled template per story string, shared by every session.
+  */
+public final class TextTemplate {
+   //Placeholder codes; literal ranges are stored as a non-negative start and end
+   private static final int NAME = -1;
+   private static final int SCORE = -2;
+   private static final int ITEMS = -3;
+   private static final String[] PLACEHOLDERS = {"{name}", "{score}", "{items}"};
+
+   private final String text; // The source text the literal ranges point into.
+   private final int[] segments; // start, end for a literal range, or a negative placeholder code.
+   private final boolean constant; // True if there are no placeholders.
+
+   private TextTemplate(String text, int[] segments){
+      this.text = text;
+      this.segments = segments;
+      boolean constant = true;
+      for (int segment : segments){
+         constant &= segment >= 0;
+      }
+      this.constant = constant;
+   }
+
+   /** Compiles a text into a template.
+       @param text The story text.
+       @return The compiled template.
+       @throws IllegalArgumentException if the text has an unknown placeholder, ex. {nmae}.*/
+   public static TextTemplate compile(String text){
+      int[] segments = new int[8];
+      int count = 0;
+      int literalStart = 0;
+      int open = text.indexOf('{');
+      while (open >= 0){
+         int close = text.indexOf('}', open);
+         if (close < 0){
+            break; //A lone brace is just text
+         }
+         int code = placeholder(text, open, close + 1);
+         if (code == 0){
+            open = text.indexOf('{', open + 1);
+            continue;
+         }
+         if (count + 3 > segments.length){
+            segments = Arrays.copyOf(segments, segments.length * 2);
+         }
+         if (open > literalStart){
+            segments[count++] = literalStart;
+            segments[count++] = open;
+         }
+         segments[count++] = code;
+         literalStart = close + 1;
+         open = text.indexOf('{', literalStart);
+      }
+      if (literalStart < text.length()){
+         if (count + 2 > segments.length){
+            segments = Arrays.copyOf(segments, segments.length + 2);
+         }
+         segments[count++] = literalStart;
+         segments[count++] = text.length();
+      }
+      return new TextTemplate(text, Arrays.copyOf(segments, count));
+   }
+
+   /** Checks if the template has no placeholders, so getText() is already the rendered text.
+       @return true if the text is the same for every player.*/
+   public boolean isConstant(){
+      return constant;
+   }
+
+   /** @return The source text, placeholders included.*/
+   public String getText(){
+      return text;
+   }
+
+   /** Appends the text for a player to a buffer.
+       @param player The player whose details fill the placeholders.
+       @param out The buffer to append to; it can be reused between calls.
+       @return The same buffer.*/
+   public StringBuilder render(Player player, StringBuilder out){
+      return render(player.getState(), out);
+   }
+
+   /** Appends the text for a player's state to a buffer, so every placeholder comes from the same moment.
+       @param player The state whose details fill the placeholders.
+       @param out The buffer to append to; it can be reused between calls.
+       @return The same buffer.*/
+   public StringBuilder render(PlayerState player, StringBuilder out){
+      for (int i = 0; i < segments.length; i++){
+         switch (segments[i]){
+            case NAME: out.append(player.getName()); break;
+            case SCORE: out.append(player.getScore()); break;
+            case ITEMS: player.appendCollectedObjects(out); break;
+            default: out.append(text, segments[i], segments[++i]); break;
+         }
+      }
+      return out;
+   }
+
+   /** Renders the text for a player as a string, reusing the source text if it has no placeholders.
+       @param player The player whose details fill the placeholders.
+       @return The rendered text.*/
+   public String render(Player player){
+      return constant ? text : render(player, new StringBuilder(text.length() + 16)).toString();
+   }
+
+   /* Returns the code of the placeholder text[start, end), or 0 if it is not one.
+      Anything that looks like {word} but is not known is rejected, since it is almost certainly a typo.*/
+   private static int placeholder(String text, int start, int end){
+      for (int i = 0; i < PLACEHOLDERS.length; i++){
+         if (text.startsWith(PLACEHOLDERS[i], start) && PLACEHOLDERS[i].length() == end - start){
+            return -1 - i;
+         }
+      }
+      for (int i = start + 1; i < end - 1; i++){
+         if (!Character.isLetter(text.charAt(i))){
+            return 0; //Not a placeholder at all, ex. a brace in the narrative
+         }
+      }
+      if (end - start == 2){
+         return 0; //"{}"
+      }
+      throw new IllegalArgumentException("Unknown placeholder " + text.substring(start, end)
+            + "; use {name}, {score} or {items}");
+   }
+}